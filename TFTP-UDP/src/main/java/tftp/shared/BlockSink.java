@@ -0,0 +1,27 @@
+package tftp.shared;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Where the contents of a file being received go - the counterpart of {@link BlockSource}. Data is written in order
+ * as it arrives, and may be written to the disk later. Not thread-safe, but each transfer has a sink of its own.
+ */
+public interface BlockSink extends Closeable {
+
+    //write the bytes between the buffer's position and limit after everything written so far. the buffer can be
+    // reused as soon as this returns. throws an exception if an earlier write has failed
+    void write(ByteBuffer data) throws IOException;
+
+    //write out everything written so far, synced to the disk as far as the sink's durability asks. the future
+    // completes (on some other thread) once it has been, or exceptionally with the IOException if it couldn't be
+    CompletableFuture<Void> flush();
+
+    //the sender has said how big the file is (RFC 2349), before any of it is written - the sink can make room for it
+    // up front. throws an exception if there isn't room
+    default void expect(long size) throws IOException {
+    }
+
+}
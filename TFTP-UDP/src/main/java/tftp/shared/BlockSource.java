@@ -0,0 +1,27 @@
+package tftp.shared;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The contents of a file being sent, addressed by position rather than read as a stream - block n of a transfer is
+ * at offset n * block size, so any block can be read (or read again) at any time, straight into the packet it is sent
+ * in. Sources are not thread-safe, but each transfer has a source of its own.
+ */
+public interface BlockSource extends Closeable {
+
+    //read from the given offset into the buffer, from its position up to its limit or the end of the source,
+    // returning the number of bytes read (0 at or past the end). the buffer's position is left after the data read
+    int read(long offset, ByteBuffer buffer) throws IOException;
+
+    //the number of bytes in the source
+    long size() throws IOException;
+
+    //whether a read from the given offset can be made now without waiting on the disk. if not, the callback is run
+    // (on some other thread) once it can. sources which read on demand are always ready
+    default boolean whenReady(long offset, Runnable callback) {
+        return true;
+    }
+
+}
@@ -0,0 +1,39 @@
+package tftp.shared;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link BlockSource} over file contents already in memory. The buffer may be shared by many sources (and so many
+ * transfers) at once, as it is never modified and each source reads through its own view of it.
+ */
+public class BufferBlockSource implements BlockSource {
+
+    private final ByteBuffer contents;
+
+    public BufferBlockSource(ByteBuffer contents) {
+        this.contents = contents.slice();
+    }
+
+    @Override
+    public int read(long offset, ByteBuffer buffer) {
+        if (offset >= contents.limit()) {
+            return 0;
+        }
+        int length = (int) Math.min(buffer.remaining(), contents.limit() - offset);
+        contents.limit((int) offset + length).position((int) offset);
+        buffer.put(contents);
+        contents.clear();
+        return length;
+    }
+
+    @Override
+    public long size() {
+        return contents.capacity();
+    }
+
+    @Override
+    public void close() {
+        //nothing to release - the buffer belongs to whoever created it
+    }
+
+}
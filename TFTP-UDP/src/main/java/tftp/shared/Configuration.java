@@ -0,0 +1,47 @@
+package tftp.shared;
+
+import java.net.InetAddress;
+
+public class Configuration {
+
+    public static final int DEFAULT_BLOCK_SIZE = 512;
+    public static final int MIN_BLOCK_SIZE = 8;
+    public static final int MAX_BLOCK_SIZE = 65464;
+    public static final int MAX_WINDOW_SIZE = 64;
+    public static final int MAX_PACKET_LENGTH = DEFAULT_BLOCK_SIZE + 4;
+    public static final int DEFAULT_SERVER_PORT = 6009;
+    //the default number of bytes of file contents the server keeps in memory
+    public static final long DEFAULT_CACHE_SIZE = 64L * 1024 * 1024;
+    public static final int MAX_INVALIDS = 5;
+    //the most datagrams an event loop sends or receives in one batch
+    public static final int IO_BATCH_SIZE = 16;
+    //bounds on the retransmission timeout in ms, however the round trip time is measured or backed off
+    public static final int MIN_TIMEOUT = 200;
+    public static final int MAX_TIMEOUT = 60000;
+    //the retransmission timeout in ms used until a session has measured the round trip time
+    public static volatile int TIMEOUT = 3000;
+    //how long in ms a transfer can go without progress before it is abandoned
+    public static volatile int DEADLINE = 15000;
+    //the most bytes per second of data sent by a single transfer, and by every transfer on a server together, 0 for
+    // no limit
+    public static volatile long SESSION_RATE = 0;
+    public static volatile long GLOBAL_RATE = 0;
+    //how many blocks the server reads ahead of a transfer from a file which isn't cached, 0 to read on demand
+    public static volatile int READ_AHEAD = 0;
+    //the most bytes of data a sender keeps in flight on a transfer with the window size option - its window grows past
+    // the window size while nothing is lost, up to this. 0 to keep to the window size
+    public static volatile long MAX_IN_FLIGHT = 1024 * 1024;
+    //how far a received file is synced to the disk before the final block is acknowledged, and for PERIODIC, how often
+    // in ms
+    public static volatile Durability DURABILITY = Durability.NONE;
+    public static volatile int SYNC_INTERVAL = 1000;
+    //what follows block 65535 in a transfer which doesn't negotiate it with the rollover option
+    public static volatile Rollover ROLLOVER = Rollover.ZERO;
+    //the address the server sends files to for clients asking for multicast (RFC 2090), null for no multicast, and the
+    // port of the first group - each file being sent at once has a port of its own, counting up from there
+    public static volatile InetAddress MULTICAST_ADDRESS = null;
+    public static volatile int MULTICAST_PORT = 1758;
+    //the network interface multicast is sent and received on, null for the system's choice
+    public static volatile String MULTICAST_INTERFACE = null;
+
+}
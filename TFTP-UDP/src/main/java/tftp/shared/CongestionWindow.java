@@ -0,0 +1,116 @@
+package tftp.shared;
+
+/**
+ * The number of blocks a sender keeps in flight, adapted to what the path between the hosts can take as TCP does
+ * (RFC 5681). The receiver acknowledges every window size blocks (RFC 7440), so the window size negotiated for the
+ * transfer is the least that can be in flight without waiting on the receiver to time out - the window starts there,
+ * grows by a block for each block acknowledged up to the slow start threshold, then by a block a round trip. Blocks
+ * reported lost halve it, and a timeout drops it back to the window size, halving the threshold. A transfer without
+ * the window size option keeps to one block at a time, as RFC 1350 receivers expect.
+ */
+public class CongestionWindow {
+
+    //the most blocks a window can grow to, whatever the block size
+    private static final int MAX_BLOCKS = 4096;
+
+    private final int windowSize;
+    private final int limit;
+
+    //the window in blocks, fractional so that it can grow by less than a block for each acknowledgement
+    private double window;
+    private double threshold;
+    //every block sent up to this one is part of the loss last reported - any more losses reported before it is
+    // acknowledged are from the same window, so don't halve it again
+    private long recovery = 0;
+
+    private int peak;
+    private int losses = 0;
+    private int timeouts = 0;
+
+
+    //a window starting at the given window size, growing up to the given limit
+    public CongestionWindow(int windowSize, int limit) {
+        this.windowSize = windowSize;
+        this.limit = Math.max(windowSize, limit);
+        this.window = windowSize;
+        this.threshold = this.limit;
+        this.peak = windowSize;
+    }
+
+    //the window for a transfer with the given options, growing to no more than Configuration.MAX_IN_FLIGHT bytes
+    public static CongestionWindow forTransfer(TransferOptions options) {
+        int windowSize = options.getWindowSize();
+        if (windowSize == 1 || Configuration.MAX_IN_FLIGHT <= 0) {
+            return new CongestionWindow(windowSize, windowSize);
+        }
+        long limit = Math.min(Configuration.MAX_IN_FLIGHT / options.getBlockSize(), MAX_BLOCKS);
+        return new CongestionWindow(windowSize, (int) limit);
+    }
+
+    //the number of blocks which may be in flight
+    public int get() {
+        return (int) window;
+    }
+
+    //the most blocks which could ever be in flight
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getPeak() {
+        return peak;
+    }
+
+    public int getLosses() {
+        return losses;
+    }
+
+    public int getTimeouts() {
+        return timeouts;
+    }
+
+    //whether the window can grow past the window size
+    public boolean isAdaptive() {
+        return limit > windowSize;
+    }
+
+    //blocks were acknowledged without any being lost
+    public void acknowledged(long blocks) {
+        if (window < threshold) {
+            window += blocks;
+        } else {
+            window += blocks / window;
+        }
+        window = Math.min(window, limit);
+        peak = Math.max(peak, get());
+    }
+
+    //the receiver reported the block after lastAcked lost, with every block up to lastSent sent. returns false if the
+    // loss is part of one already reported
+    public boolean lost(long lastAcked, long lastSent) {
+        if (lastAcked < recovery) {
+            return false;
+        }
+        recovery = lastSent;
+        ++losses;
+        threshold = Math.max(windowSize, window / 2);
+        window = threshold;
+        return true;
+    }
+
+    //nothing was acknowledged before the timeout, with every block up to lastSent sent
+    public void timedOut(long lastSent) {
+        recovery = lastSent;
+        ++timeouts;
+        threshold = Math.max(windowSize, window / 2);
+        window = windowSize;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "window %d blocks, peak %d, %d losses, %d timeouts", get(), peak, losses, timeouts
+        );
+    }
+
+}
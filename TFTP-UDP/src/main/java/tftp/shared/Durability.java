@@ -0,0 +1,15 @@
+package tftp.shared;
+
+/**
+ * How far a file written by a transfer is synced to the disk before the final block is acknowledged.
+ */
+public enum Durability {
+
+    //written to the operating system, which gets it to the disk in its own time
+    NONE,
+    //synced to the disk once the whole file has been written
+    END,
+    //synced every Configuration.SYNC_INTERVAL ms as the file is written, and once at the end
+    PERIODIC
+
+}
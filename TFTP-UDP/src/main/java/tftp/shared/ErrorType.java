@@ -9,7 +9,17 @@ public enum ErrorType {
     ILLEGAL_OPERATION(4, "Illegal TFTP operation."),
     UNKNOWN_ID(5, "Unknown transfer ID."),
     FILE_EXISTS(6, "File already exists."),
-    NO_SUCH_USER(7, "No such user.");
+    NO_SUCH_USER(7, "No such user."),
+    OPTION_NEGOTIATION(8, "Option negotiation failed.");
+
+    //every type indexed by value, so that looking up a value doesn't allocate a copy of values()
+    private static final ErrorType[] BY_VALUE = new ErrorType[9];
+
+    static {
+        for (ErrorType error : values()) {
+            BY_VALUE[error.value] = error;
+        }
+    }
 
     private final short value;
     private final String meaning;
@@ -30,10 +40,8 @@ public enum ErrorType {
 
 
     public static ErrorType fromValue(int value) {
-        for (ErrorType error : values()) {
-            if (error.value == value) {
-                return error;
-            }
+        if (value >= 0 && value < BY_VALUE.length) {
+            return BY_VALUE[value];
         }
         return UNDEFINED;
     }
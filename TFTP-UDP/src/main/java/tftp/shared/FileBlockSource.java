@@ -0,0 +1,50 @@
+package tftp.shared;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link BlockSource} which reads a file with positional reads, so nothing is buffered between the file and the
+ * packets and the channel's position never has to be tracked. Reading into a direct buffer goes straight from the
+ * page cache to the buffer.
+ */
+public class FileBlockSource implements BlockSource {
+
+    private final FileChannel channel;
+
+    public FileBlockSource(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    public static FileBlockSource open(Path path) throws IOException {
+        return new FileBlockSource(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    @Override
+    public int read(long offset, ByteBuffer buffer) throws IOException {
+        int total = 0;
+        //a single read can return less than asked for, so keep reading until the buffer is full or the file ends
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset + total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,88 @@
+package tftp.shared;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Spreads the packets of a transfer evenly in time to keep under a rate in bytes per second, rather than sending a
+ * whole window back to back. Each packet reserves the next free slot on a virtual clock, which moves on by the time
+ * its bytes take at the rate - the caller then sends it once that time comes, by waiting on its own thread or arming
+ * a timer, so no thread is needed for the pacer itself. A pacer can have a parent, such as a server-wide budget
+ * shared by every transfer, which is then respected too - as each transfer only ever holds the one slot it is about
+ * to use, the parent's budget is shared between them in turn. Thread-safe.
+ */
+public class Pacer {
+
+    //how far in ns the clock can fall behind before the time is written off, which bounds the burst sent to catch up
+    // after an idle spell. a sender woken by a timer can be a little late, and that time shouldn't be lost
+    private static final long SLACK = 2_000_000;
+
+    //ns per byte at the rate, 0 for no limit
+    private final double nanosPerByte;
+    private final Pacer parent;
+    private final boolean limited;
+    //the time in ns from which the next packet can be sent
+    private final AtomicLong nextFree = new AtomicLong(Long.MIN_VALUE);
+
+
+    public Pacer(long bytesPerSecond) {
+        this(bytesPerSecond, null);
+    }
+
+    //a limit of 0 bytes per second means none - only the parent's limit, if any, applies
+    public Pacer(long bytesPerSecond, Pacer parent) {
+        this.nanosPerByte = bytesPerSecond > 0 ? 1e9 / bytesPerSecond : 0;
+        this.parent = parent;
+        this.limited = nanosPerByte > 0 || parent != null && parent.limited;
+    }
+
+    //a pacer for a single transfer within a budget shared with others, using the limits in Configuration
+    public static Pacer forSession(Pacer shared) {
+        return new Pacer(Configuration.SESSION_RATE, shared);
+    }
+
+    //whether this pacer or its parent limits anything
+    public boolean isLimited() {
+        return limited;
+    }
+
+    //reserve the time to send a packet of the given length, returning the System.nanoTime() at which to send it
+    public long reserve(int bytes) {
+        return reserve(bytes, Long.MIN_VALUE);
+    }
+
+    //wait on the calling thread until a packet of the given length can be sent
+    public void pace(int bytes) {
+        if (!limited) {
+            return;
+        }
+        long sendAt = reserve(bytes);
+        long wait;
+        while ((wait = sendAt - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    private long reserve(int bytes, long notBefore) {
+        long now = System.nanoTime();
+        long cost = (long) (bytes * nanosPerByte);
+        while (true) {
+            long free = nextFree.get();
+            long start = Math.max(Math.max(free, now - SLACK), notBefore);
+            if (parent != null) {
+                //the parent may push the packet later still - this pacer's clock then follows on from there
+                start = parent.reserve(bytes, start);
+            }
+            if (cost == 0 || nextFree.compareAndSet(free, start + cost)) {
+                return start;
+            }
+            if (parent != null) {
+                //lost a race with another thread using this pacer - the parent's slot is already taken, so use it
+                // rather than reserving another
+                nextFree.accumulateAndGet(start + cost, Math::max);
+                return start;
+            }
+        }
+    }
+
+}
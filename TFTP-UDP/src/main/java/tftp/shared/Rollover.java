@@ -0,0 +1,59 @@
+package tftp.shared;
+
+/**
+ * What follows block 65535 in a transfer too long for the 16-bit block numbers of RFC 1350, which says nothing on
+ * the matter. Transfers count blocks with sequence numbers which never wrap, and only the block number on the wire
+ * rolls over. The value is that of the "rollover" option, as used by other implementations to agree on it.
+ */
+public enum Rollover {
+
+    //block 65535 is followed by block 0, as most implementations do
+    ZERO(0),
+    //block 65535 is followed by block 1, so block 0 only ever starts a transfer
+    ONE(1);
+
+    private final int value;
+
+
+    Rollover(int value) {
+        this.value = value;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    //the block number on the wire for the given sequence number
+    public short toBlockNumber(long sequence) {
+        if (this == ZERO || sequence <= 0) {
+            return (short) sequence;
+        }
+        return (short) ((sequence - 1) % 65535 + 1);
+    }
+
+    //the sequence number with the given block number on the wire which is nearest to the given sequence number, in
+    // either direction
+    public long toSequence(short blockNumber, long near) {
+        int number = Short.toUnsignedInt(blockNumber);
+        if (this == ONE && number == 0) {
+            return 0;
+        }
+        //how many block numbers there are before they repeat
+        int period = this == ZERO ? 65536 : 65535;
+        long distance = Math.floorMod(number - near, (long) period);
+        if (distance >= period / 2) {
+            distance -= period;
+        }
+        return near + distance;
+    }
+
+    public static Rollover fromValue(int value) throws TFTPException {
+        for (Rollover rollover : values()) {
+            if (rollover.value == value) {
+                return rollover;
+            }
+        }
+        throw new TFTPException("rollover must be 0 or 1: " + value);
+    }
+
+}
@@ -0,0 +1,73 @@
+package tftp.shared;
+
+/**
+ * Estimates the round trip time to the remote host of a single transfer to set its retransmission timeout, as TCP
+ * does (RFC 6298). Only packets which were sent once are measured (Karn's algorithm), and the timeout doubles each
+ * time it expires until a new measurement is taken.
+ */
+public class RttEstimator {
+
+    //the granularity of the clock in nanoseconds - the variation term of the timeout is never less than this
+    private static final long GRANULARITY = 1_000_000;
+
+    //the smoothed round trip time and its mean deviation in nanoseconds, srtt is -1 until the first measurement
+    private long srtt = -1;
+    private long rttvar = 0;
+
+    //the retransmission timeout in ms, and the number of times it has been doubled since the last measurement
+    private int timeout;
+    private int backoffs = 0;
+
+
+    public RttEstimator() {
+        this(Configuration.TIMEOUT);
+    }
+
+    public RttEstimator(int initialTimeout) {
+        this.timeout = clamp(initialTimeout);
+    }
+
+    //the time in ms to wait for a response before re-sending
+    public int getTimeout() {
+        return clamp((long) timeout << backoffs);
+    }
+
+    //the smoothed round trip time in ms, or -1 if nothing has been measured yet
+    public double getSmoothedRtt() {
+        return srtt < 0 ? -1 : srtt / 1e6;
+    }
+
+    //update the estimate with the time between sending a packet and receiving the response to it - the caller must
+    // make sure the packet was only sent once, otherwise it is unknown which copy was responded to
+    public void sample(long rttNanos) {
+        if (srtt < 0) {
+            srtt = rttNanos;
+            rttvar = rttNanos / 2;
+        } else {
+            rttvar = (3 * rttvar + Math.abs(srtt - rttNanos)) / 4;
+            srtt = (7 * srtt + rttNanos) / 8;
+        }
+        long rto = srtt + Math.max(GRANULARITY, 4 * rttvar);
+        //round up to whole ms
+        timeout = clamp((rto + 999_999) / 1_000_000);
+        backoffs = 0;
+    }
+
+    //the timeout expired - wait twice as long before re-sending again
+    public void backoff() {
+        if (getTimeout() < Configuration.MAX_TIMEOUT) {
+            ++backoffs;
+        }
+    }
+
+    //something new got through, so the path is working again - go back to the measured timeout without waiting for a
+    // packet which was only sent once to be measured, which might not happen for a long time on a lossy path
+    public void clearBackoff() {
+        backoffs = 0;
+    }
+
+    private static int clamp(long timeout) {
+        return (int) Math.max(Configuration.MIN_TIMEOUT, Math.min(timeout, Configuration.MAX_TIMEOUT));
+    }
+
+}
@@ -0,0 +1,161 @@
+package tftp.shared;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A {@link BlockSink} for a file which is written under a temporary name alongside it, and only takes its place with
+ * an atomic rename once it has been received in full - anyone reading the file meanwhile sees the old version whole,
+ * and carries on seeing it if they opened it before the rename. The flush at the end of the transfer publishes the
+ * file, so must be the last thing done with the sink. Closing the sink before then deletes whatever was written.
+ */
+public class StagedBlockSink implements BlockSink {
+
+    private final Path destination;
+    private final Path staging;
+    private final FileChannel channel;
+    private final Durability durability;
+    //writes the staging file behind the transfer
+    private final BlockSink sink;
+    //the size the staging file was extended to up front, and the bytes written to it
+    private long allocated;
+    private long written = 0;
+    private volatile boolean published = false;
+
+
+    private StagedBlockSink(Path destination, Path staging, FileChannel channel, long allocated,
+                            Durability durability) {
+        this.destination = destination;
+        this.staging = staging;
+        this.channel = channel;
+        this.allocated = allocated;
+        this.durability = durability;
+        this.sink = new WriteBehindBlockSink(channel, durability);
+    }
+
+    //start writing the file at the given path, which may already exist. if the size is known (not -1), the staging
+    // file is extended to it straight away rather than growing a block at a time
+    public static StagedBlockSink open(Path destination, long size, Durability durability) throws IOException {
+        Path absolute = destination.toAbsolutePath();
+        if (Files.exists(absolute) && !Files.isRegularFile(absolute)) {
+            //the rename would replace it rather than write into it
+            throw new IOException("not a regular file: " + destination);
+        }
+        //in the same directory, so that the rename never has to copy the file between file systems
+        Path staging;
+        FileChannel channel;
+        while (true) {
+            staging = absolute.resolveSibling(String.format(
+                    ".%s.%08x.part", absolute.getFileName(), ThreadLocalRandom.current().nextInt()
+            ));
+            try {
+                channel = FileChannel.open(staging, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                //another upload picked the same name - pick again
+            }
+        }
+        try {
+            if (size > 0) {
+                channel.write(ByteBuffer.allocate(1), size - 1);
+            }
+        } catch (IOException e) {
+            channel.close();
+            Files.deleteIfExists(staging);
+            throw e;
+        }
+        return new StagedBlockSink(absolute, staging, channel, Math.max(size, 0), durability);
+    }
+
+    //whether a file of the given size (or -1 if it isn't known) written to the path fits in the space left on the disk,
+    // alongside the file it replaces. if the space can't be found out, it's left to the writes to fail
+    public static boolean fits(Path destination, long size) {
+        if (size <= 0) {
+            return true;
+        }
+        try {
+            Path directory = destination.toAbsolutePath().getParent();
+            return size <= Files.getFileStore(directory).getUsableSpace();
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    //opened before the size was known - refuse the file now if it won't fit, rather than part way through, and extend
+    // the staging file to it as open would have
+    @Override
+    public void expect(long size) throws IOException {
+        if (!fits(destination, size)) {
+            throw new IOException("not enough space for " + size + " bytes");
+        }
+        if (size > allocated && written == 0) {
+            channel.write(ByteBuffer.allocate(1), size - 1);
+            allocated = size;
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer data) throws IOException {
+        int length = data.remaining();
+        sink.write(data);
+        written += length;
+    }
+
+    //write out the file, then put it in place of the destination
+    @Override
+    public CompletableFuture<Void> flush() {
+        return sink.flush().thenRun(() -> {
+            try {
+                publish();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sink.close();
+        } finally {
+            if (!published) {
+                Files.deleteIfExists(staging);
+            }
+        }
+    }
+
+    private void publish() throws IOException {
+        //the size given up front was more than was sent
+        if (allocated > written) {
+            channel.truncate(written);
+            if (durability != Durability.NONE) {
+                channel.force(true);
+            }
+        }
+        Files.move(staging, destination, StandardCopyOption.ATOMIC_MOVE);
+        published = true;
+        if (durability != Durability.NONE) {
+            syncDirectory();
+        }
+    }
+
+    //make the rename itself durable. not every platform can open a directory to sync it, in which case the rename is
+    // left to the file system
+    private void syncDirectory() {
+        try (FileChannel directory = FileChannel.open(destination.getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException ignore) {
+            //not supported here
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+package tftp.shared;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Provides string-related utilities for parsing TFTP packets according to the TFTP RFC.
+ */
+public class StringUtil {
+
+    //String to byte array
+    public static byte[] getBytes(String string) {
+        //get bytes with correct character format
+        byte[] bytes = string.getBytes(StandardCharsets.US_ASCII);
+        byte[] addNull = new byte[bytes.length + 1];
+        System.arraycopy(bytes, 0, addNull, 0, bytes.length);
+        //add a null character at the end
+        addNull[addNull.length - 1] = 0;
+        return addNull;
+    }
+
+    //Byte array to String
+    public static String getString(byte[] bytes, int offset) {
+        //first, find the null byte position
+        int nullPos = offset;
+        while (nullPos < bytes.length && bytes[nullPos] != 0) {
+            ++nullPos;
+        }
+        //given the null byte position, calculate the length of the string
+        int length = nullPos - offset;
+        //return a new string with the correct character format
+        return new String(bytes, offset, length, StandardCharsets.US_ASCII);
+    }
+
+    //Null-terminated option name/value pairs (RFC 2347) to map, option names are case-insensitive so are lower-cased
+    public static Map<String, String> getOptions(byte[] bytes, int offset, int length) {
+        Map<String, String> options = new LinkedHashMap<>();
+        int position = offset;
+        while (position < length) {
+            String name = getString(bytes, position, length);
+            position += name.length() + 1;
+            if (position >= length) {
+                //option name without a value - ignore it
+                break;
+            }
+            String value = getString(bytes, position, length);
+            position += value.length() + 1;
+            options.put(name.toLowerCase(), value);
+        }
+        return options;
+    }
+
+    //Map of options to null-terminated name/value pairs
+    public static byte[] getOptionBytes(Map<String, String> options) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            out.writeBytes(getBytes(option.getKey()));
+            out.writeBytes(getBytes(option.getValue()));
+        }
+        return out.toByteArray();
+    }
+
+    //Byte array to String, not reading past the given length
+    private static String getString(byte[] bytes, int offset, int length) {
+        int nullPos = offset;
+        while (nullPos < length && bytes[nullPos] != 0) {
+            ++nullPos;
+        }
+        return new String(bytes, offset, nullPos - offset, StandardCharsets.US_ASCII);
+    }
+
+}
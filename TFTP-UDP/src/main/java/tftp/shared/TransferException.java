@@ -0,0 +1,52 @@
+package tftp.shared;
+
+/**
+ * A transfer which has failed, and what kind of failure it was - for code driving transfers which needs to tell a
+ * missing file from an unreachable server without parsing messages. If the remote host ended the transfer with an
+ * error packet, {@link #getErrorType()} is the error it sent.
+ */
+public class TransferException extends TFTPException {
+
+    public enum Kind {
+        //the remote host sent an error packet
+        REMOTE_ERROR,
+        //nothing was heard from the remote host before the deadline
+        TIMED_OUT,
+        //the remote host broke the protocol - too many invalid packets, or options it shouldn't have acknowledged
+        PROTOCOL_ERROR,
+        //the local file couldn't be read or written
+        LOCAL_IO,
+        //the transfer was given up on at this end before it completed
+        CANCELLED
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    private final Kind kind;
+    private final ErrorType errorType;
+
+    public TransferException(Kind kind, String message) {
+        this(kind, null, message);
+    }
+
+    public TransferException(Kind kind, ErrorType errorType, String message) {
+        super(message);
+        this.kind = kind;
+        this.errorType = errorType;
+    }
+
+    //the remote host sent an error packet with the given type and message
+    public static TransferException remote(ErrorType errorType, String message) {
+        return new TransferException(Kind.REMOTE_ERROR, errorType, "error: " + message);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    //the error the remote host sent, or null if it didn't send one
+    public ErrorType getErrorType() {
+        return errorType;
+    }
+
+}
@@ -0,0 +1,267 @@
+package tftp.shared;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The parameters of a single transfer which can be negotiated with TFTP options (RFC 2347). An option
+ * that has not been requested/accepted is left unset, in which case the RFC 1350 default applies.
+ */
+public class TransferOptions {
+
+    public static final String BLOCK_SIZE = "blksize";
+    public static final String WINDOW_SIZE = "windowsize";
+    public static final String TRANSFER_SIZE = "tsize";
+    public static final String TIMEOUT = "timeout";
+    public static final String ROLLOVER = "rollover";
+    public static final String MULTICAST = "multicast";
+
+    //the range of the timeout option in seconds (RFC 2349)
+    private static final int MIN_TIMEOUT = 1;
+    private static final int MAX_TIMEOUT = 255;
+
+    //-1 (or null) when the option is not set
+    private int blockSize = -1;
+    private int windowSize = -1;
+    private Rollover rollover = null;
+    private long transferSize = -1;
+    private int timeout = -1;
+
+
+    public TransferOptions() {
+    }
+
+    //a copy of the given options, to change for a single transfer
+    public TransferOptions(TransferOptions options) {
+        this.blockSize = options.blockSize;
+        this.windowSize = options.windowSize;
+        this.rollover = options.rollover;
+        this.transferSize = options.transferSize;
+        this.timeout = options.timeout;
+    }
+
+    public int getBlockSize() {
+        return blockSize == -1 ? Configuration.DEFAULT_BLOCK_SIZE : blockSize;
+    }
+
+    public void setBlockSize(int blockSize) throws TFTPException {
+        if (blockSize < Configuration.MIN_BLOCK_SIZE || blockSize > Configuration.MAX_BLOCK_SIZE) {
+            throw new TFTPException(String.format(
+                    "block size must be between %d and %d: %d",
+                    Configuration.MIN_BLOCK_SIZE, Configuration.MAX_BLOCK_SIZE, blockSize
+            ));
+        }
+        this.blockSize = blockSize;
+    }
+
+    //the number of data packets which may be sent before waiting for an acknowledgement (RFC 7440)
+    public int getWindowSize() {
+        return windowSize == -1 ? 1 : windowSize;
+    }
+
+    public void setWindowSize(int windowSize) throws TFTPException {
+        if (windowSize < 1 || windowSize > Configuration.MAX_WINDOW_SIZE) {
+            throw new TFTPException(String.format(
+                    "window size must be between 1 and %d: %d", Configuration.MAX_WINDOW_SIZE, windowSize
+            ));
+        }
+        this.windowSize = windowSize;
+    }
+
+    //what follows block 65535, for transfers longer than that
+    public Rollover getRollover() {
+        return rollover == null ? Configuration.ROLLOVER : rollover;
+    }
+
+    public void setRollover(Rollover rollover) {
+        this.rollover = rollover;
+    }
+
+    //the size of the file being transferred (RFC 2349), or -1 if it isn't known. a read request asks for it with 0
+    public long getTransferSize() {
+        return transferSize;
+    }
+
+    public void setTransferSize(long transferSize) throws TFTPException {
+        if (transferSize < 0) {
+            throw new TFTPException("transfer size must not be negative: " + transferSize);
+        }
+        this.transferSize = transferSize;
+    }
+
+    //the time in ms to wait before re-sending, to start with - the timeout option is in whole seconds (RFC 2349)
+    public int getTimeout() {
+        return timeout == -1 ? Configuration.TIMEOUT : timeout * 1000;
+    }
+
+    public void setTimeout(int seconds) throws TFTPException {
+        if (seconds < MIN_TIMEOUT || seconds > MAX_TIMEOUT) {
+            throw new TFTPException(String.format(
+                    "timeout must be between %d and %d seconds: %d", MIN_TIMEOUT, MAX_TIMEOUT, seconds
+            ));
+        }
+        this.timeout = seconds;
+    }
+
+    //the length of the largest data packet which can be received with these options
+    public int getPacketLength() {
+        return getBlockSize() + 4;
+    }
+
+    //true if no option is set, i.e. a request carries no options and the server should not send an OACK
+    public boolean isEmpty() {
+        return toMap().isEmpty();
+    }
+
+    //the options which are set, as name/value pairs for a request or OACK packet
+    public Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+        if (blockSize != -1) {
+            map.put(BLOCK_SIZE, Integer.toString(blockSize));
+        }
+        if (windowSize != -1) {
+            map.put(WINDOW_SIZE, Integer.toString(windowSize));
+        }
+        if (rollover != null) {
+            map.put(ROLLOVER, Integer.toString(rollover.getValue()));
+        }
+        if (transferSize != -1) {
+            map.put(TRANSFER_SIZE, Long.toString(transferSize));
+        }
+        if (timeout != -1) {
+            map.put(TIMEOUT, Integer.toString(timeout));
+        }
+        return map;
+    }
+
+    //server side: accept the options in a request which are understood, clamping values to what the server
+    // supports. unknown or malformed options are ignored as per RFC 2347. a transfer size is accepted as requested -
+    // for a read request, the server replaces it with the size of the file
+    public static TransferOptions negotiate(Map<String, String> requested) {
+        TransferOptions accepted = new TransferOptions();
+
+        String blockSize = requested.get(BLOCK_SIZE);
+        if (blockSize != null) {
+            try {
+                int value = Integer.parseInt(blockSize);
+                if (value >= Configuration.MIN_BLOCK_SIZE) {
+                    accepted.blockSize = Math.min(value, Configuration.MAX_BLOCK_SIZE);
+                }
+            } catch (NumberFormatException ignore) {
+                //leave the option unset
+            }
+        }
+
+        String windowSize = requested.get(WINDOW_SIZE);
+        if (windowSize != null) {
+            try {
+                int value = Integer.parseInt(windowSize);
+                if (value >= 1) {
+                    accepted.windowSize = Math.min(value, Configuration.MAX_WINDOW_SIZE);
+                }
+            } catch (NumberFormatException ignore) {
+                //leave the option unset
+            }
+        }
+
+        String rollover = requested.get(ROLLOVER);
+        if (rollover != null) {
+            try {
+                accepted.rollover = Rollover.fromValue(Integer.parseInt(rollover));
+            } catch (NumberFormatException | TFTPException ignore) {
+                //leave the option unset
+            }
+        }
+
+        accepted.transferSize = requestedTransferSize(requested);
+
+        //a timeout out of range isn't acknowledged, as the RFC has it
+        String timeout = requested.get(TIMEOUT);
+        if (timeout != null) {
+            try {
+                int value = Integer.parseInt(timeout);
+                if (value >= MIN_TIMEOUT && value <= MAX_TIMEOUT) {
+                    accepted.timeout = value;
+                }
+            } catch (NumberFormatException ignore) {
+                //leave the option unset
+            }
+        }
+
+        return accepted;
+    }
+
+    //the size of the file a write request says is coming (RFC 2349), or -1 if it doesn't say
+    public static long requestedTransferSize(Map<String, String> requested) {
+        String size = requested.get(TRANSFER_SIZE);
+        if (size == null) {
+            return -1;
+        }
+        try {
+            return Math.max(Long.parseLong(size), -1);
+        } catch (NumberFormatException ignore) {
+            return -1;
+        }
+    }
+
+    //whether a read request asks for the file to be sent by multicast (RFC 2090) - the option has no value in a request
+    public static boolean requestsMulticast(Map<String, String> requested) {
+        return requested.containsKey(MULTICAST);
+    }
+
+    //client side: check the options acknowledged by the server against these (requested) options, and return
+    // the options to use for the transfer. the server may only acknowledge options which were requested and
+    // may not choose a larger block/window size than requested, or a different timeout
+    public TransferOptions acknowledge(Map<String, String> acknowledged) throws TFTPException {
+        TransferOptions accepted = new TransferOptions();
+
+        for (Map.Entry<String, String> option : acknowledged.entrySet()) {
+            String name = option.getKey();
+            if (name.equals(TRANSFER_SIZE) && transferSize != -1) {
+                //the size of the file, which can be more than an int holds
+                try {
+                    accepted.setTransferSize(Long.parseLong(option.getValue()));
+                } catch (NumberFormatException | TFTPException e) {
+                    throw new TFTPException("invalid transfer size acknowledged: " + option.getValue());
+                }
+                continue;
+            }
+
+            int value;
+            try {
+                value = Integer.parseInt(option.getValue());
+            } catch (NumberFormatException nfe) {
+                throw new TFTPException("invalid value for option " + name + ": " + option.getValue());
+            }
+
+            if (name.equals(BLOCK_SIZE) && blockSize != -1) {
+                if (value < Configuration.MIN_BLOCK_SIZE || value > blockSize) {
+                    throw new TFTPException("invalid block size acknowledged: " + value);
+                }
+                accepted.blockSize = value;
+            } else if (name.equals(WINDOW_SIZE) && windowSize != -1) {
+                if (value < 1 || value > windowSize) {
+                    throw new TFTPException("invalid window size acknowledged: " + value);
+                }
+                accepted.windowSize = value;
+            } else if (name.equals(ROLLOVER) && rollover != null) {
+                accepted.rollover = Rollover.fromValue(value);
+            } else if (name.equals(TIMEOUT) && timeout != -1) {
+                if (value != timeout) {
+                    throw new TFTPException("invalid timeout acknowledged: " + value);
+                }
+                accepted.timeout = value;
+            } else {
+                throw new TFTPException("unrequested option acknowledged: " + name);
+            }
+        }
+
+        return accepted;
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+
+}
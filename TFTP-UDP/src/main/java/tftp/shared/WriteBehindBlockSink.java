@@ -0,0 +1,313 @@
+package tftp.shared;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link BlockSink} which collects blocks into large buffers and writes them to the file behind the transfer on a
+ * writer thread, so a block only costs a copy before it can be acknowledged rather than a write to the disk. Each
+ * buffer is written whole at an offset which is a multiple of its size, except the last. Only a few full buffers can
+ * be waiting at once - if the disk falls that far behind, writing waits for it. A failed write is reported by the
+ * next write or flush. Buffers are direct and pooled between transfers, up to a budget shared by all of them - past
+ * it, transfers fill heap buffers instead. With {@link Durability#PERIODIC}, a timer has the writer sync the file
+ * every sync interval, whether or not anything is being written at the time.
+ */
+public class WriteBehindBlockSink implements BlockSink {
+
+    //the size of each buffer, a multiple of any disk's block size
+    private static final int BUFFER_SIZE = 256 * 1024;
+    //the most full buffers waiting to be written for each sink
+    private static final int MAX_QUEUED = 4;
+    //the most direct buffers allocated between every transfer, whether in use or pooled. heap buffers cost a copy
+    // into a temporary direct buffer when written, but don't tie up memory outside the heap
+    private static final int MAX_DIRECT = 64;
+    private static final ArrayBlockingQueue<ByteBuffer> POOL = new ArrayBlockingQueue<>(MAX_DIRECT);
+    private static final AtomicInteger DIRECT = new AtomicInteger();
+
+    //the writer threads, shared by every transfer - one is only busy while a sink has buffers waiting
+    private static final ExecutorService WRITERS = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "tftp-write-behind");
+        thread.setDaemon(true);
+        return thread;
+    });
+    //tells sinks with periodic durability when to sync
+    private static final ScheduledExecutorService SYNC_TIMER = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "tftp-sync-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final FileChannel channel;
+    private final Durability durability;
+    private final Executor executor;
+    //the periodic sync, null unless the durability is PERIODIC
+    private final ScheduledFuture<?> syncTimer;
+
+    //the buffer being filled, only touched by the transfer's thread
+    private ByteBuffer filling;
+
+    //everything below is guarded by this object's lock
+    //full buffers waiting to be written, in order, and flushes waiting for them to be
+    private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+    private final List<CompletableFuture<Void>> flushes = new ArrayList<>();
+    private boolean writing = false;
+    //the sync interval has passed since the last periodic sync
+    private boolean syncDue = false;
+    private boolean closed = false;
+    private IOException failure;
+
+    //only touched by the writer
+    private long position = 0;
+    //how far the file had been written at the last sync
+    private long syncedPosition = 0;
+
+
+    public WriteBehindBlockSink(FileChannel channel, Durability durability) {
+        this(channel, durability, WRITERS);
+    }
+
+    public WriteBehindBlockSink(FileChannel channel, Durability durability, Executor executor) {
+        this.channel = channel;
+        this.durability = durability;
+        this.executor = executor;
+        if (durability == Durability.PERIODIC) {
+            long interval = Math.max(Configuration.SYNC_INTERVAL, 1);
+            this.syncTimer = SYNC_TIMER.scheduleWithFixedDelay(
+                    this::syncDue, interval, interval, TimeUnit.MILLISECONDS
+            );
+        } else {
+            this.syncTimer = null;
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer data) throws IOException {
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        while (data.hasRemaining()) {
+            if (filling == null) {
+                filling = allocate();
+            }
+            int length = Math.min(data.remaining(), filling.remaining());
+            int limit = data.limit();
+            data.limit(data.position() + length);
+            filling.put(data);
+            data.limit(limit);
+            if (!filling.hasRemaining()) {
+                enqueue(filling);
+                filling = null;
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> flush() {
+        CompletableFuture<Void> flushed = new CompletableFuture<>();
+        try {
+            if (filling != null && filling.position() > 0) {
+                enqueue(filling);
+                filling = null;
+            }
+        } catch (IOException e) {
+            flushed.completeExceptionally(e);
+            return flushed;
+        }
+        synchronized (this) {
+            //the writer completes the flush once it runs out of buffers to write
+            flushes.add(flushed);
+            startWriting();
+        }
+        return flushed;
+    }
+
+    //stop writing, discarding anything not yet written, and close the file
+    @Override
+    public void close() throws IOException {
+        if (syncTimer != null) {
+            syncTimer.cancel(false);
+        }
+        if (filling != null) {
+            release(filling);
+            filling = null;
+        }
+        synchronized (this) {
+            closed = true;
+            while (writing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            discard();
+            for (CompletableFuture<Void> flush : flushes) {
+                flush.completeExceptionally(new IOException("file closed"));
+            }
+            flushes.clear();
+        }
+        channel.close();
+    }
+
+    //hand a full buffer to the writer, waiting if too many are waiting already
+    private void enqueue(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        synchronized (this) {
+            while (queue.size() >= MAX_QUEUED && failure == null && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    release(buffer);
+                    throw new IOException("interrupted waiting for the disk");
+                }
+            }
+            if (failure != null) {
+                release(buffer);
+                throw failure;
+            }
+            queue.add(buffer);
+            startWriting();
+        }
+    }
+
+    //have the writer sync the file, once it has written whatever buffer it's on
+    private synchronized void syncDue() {
+        if (closed || failure != null) {
+            return;
+        }
+        syncDue = true;
+        startWriting();
+    }
+
+    //must hold the lock
+    private void startWriting() {
+        if (!writing && !closed) {
+            writing = true;
+            executor.execute(this::drain);
+        }
+    }
+
+    //write every buffer waiting in turn, then sync and complete any flushes, syncing along the way whenever the timer
+    // says to - only ever running on one thread at a time
+    private void drain() {
+        while (true) {
+            ByteBuffer buffer;
+            List<CompletableFuture<Void>> flushed = null;
+            boolean periodic;
+            synchronized (this) {
+                buffer = queue.peek();
+                if (closed || failure != null || buffer == null && flushes.isEmpty() && !syncDue) {
+                    finishWriting();
+                    return;
+                }
+                periodic = syncDue;
+                syncDue = false;
+                if (buffer == null && !flushes.isEmpty()) {
+                    flushed = new ArrayList<>(flushes);
+                    flushes.clear();
+                }
+            }
+
+            try {
+                if (periodic && position != syncedPosition) {
+                    sync();
+                }
+                if (buffer != null) {
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                } else if (flushed != null && durability != Durability.NONE) {
+                    sync();
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    if (flushed != null) {
+                        flushes.addAll(flushed);
+                    }
+                    finishWriting();
+                }
+                return;
+            }
+
+            if (buffer != null) {
+                synchronized (this) {
+                    queue.poll();
+                    notifyAll();
+                }
+                release(buffer);
+            } else if (flushed != null) {
+                for (CompletableFuture<Void> flush : flushed) {
+                    flush.complete(null);
+                }
+            }
+        }
+    }
+
+    private void sync() throws IOException {
+        channel.force(false);
+        syncedPosition = position;
+    }
+
+    //the writer is stopping - fail any flushes left if it stopped on an error. must hold the lock
+    private void finishWriting() {
+        writing = false;
+        if (failure != null) {
+            discard();
+            for (CompletableFuture<Void> flush : flushes) {
+                flush.completeExceptionally(failure);
+            }
+            flushes.clear();
+        }
+        notifyAll();
+    }
+
+    //must hold the lock
+    private void discard() {
+        ByteBuffer buffer;
+        while ((buffer = queue.poll()) != null) {
+            release(buffer);
+        }
+    }
+
+    //a pooled buffer, or a new one - direct while the budget allows, heap past it
+    private static ByteBuffer allocate() {
+        ByteBuffer buffer = POOL.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        //take from the budget before allocating, so two transfers can't both have the last of it
+        if (DIRECT.incrementAndGet() <= MAX_DIRECT) {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        DIRECT.decrementAndGet();
+        return ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    //the pool has room for every direct buffer within the budget, so none are dropped - heap buffers are left to the
+    // garbage collector
+    private static void release(ByteBuffer buffer) {
+        if (buffer.isDirect()) {
+            buffer.clear();
+            POOL.offer(buffer);
+        }
+    }
+
+}
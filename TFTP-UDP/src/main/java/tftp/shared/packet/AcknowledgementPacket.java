@@ -19,16 +19,15 @@ public class AcknowledgementPacket extends TFTPPacket {
         buffer.putShort(blockNumber);
     }
 
+    //a view of the acknowledgement at the start of the given buffer - the buffer is not copied, so the packet is
+    // only valid until the buffer is reused
     public AcknowledgementPacket(byte[] packetData, int length) {
-        ByteBuffer buffer = ByteBuffer.wrap(packetData);
-        buffer.position(2);
-        this.blockNumber = buffer.getShort();
-        this.bytes = new byte[length];
-        System.arraycopy(packetData, 0, bytes, 0, length);
+        this.blockNumber = (short) (((packetData[2] & 0xff) << 8) | (packetData[3] & 0xff));
+        this.bytes = packetData;
     }
 
 
-    public int getBlockNumber() {
+    public short getBlockNumber() {
         return blockNumber;
     }
 
@@ -37,6 +36,11 @@ public class AcknowledgementPacket extends TFTPPacket {
         return bytes;
     }
 
+    @Override
+    public int getPacketLength() {
+        return PACKET_LENGTH;
+    }
+
     @Override
     public PacketType getPacketType() {
         return PacketType.ACKNOWLEDGEMENT;
@@ -44,7 +48,7 @@ public class AcknowledgementPacket extends TFTPPacket {
 
     @Override
     public String toString() {
-        return String.format("%s{block=%d}", getPacketType(), getBlockNumber());
+        return String.format("%s{block=%d}", getPacketType(), Short.toUnsignedInt(blockNumber));
     }
 
 }
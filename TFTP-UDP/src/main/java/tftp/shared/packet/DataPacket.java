@@ -11,26 +11,27 @@ public class DataPacket extends TFTPPacket {
     private final short blockNumber;
     private final int dataLength;
     private final byte[] packetBuffer;
+    private final int packetLength;
 
 
     public DataPacket(short blockNumber, byte[] dataBuffer, int dataLength) {
         this.blockNumber = blockNumber;
         this.dataLength = dataLength;
         this.packetBuffer = new byte[dataLength + DATA_OFFSET];
+        this.packetLength = packetBuffer.length;
         ByteBuffer buffer = ByteBuffer.wrap(packetBuffer);
         buffer.putShort(getPacketType().getOpcode());
         buffer.putShort(blockNumber);
         buffer.put(dataBuffer, 0, dataLength);
     }
 
+    //a view of the data packet at the start of the given buffer - the buffer is not copied, so the packet is only
+    // valid until the buffer is reused
     public DataPacket(byte[] packetBuffer, int length) {
-        ByteBuffer buffer = ByteBuffer.wrap(packetBuffer);
-        buffer.position(2);
-        this.blockNumber = buffer.getShort();
+        this.blockNumber = (short) (((packetBuffer[2] & 0xff) << 8) | (packetBuffer[3] & 0xff));
         this.dataLength = length - DATA_OFFSET;
-
-        this.packetBuffer = new byte[length];
-        System.arraycopy(packetBuffer, 0, this.packetBuffer, 0, length);
+        this.packetBuffer = packetBuffer;
+        this.packetLength = length;
     }
 
     public short getBlockNumber() {
@@ -42,7 +43,12 @@ public class DataPacket extends TFTPPacket {
     }
 
     public boolean isFinalPacket() {
-        return dataLength < Configuration.MAX_DATA_LENGTH;
+        return isFinalPacket(Configuration.DEFAULT_BLOCK_SIZE);
+    }
+
+    //a data packet shorter than the negotiated block size ends the transfer
+    public boolean isFinalPacket(int blockSize) {
+        return dataLength < blockSize;
     }
 
     @Override
@@ -50,6 +56,11 @@ public class DataPacket extends TFTPPacket {
         return packetBuffer;
     }
 
+    @Override
+    public int getPacketLength() {
+        return packetLength;
+    }
+
     @Override
     public PacketType getPacketType() {
         return PacketType.DATA;
@@ -57,7 +68,9 @@ public class DataPacket extends TFTPPacket {
 
     @Override
     public String toString() {
-        return String.format("%s[block=%d,length=%d]", getPacketType(), getBlockNumber(), dataLength);
+        return String.format(
+                "%s[block=%d,length=%d]", getPacketType(), Short.toUnsignedInt(getBlockNumber()), dataLength
+        );
     }
 
 }
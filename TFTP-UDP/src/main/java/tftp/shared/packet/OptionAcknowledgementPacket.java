@@ -0,0 +1,57 @@
+package tftp.shared.packet;
+
+import tftp.shared.StringUtil;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Option acknowledgement (RFC 2347), sent by the server in place of the first DATA/ACK packet to
+ * confirm which of the options in a request it accepted and with which values.
+ */
+public class OptionAcknowledgementPacket extends TFTPPacket {
+
+
+    private final Map<String, String> options;
+    private final byte[] bytes;
+
+
+    public OptionAcknowledgementPacket(Map<String, String> options) {
+        this.options = Collections.unmodifiableMap(options);
+
+        byte[] optionBytes = StringUtil.getOptionBytes(options);
+        this.bytes = new byte[optionBytes.length + 2];
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.putShort(getPacketType().getOpcode());
+        buffer.put(optionBytes);
+    }
+
+    public OptionAcknowledgementPacket(byte[] bytes, int length) {
+        this.options = Collections.unmodifiableMap(StringUtil.getOptions(bytes, 2, length));
+        this.bytes = new byte[length];
+        System.arraycopy(bytes, 0, this.bytes, 0, length);
+    }
+
+
+    public Map<String, String> getOptions() {
+        return options;
+    }
+
+    @Override
+    public byte[] getPacketBytes() {
+        return bytes;
+    }
+
+    @Override
+    public PacketType getPacketType() {
+        return PacketType.OPTION_ACKNOWLEDGEMENT;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s%s", getPacketType(), options);
+    }
+
+}
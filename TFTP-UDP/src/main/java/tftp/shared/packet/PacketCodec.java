@@ -0,0 +1,101 @@
+package tftp.shared.packet;
+
+import tftp.shared.ErrorType;
+import tftp.shared.TFTPException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable flyweight over a single packet held in a (heap or direct) ByteBuffer. {@link #wrap} points the codec at
+ * a packet and the accessors read its fields in place, so decoding a packet allocates nothing - but nothing is
+ * copied either, so values are only valid until the buffer is reused. The static put methods encode the fixed
+ * headers in place in the same way.
+ */
+public final class PacketCodec {
+
+    private static final int HEADER_LENGTH = 4;
+
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+
+    //point the codec at the packet between the buffer's position and limit
+    public PacketCodec wrap(ByteBuffer buffer) {
+        return wrap(buffer, buffer.position(), buffer.remaining());
+    }
+
+    public PacketCodec wrap(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    //the type of the packet, checking that it is long enough to hold the fields of that type
+    public PacketType getPacketType() throws TFTPException {
+        if (length < 2) {
+            throw new TFTPException("packet too short: " + length + " bytes");
+        }
+        PacketType type = PacketType.fromOpcode(buffer.getShort(offset));
+        if ((type == PacketType.DATA || type == PacketType.ACKNOWLEDGEMENT || type == PacketType.ERROR)
+                && length < HEADER_LENGTH) {
+            throw new TFTPException("packet too short: " + type + " of " + length + " bytes");
+        }
+        return type;
+    }
+
+    //the block number of a DATA or ACK packet
+    public short getBlockNumber() {
+        return buffer.getShort(offset + 2);
+    }
+
+    //the error code of an ERROR packet
+    public ErrorType getErrorType() {
+        return ErrorType.fromValue(buffer.getShort(offset + 2));
+    }
+
+    //the length of the payload of a DATA packet
+    public int getDataLength() {
+        return length - DataPacket.DATA_OFFSET;
+    }
+
+    //the offset of the payload of a DATA packet within the buffer
+    public int getDataOffset() {
+        return offset + DataPacket.DATA_OFFSET;
+    }
+
+    //the payload of a DATA packet - sets the position and limit of the underlying buffer to the payload, rather
+    // than allocating a slice of it
+    public ByteBuffer getData() {
+        buffer.limit(offset + length);
+        buffer.position(offset + DataPacket.DATA_OFFSET);
+        return buffer;
+    }
+
+    //copy the packet into a packet object of its type, for packets which aren't on the hot path
+    public TFTPPacket toPacket() throws TFTPException {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return TFTPPacket.fromByteArray(bytes, length);
+    }
+
+    //write the header of a DATA packet at the start of the buffer - the payload follows at DATA_OFFSET
+    public static void putDataHeader(ByteBuffer buffer, short blockNumber) {
+        buffer.putShort(0, PacketType.DATA.getOpcode());
+        buffer.putShort(2, blockNumber);
+    }
+
+    //write an ACK packet at the start of the buffer
+    public static void putAcknowledgement(ByteBuffer buffer, short blockNumber) {
+        buffer.putShort(0, PacketType.ACKNOWLEDGEMENT.getOpcode());
+        buffer.putShort(2, blockNumber);
+    }
+
+}
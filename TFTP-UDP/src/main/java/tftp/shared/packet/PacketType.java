@@ -8,7 +8,17 @@ public enum PacketType {
     WRITE_REQUEST("WRQ", 2),
     DATA("DATA", 3),
     ACKNOWLEDGEMENT("ACK", 4),
-    ERROR("ERR", 5);
+    ERROR("ERR", 5),
+    OPTION_ACKNOWLEDGEMENT("OACK", 6);
+
+    //every type indexed by opcode, so that looking up an opcode doesn't allocate a copy of values()
+    private static final PacketType[] BY_OPCODE = new PacketType[7];
+
+    static {
+        for (PacketType type : values()) {
+            BY_OPCODE[type.opcode] = type;
+        }
+    }
 
     private final String abbreviation;
 
@@ -30,10 +40,8 @@ public enum PacketType {
     }
 
     public static PacketType fromOpcode(short opcode) throws TFTPException {
-        for (PacketType type : values()) {
-            if (type.opcode == opcode) {
-                return type;
-            }
+        if (opcode > 0 && opcode < BY_OPCODE.length) {
+            return BY_OPCODE[opcode];
         }
         throw new TFTPException("no such opcode: " + opcode);
     }
@@ -3,12 +3,18 @@ package tftp.shared.packet;
 import tftp.shared.Mode;
 import tftp.shared.TFTPException;
 
+import java.util.Map;
+
 public class ReadRequestPacket extends RequestPacket {
 
     public ReadRequestPacket(String file, Mode mode) {
         super(file, mode);
     }
 
+    public ReadRequestPacket(String file, Mode mode, Map<String, String> options) {
+        super(file, mode, options);
+    }
+
     public ReadRequestPacket(byte[] bytes, int length) throws TFTPException{
         super(bytes, length);
     }
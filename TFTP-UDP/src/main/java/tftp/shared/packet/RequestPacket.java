@@ -5,27 +5,37 @@ import tftp.shared.TFTPException;
 import tftp.shared.StringUtil;
 
 import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
 
 public abstract class RequestPacket extends TFTPPacket {
 
 
     private final String fileName;
     private final Mode mode;
+    private final Map<String, String> options;
     private final byte[] bytes;
 
 
     public RequestPacket(String fileName, Mode mode) {
+        this(fileName, mode, Collections.emptyMap());
+    }
+
+    public RequestPacket(String fileName, Mode mode, Map<String, String> options) {
         this.fileName = fileName;
         this.mode = mode;
+        this.options = Collections.unmodifiableMap(options);
 
         byte[] fileNameBytes = StringUtil.getBytes(fileName);
         byte[] modeBytes = StringUtil.getBytes(mode.getName());
-        this.bytes = new byte[fileNameBytes.length + modeBytes.length + 2];
+        byte[] optionBytes = StringUtil.getOptionBytes(options);
+        this.bytes = new byte[fileNameBytes.length + modeBytes.length + optionBytes.length + 2];
 
         ByteBuffer buffer = ByteBuffer.wrap(bytes);
         buffer.putShort(getPacketType().getOpcode());
         buffer.put(fileNameBytes);
         buffer.put(modeBytes);
+        buffer.put(optionBytes);
     }
 
     public RequestPacket(byte[] bytes, int length) throws TFTPException {
@@ -35,12 +45,18 @@ public abstract class RequestPacket extends TFTPPacket {
         // string - so increment a counter until the null byte indicating the end of the filename is found,
         // then the mode string starts at the offset immediately after the null byte
         int modeStringOffset = 2;
-        while (bytes[modeStringOffset] != 0 && modeStringOffset < length) {
+        while (modeStringOffset < length && bytes[modeStringOffset] != 0) {
             ++modeStringOffset;
         }
         ++modeStringOffset;
 
-        this.mode = Mode.fromName(StringUtil.getString(bytes, modeStringOffset));
+        String modeString = StringUtil.getString(bytes, modeStringOffset);
+        this.mode = Mode.fromName(modeString);
+
+        //any name/value pairs following the mode string are options (RFC 2347)
+        int optionsOffset = modeStringOffset + modeString.length() + 1;
+        this.options = Collections.unmodifiableMap(StringUtil.getOptions(bytes, optionsOffset, length));
+
         this.bytes = new byte[length];
         System.arraycopy(bytes, 0, this.bytes, 0, length);
     }
@@ -53,6 +69,10 @@ public abstract class RequestPacket extends TFTPPacket {
         return mode;
     }
 
+    public Map<String, String> getOptions() {
+        return options;
+    }
+
     @Override
     public byte[] getPacketBytes() {
         return bytes;
@@ -60,7 +80,10 @@ public abstract class RequestPacket extends TFTPPacket {
 
     @Override
     public String toString() {
-        return String.format("%s[file=%s,mode=%s]", getPacketType(), getFileName(), getMode());
+        if (options.isEmpty()) {
+            return String.format("%s[file=%s,mode=%s]", getPacketType(), getFileName(), getMode());
+        }
+        return String.format("%s[file=%s,mode=%s,options=%s]", getPacketType(), getFileName(), getMode(), options);
     }
 
 }
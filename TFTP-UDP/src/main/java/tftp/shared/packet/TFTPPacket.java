@@ -7,13 +7,20 @@ import java.nio.ByteBuffer;
 
 public abstract class TFTPPacket {
 
+    //the array holding the packet - for a packet which is a view onto a larger buffer, the packet only occupies the
+    // first getPacketLength() bytes
     public abstract byte[] getPacketBytes();
 
+    public int getPacketLength() {
+        return getPacketBytes().length;
+    }
+
     public abstract PacketType getPacketType();
 
+    //parse the packet at the start of the buffer. DATA and ACK packets are views onto the buffer rather than copies of
+    // it, other packets are copied - see PacketCodec for decoding without allocating at all
     public static TFTPPacket fromByteArray(byte[] buffer, int length) throws TFTPException {
-        short opcode = ByteBuffer.wrap(buffer).getShort();
-        PacketType type = PacketType.fromOpcode(opcode);
+        PacketType type = new PacketCodec().wrap(ByteBuffer.wrap(buffer, 0, length)).getPacketType();
 
         switch (type) {
             case ACKNOWLEDGEMENT:
@@ -26,6 +33,8 @@ public abstract class TFTPPacket {
                 return new ReadRequestPacket(buffer, length);
             case WRITE_REQUEST:
                 return new WriteRequestPacket(buffer, length);
+            case OPTION_ACKNOWLEDGEMENT:
+                return new OptionAcknowledgementPacket(buffer, length);
             default:
                 throw new TFTPException("unknown packet type: " + type);
         }
@@ -0,0 +1,118 @@
+package tftp.udp;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waits for non-blocking datagram channels to become readable on behalf of the threads using them. A virtual thread
+ * blocked in DatagramSocket.receive holds a monitor, which pins it to its carrier thread - instead the channel is
+ * registered with this poller's selector and the waiting thread parks, which frees the carrier. A single platform
+ * thread serves every channel.
+ */
+class ChannelPoller extends Thread {
+
+    private static ChannelPoller instance;
+
+    private final Selector selector;
+    //registrations and interest changes, applied by the poller thread
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+
+    //the state of a channel registered with the poller, attached to its selection key
+    private static class Waiter {
+        private volatile Thread thread;
+        private volatile boolean ready;
+        private SelectionKey key;
+    }
+
+
+    private ChannelPoller() throws IOException {
+        super("tftp-channel-poller");
+        setDaemon(true);
+        this.selector = Selector.open();
+    }
+
+    static synchronized ChannelPoller get() throws IOException {
+        if (instance == null) {
+            instance = new ChannelPoller();
+            instance.start();
+        }
+        return instance;
+    }
+
+    //park the current thread until the channel is readable or the timeout (0 for none) expires, returning false if
+    // it timed out
+    boolean awaitReadable(DatagramChannel channel, long timeoutMillis) {
+        Waiter waiter = (Waiter) channel.keyFor(selector).attachment();
+        waiter.thread = Thread.currentThread();
+        waiter.ready = false;
+        pending.add(() -> {
+            if (waiter.key.isValid()) {
+                waiter.key.interestOps(SelectionKey.OP_READ);
+            }
+        });
+        selector.wakeup();
+
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        while (!waiter.ready) {
+            if (timeoutMillis == 0) {
+                LockSupport.park(this);
+            } else {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+        }
+        return true;
+    }
+
+    //register a channel with the poller, must be done once before waiting on it
+    void register(DatagramChannel channel) throws IOException {
+        try {
+            Waiter waiter = new Waiter();
+            waiter.key = channel.register(selector, 0, waiter);
+        } catch (ClosedChannelException e) {
+            throw new IOException("socket closed", e);
+        }
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+
+                Runnable task;
+                while ((task = pending.poll()) != null) {
+                    task.run();
+                }
+
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Waiter waiter = (Waiter) key.attachment();
+                    if (key.isValid()) {
+                        //only wake the thread once per wait
+                        key.interestOps(0);
+                    }
+                    waiter.ready = true;
+                    Thread thread = waiter.thread;
+                    if (thread != null) {
+                        LockSupport.unpark(thread);
+                    }
+                }
+                selector.selectedKeys().clear();
+
+            } catch (IOException e) {
+                System.out.println("error polling sockets: " + e);
+            }
+        }
+    }
+
+}
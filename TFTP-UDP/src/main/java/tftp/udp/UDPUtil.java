@@ -0,0 +1,848 @@
+package tftp.udp;
+
+import tftp.shared.BlockSink;
+import tftp.shared.BlockSource;
+import tftp.shared.Configuration;
+import tftp.shared.CongestionWindow;
+import tftp.shared.ErrorType;
+import tftp.shared.Pacer;
+import tftp.shared.Rollover;
+import tftp.shared.RttEstimator;
+import tftp.shared.TFTPException;
+import tftp.shared.TransferOptions;
+import tftp.shared.WriteBehindBlockSink;
+import tftp.shared.packet.*;
+import tftp.udp.metrics.TransferMetrics;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.lang.reflect.Method;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ExecutionException;
+
+public class UDPUtil {
+
+    //Thread.isVirtual(), only available from JDK 21 - null on older releases
+    private static final Method IS_VIRTUAL = findIsVirtual();
+
+    //convert Datagram into TFTP Packet
+    public static TFTPPacket fromDatagram(DatagramPacket datagram) throws TFTPException {
+        return TFTPPacket.fromByteArray(datagram.getData(), datagram.getLength());
+    }
+
+    //convert TFTP Packet into Datagram
+    public static DatagramPacket toDatagram(TFTPPacket packet, InetAddress address, int port) {
+        DatagramPacket datagram = new DatagramPacket(packet.getPacketBytes(), 0, packet.getPacketLength());
+        datagram.setAddress(address);
+        datagram.setPort(port);
+        return datagram;
+    }
+
+    //open a socket for a transfer. on a virtual thread this is backed by a non-blocking channel, so that waiting to
+    // receive parks the thread rather than pinning its carrier - use receive() and send() below with these sockets
+    public static DatagramSocket openSocket() throws IOException {
+        if (!isVirtualThread()) {
+            return new DatagramSocket();
+        }
+        DatagramChannel channel = DatagramChannel.open();
+        channel.bind(null);
+        channel.configureBlocking(false);
+        ChannelPoller.get().register(channel);
+        return channel.socket();
+    }
+
+    //bind a socket to listen on the given port. with reusePort, any number of sockets can be bound to the port this way
+    // (SO_REUSEPORT) - the kernel then spreads the remote hosts sending to the port between them, always sending
+    // datagrams from the same remote endpoint to the same socket
+    public static DatagramSocket bindSocket(int port, boolean reusePort) throws SocketException {
+        if (!reusePort) {
+            return new DatagramSocket(port);
+        }
+        DatagramSocket socket = new DatagramSocket(null);
+        try {
+            if (!socket.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                throw new SocketException("SO_REUSEPORT is not supported on this platform");
+            }
+            socket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            socket.bind(new InetSocketAddress(port));
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e instanceof SocketException ? (SocketException) e : new SocketException(e.getMessage());
+        }
+    }
+
+    //as bindSocket, for a channel
+    public static DatagramChannel bindChannel(int port, boolean reusePort) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            if (reusePort) {
+                if (!channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    throw new SocketException("SO_REUSEPORT is not supported on this platform");
+                }
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            channel.bind(new InetSocketAddress(port));
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    //receive a datagram, as DatagramSocket.receive (including the socket timeout)
+    public static void receive(DatagramSocket socket, DatagramPacket packet) throws IOException {
+        DatagramChannel channel = socket.getChannel();
+        if (channel == null || channel.isBlocking()) {
+            socket.receive(packet);
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(packet.getData(), packet.getOffset(),
+                packet.getData().length - packet.getOffset());
+        SocketAddress from = channel.receive(buffer);
+        while (from == null) {
+            //nothing waiting - park until something arrives
+            if (!ChannelPoller.get().awaitReadable(channel, socket.getSoTimeout())) {
+                throw new SocketTimeoutException("receive timed out");
+            }
+            from = channel.receive(buffer);
+        }
+        packet.setLength(buffer.position() - packet.getOffset());
+        packet.setSocketAddress(from);
+    }
+
+    //send a datagram, as DatagramSocket.send
+    public static void send(DatagramSocket socket, DatagramPacket packet) throws IOException {
+        DatagramChannel channel = socket.getChannel();
+        if (channel == null || channel.isBlocking()) {
+            socket.send(packet);
+            return;
+        }
+        //a non-blocking send which doesn't fit in the socket buffer is dropped, the same as a lost datagram
+        channel.send(ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength()), packet.getSocketAddress());
+    }
+
+    private static boolean isVirtualThread() {
+        try {
+            return IS_VIRTUAL != null && (Boolean) IS_VIRTUAL.invoke(Thread.currentThread());
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    private static Method findIsVirtual() {
+        try {
+            return Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    //the time since the given start time in seconds, rounded up to one decimal place for printing
+    public static String secondsSince(long startTime) {
+        long time = System.currentTimeMillis() - startTime;
+        double seconds = (double) time / 1000.0;
+        BigDecimal bigDecimal = new BigDecimal(seconds);
+        bigDecimal = bigDecimal.setScale(1, RoundingMode.UP);
+        return bigDecimal.toPlainString();
+    }
+
+    //check an OACK received in response to a request against the requested options, returning the options to use
+    // for the transfer. if the server acknowledged something invalid, send it an error and abandon the transfer
+    private static TransferOptions acknowledgeOptions(DatagramSocket socket, TransferOptions requested,
+                                                      OptionAcknowledgementPacket oack, InetAddress remoteAddress,
+                                                      int remotePort, TransferMetrics metrics) throws TFTPException {
+        try {
+            return requested.acknowledge(oack.getOptions());
+        } catch (TFTPException e) {
+            ErrorPacket error = new ErrorPacket(ErrorType.OPTION_NEGOTIATION, e.getMessage());
+            metrics.errorSent(ErrorType.OPTION_NEGOTIATION);
+            try {
+                send(socket, toDatagram(error, remoteAddress, remotePort));
+            } catch (IOException ignore) {
+                //the transfer is being abandoned either way
+            }
+            throw new TFTPException("error: " + e.getMessage());
+        }
+    }
+
+    public static class FileSender {
+
+        public static long send(DatagramSocket socket, TFTPPacket firstPacket, InetAddress remoteAddress,
+                                int remotePort, BlockSource source, short firstBlockNumber,
+                                TransferOptions options) throws TFTPException {
+            return send(socket, firstPacket, remoteAddress, remotePort, source, firstBlockNumber, options,
+                    TransferMetrics.NONE);
+        }
+
+        public static long send(DatagramSocket socket, TFTPPacket firstPacket, InetAddress remoteAddress,
+                                int remotePort, BlockSource source, short firstBlockNumber,
+                                TransferOptions options, TransferMetrics metrics) throws TFTPException {
+            return send(socket, firstPacket, remoteAddress, remotePort, source, firstBlockNumber, options, metrics,
+                    Pacer.forSession(null));
+        }
+
+        //send files with acknowledgement to make transfer reliable. the options are those negotiated for the
+        // transfer, or for a client sending a request, the options requested from the server. up to the window
+        // size of data packets are sent before waiting for an acknowledgement (RFC 7440), spaced out by the pacer to
+        // keep under its rate. returns the number of bytes sent, and reports what happens along the way to the metrics
+        public static long send(DatagramSocket socket, TFTPPacket firstPacket, InetAddress remoteAddress,
+                                int remotePort, BlockSource source, short firstBlockNumber,
+                                TransferOptions options, TransferMetrics metrics, Pacer pacer) throws TFTPException {
+
+            //track the time taken and the number of bytes sent to print at the end if all goes well
+            long startTime = System.currentTimeMillis();
+            long bytesSent = 0;
+
+            //a buffer for holding the data contained in received datagrams
+            byte[] receiveBuffer = new byte[Configuration.MAX_PACKET_LENGTH];
+            //create a datagram 'shell' to hold the datagrams received from the network
+            DatagramPacket rcvDatagram = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+
+            //the options in effect for this transfer - a client's requested options only take effect once
+            // acknowledged by the server, until then the defaults apply
+            TransferOptions session = firstPacket instanceof RequestPacket ? new TransferOptions() : options;
+
+            //measures the round trip time to set the retransmission timeout. the transfer is abandoned if it makes no
+            // progress before the deadline, or if too many nonsense packets are received in a row
+            RttEstimator rtt = new RttEstimator(options.getTimeout());
+            long lastProgress = System.nanoTime();
+            int invalids = 0;
+
+            //the first packet is different - if it is a WRQ or OACK, it has to be acknowledged (with ACK 0, or an
+            // OACK in response to a WRQ) before any data is sent
+            if (!(firstPacket instanceof DataPacket)) {
+                DatagramPacket datagram = toDatagram(firstPacket, remoteAddress, remotePort);
+                boolean acknowledged = false;
+                //when the first packet was sent, and how many times - the round trip is only measured if it was
+                // sent once
+                long sentAt = 0;
+                int sends = 0;
+
+                while (!acknowledged) {
+                    checkLimits(lastProgress, invalids, "error writing to/reading from socket");
+                    try {
+                        //send the first packet to the remote host
+                        sentAt = System.nanoTime();
+                        if (++sends > 1) {
+                            metrics.retransmitted();
+                        }
+                        UDPUtil.send(socket, datagram);
+
+                        try {
+                            //block until we receive a response, if this throws a timeout exception then back off
+                            // and 're-enter' the loop - thus sending the datagram again
+                            setTimeout(socket, rtt, lastProgress);
+                            UDPUtil.receive(socket, rcvDatagram);
+                        } catch (SocketTimeoutException timeout) {
+                            System.out.println("timed out, resending " + firstPacket);
+                            metrics.timedOut();
+                            rtt.backoff();
+                            continue;
+                        }
+
+                        //server can respond from a different port, so re-set the remote port based on
+                        // the received datagram
+                        remotePort = rcvDatagram.getPort();
+
+                        TFTPPacket received;
+                        try {
+                            received = fromDatagram(rcvDatagram);
+                        } catch (TFTPException e) {
+                            metrics.invalidPacket();
+                            ++invalids;
+                            continue;
+                        }
+
+                        if (received instanceof AcknowledgementPacket
+                                && ((AcknowledgementPacket) received).getBlockNumber() == firstBlockNumber) {
+                            acknowledged = true;
+                        } else if (received instanceof OptionAcknowledgementPacket
+                                && firstPacket instanceof RequestPacket) {
+                            //the server accepted some of the requested options - this stands in for ACK 0, so
+                            // switch to the acknowledged options and start sending data
+                            session = acknowledgeOptions(
+                                    socket, options, (OptionAcknowledgementPacket) received, remoteAddress, remotePort,
+                                    metrics
+                            );
+                            acknowledged = true;
+                        } else if (received instanceof ErrorPacket) {
+                            //received error packet from remote host, so terminate with its message
+                            metrics.errorReceived(((ErrorPacket) received).getErrorType());
+                            throw new TFTPException("error: " + ((ErrorPacket) received).getMessage());
+                        }
+
+                    } catch (IOException e) {
+                        //failed to send/receive datagram - just try again, up to the limit checked by the loop
+                        ++invalids;
+                    }
+                }
+
+                if (sends == 1) {
+                    rtt.sample(System.nanoTime() - sentAt);
+                }
+                lastProgress = System.nanoTime();
+                rtt.clearBackoff();
+            }
+
+            //blocks are tracked by sequence number, counting from the start of the transfer without wrapping - the
+            // block number on the wire rolls over after 65535 as agreed for the transfer
+            int windowSize = session.getWindowSize();
+            int blockSize = session.getBlockSize();
+            Rollover rollover = session.getRollover();
+
+            //how many blocks may be in flight - the receiver acknowledges every window size blocks, and the window
+            // adapts from there to what the path can take
+            CongestionWindow congestion = CongestionWindow.forTransfer(session);
+            int slots = congestion.getLimit();
+
+            //the data packets sent but not yet acknowledged, indexed by sequence number modulo the most which can be in
+            // flight. each slot holds a whole packet with the file data read straight into it after the header, along
+            // with a datagram for sending it, so that the blocks can be re-sent without re-reading the file and
+            // without allocating anything per block. slots are only allocated once the window grows to use them
+            ByteBuffer[] window = new ByteBuffer[slots];
+            DatagramPacket[] windowDatagrams = new DatagramPacket[slots];
+            //when each block in the window was first sent, and whether it has been sent again since - the round
+            // trip is only measured for blocks sent once
+            long[] sentAt = new long[slots];
+            boolean[] resentBlock = new boolean[slots];
+
+            //a reusable view for decoding received packets in place
+            ByteBuffer receiveView = ByteBuffer.wrap(receiveBuffer);
+            PacketCodec codec = new PacketCodec();
+
+            //the last block acknowledged, the last block read from the file, and the next block to be sent
+            long lastAcked = 0;
+            long lastRead = 0;
+            long nextSend = 1;
+            //the highest block sent so far - anything sent at or below this is a re-send
+            long lastSent = 0;
+
+            //the sequence number of the final (short) data packet, -1 until it has been read from the file
+            long finalBlock = -1;
+
+            if (firstPacket instanceof DataPacket) {
+                //server responding to a request without options - the first data packet starts the window
+                DataPacket data = (DataPacket) firstPacket;
+                int slot = 1 % slots;
+                allocateSlot(window, windowDatagrams, slot, blockSize, remoteAddress, remotePort);
+                System.arraycopy(data.getPacketBytes(), 0, window[slot].array(), 0, data.getPacketLength());
+                windowDatagrams[slot].setLength(data.getPacketLength());
+                lastRead = 1;
+                if (data.isFinalPacket(blockSize)) {
+                    finalBlock = 1;
+                }
+            }
+
+            //loop until all of the file is sent and acknowledged, then break out
+            while (finalBlock == -1 || lastAcked < finalBlock) {
+
+                try {
+                    //send every block in the window which hasn't been sent yet, reading from the file as needed
+                    while (nextSend <= lastAcked + congestion.get() && (finalBlock == -1 || nextSend <= finalBlock)) {
+                        int slot = (int) (nextSend % slots);
+                        if (nextSend > lastRead) {
+                            allocateSlot(window, windowDatagrams, slot, blockSize, remoteAddress, remotePort);
+                            int read;
+                            try {
+                                //read the block (the block size, usually 512 bytes, from where the block starts in the
+                                // file) into the packet. as per the TFTP RFC, if the file size is a multiple of the
+                                // block size a zero-byte data packet must be sent at the end, which is what a read at
+                                // the end of the file gives
+                                window[slot].limit(DataPacket.DATA_OFFSET + blockSize).position(DataPacket.DATA_OFFSET);
+                                read = source.read((nextSend - 1) * blockSize, window[slot]);
+                            } catch (IOException e) {
+                                throw new TFTPException("error reading from file");
+                            }
+                            PacketCodec.putDataHeader(window[slot], rollover.toBlockNumber(nextSend));
+                            windowDatagrams[slot].setLength(DataPacket.DATA_OFFSET + read);
+                            lastRead = nextSend;
+                            if (read < blockSize) {
+                                finalBlock = nextSend;
+                            }
+                        }
+
+                        //send the block to the remote host, once the pacer allows
+                        pacer.pace(windowDatagrams[slot].getLength());
+                        if (nextSend > lastSent) {
+                            sentAt[slot] = System.nanoTime();
+                            resentBlock[slot] = false;
+                            lastSent = nextSend;
+                        } else {
+                            resentBlock[slot] = true;
+                            metrics.retransmitted();
+                        }
+                        metrics.dataSent(windowDatagrams[slot].getLength() - DataPacket.DATA_OFFSET);
+                        windowDatagrams[slot].setPort(remotePort);
+                        UDPUtil.send(socket, windowDatagrams[slot]);
+                        ++nextSend;
+                    }
+
+                    try {
+                        //block until we receive a response, if this throws a timeout exception then back off and
+                        // go back to re-send every unacknowledged block
+                        setTimeout(socket, rtt, lastProgress);
+                        UDPUtil.receive(socket, rcvDatagram);
+                    } catch (SocketTimeoutException timeout) {
+                        System.out.println(
+                                "timed out, resending from block "
+                                        + Short.toUnsignedInt(rollover.toBlockNumber(lastAcked + 1))
+                        );
+                        metrics.timedOut();
+                        rtt.backoff();
+                        congestion.timedOut(lastSent);
+                        nextSend = lastAcked + 1;
+                        checkLimits(lastProgress, invalids, "error writing to/reading from socket");
+                        continue;
+                    }
+
+                    //decode the received datagram in place - if this throws an exception, it means the packet is
+                    // 'nonsensical' in terms of the protocol - so increment the number of these invalid packets
+                    PacketType type;
+                    try {
+                        type = codec.wrap(receiveView, 0, rcvDatagram.getLength()).getPacketType();
+                    } catch (TFTPException e) {
+                        metrics.invalidPacket();
+                        ++invalids;
+                        checkLimits(lastProgress, invalids, "error writing to/reading from socket");
+                        continue;
+                    }
+
+                    if (type == PacketType.ACKNOWLEDGEMENT) {
+                        //how far the acknowledgement moves the window on - acknowledgements are cumulative, so this
+                        // acknowledges every block up to and including the given one
+                        long advance = rollover.toSequence(codec.getBlockNumber(), lastAcked) - lastAcked;
+
+                        //anything sent can be acknowledged, including blocks sent before going back to re-send
+                        // from an earlier one
+                        if (advance > 0 && lastAcked + advance <= lastSent) {
+                            //update with the number of bytes successfully sent
+                            for (long block = lastAcked + 1; block <= lastAcked + advance; ++block) {
+                                bytesSent += windowDatagrams[(int) (block % slots)].getLength()
+                                        - DataPacket.DATA_OFFSET;
+                            }
+                            lastAcked += advance;
+                            nextSend = Math.max(nextSend, lastAcked + 1);
+                            lastProgress = System.nanoTime();
+                            rtt.clearBackoff();
+                            invalids = 0;
+                            if (advance % windowSize == 0 || lastAcked == finalBlock) {
+                                //the receiver got a whole number of windows in order, and acknowledged the last
+                                // block in response to that block, which gives the round trip time as long as the
+                                // block wasn't re-sent
+                                int slot = (int) (lastAcked % slots);
+                                if (!resentBlock[slot]) {
+                                    rtt.sample(System.nanoTime() - sentAt[slot]);
+                                }
+                                congestion.acknowledged(advance);
+                            } else if (congestion.lost(lastAcked, lastSent)) {
+                                //the receiver acknowledged part of a window, so it's reporting a gap - the blocks
+                                // after the one acknowledged were lost, so send again from the following block
+                                // without waiting to time out. gaps reported while those are re-sent are left to
+                                // the timeout, as re-sent blocks arriving twice look like gaps to the receiver too
+                                metrics.fastRetransmit();
+                                nextSend = lastAcked + 1;
+                            }
+                        } else if (advance == 0 && congestion.lost(lastAcked, lastSent)) {
+                            //duplicate acknowledgement - the block following it was lost, so re-send from there
+                            metrics.fastRetransmit();
+                            nextSend = lastAcked + 1;
+                        }
+
+                    } else if (type == PacketType.ERROR) {
+                        //received error packet from remote host, so terminate with its message
+                        metrics.errorReceived(codec.getErrorType());
+                        throw new TFTPException("error: " + ((ErrorPacket) codec.toPacket()).getMessage());
+                    }
+
+                } catch (IOException e) {
+                    //failed to send/receive datagram - just try again, up to the limit of invalids
+                    ++invalids;
+                    nextSend = lastAcked + 1;
+                    checkLimits(lastProgress, invalids, "error writing to/reading from socket");
+                }
+            }
+
+            //print information about the transfer, and finish
+            System.out.printf("sent %d bytes in %s seconds%n", bytesSent, secondsSince(startTime));
+            if (congestion.isAdaptive()) {
+                System.out.println("congestion " + congestion);
+            }
+            metrics.windowPeaked(congestion.getPeak());
+            return bytesSent;
+        }
+
+        //allocate the packet in a slot of the window the first time it's used
+        private static void allocateSlot(ByteBuffer[] window, DatagramPacket[] windowDatagrams, int slot,
+                                         int blockSize, InetAddress remoteAddress, int remotePort) {
+            if (window[slot] == null) {
+                window[slot] = ByteBuffer.allocate(blockSize + DataPacket.DATA_OFFSET);
+                windowDatagrams[slot] = new DatagramPacket(window[slot].array(), 0, remoteAddress, remotePort);
+            }
+        }
+
+    }
+
+    public static class FileReceiver {
+        public static long receive(
+                DatagramSocket socket, TFTPPacket firstPacket, InetAddress remoteAddress,
+                int remotePort, FileOutputStream fos, TransferOptions options) throws TFTPException {
+            return receive(socket, firstPacket, remoteAddress, remotePort, fos, options, TransferMetrics.NONE);
+        }
+
+        //as below, writing the file behind the transfer with the durability in Configuration
+        public static long receive(
+                DatagramSocket socket, TFTPPacket firstPacket, InetAddress remoteAddress, int remotePort,
+                FileOutputStream fos, TransferOptions options, TransferMetrics metrics) throws TFTPException {
+            WriteBehindBlockSink sink = new WriteBehindBlockSink(fos.getChannel(), Configuration.DURABILITY);
+            try {
+                return receive(socket, firstPacket, remoteAddress, remotePort, sink, options, metrics);
+            } finally {
+                try {
+                    sink.close();
+                } catch (IOException e) {
+                    System.out.println("error closing file: " + e.getMessage());
+                }
+            }
+        }
+
+        //receive file and send acknowledgement to sender making transfer reliable. the options are those negotiated
+        // for the transfer, or for a client sending a request, the options requested from the server. data is only
+        // acknowledged once per window, or when a block is missed or the final block is received (RFC 7440), and the
+        // final block only once the file has been flushed to the sink. returns the number of bytes received, and
+        // reports what happens along the way to the metrics
+        public static long receive(
+                DatagramSocket socket, TFTPPacket firstPacket, InetAddress remoteAddress, int remotePort,
+                BlockSink sink, TransferOptions options, TransferMetrics metrics) throws TFTPException {
+
+            //track the time taken and the number of bytes received to print at the end if all goes well
+            long startTime = System.currentTimeMillis();
+            long bytesReceived = 0;
+
+            //the options in effect for this transfer - a client's requested options only take effect once
+            // acknowledged by the server, until then the defaults apply
+            TransferOptions session = firstPacket instanceof RequestPacket ? new TransferOptions() : options;
+
+            //a buffer for holding the data contained in received datagrams - large enough for the biggest
+            // block size which could be in effect
+            byte[] rcvBuffer = new byte[Math.max(options.getPacketLength(), Configuration.MAX_PACKET_LENGTH)];
+
+            //a datagram object to hold received datagrams, and a reusable view for decoding them in place
+            DatagramPacket rcvDatagram = new DatagramPacket(rcvBuffer, rcvBuffer.length);
+            ByteBuffer receiveView = ByteBuffer.wrap(rcvBuffer);
+            PacketCodec codec = new PacketCodec();
+
+            //a single acknowledgement packet, re-written in place for each block acknowledged
+            ByteBuffer ackBuffer = ByteBuffer.allocate(4);
+            DatagramPacket ackDatagram = new DatagramPacket(ackBuffer.array(), 4, remoteAddress, remotePort);
+
+            //the datagram most recently sent into the network - re-sent on timeout. generally will be an ack, but the
+            // first packet is different (could be ACK 0, OACK or RRQ)
+            DatagramPacket sendDatagram = toDatagram(firstPacket, remoteAddress, remotePort);
+
+            //to check if we're still waiting on a response to the initial packet
+            boolean first = true;
+
+            //the sequence number of the last data packet received in order, counting from the start of the transfer
+            // without wrapping - acknowledged with the block number it rolls over to
+            long ackNumber = 0;
+            Rollover rollover = session.getRollover();
+
+            //the number of blocks received since the last acknowledgement was sent
+            int unacknowledged = 0;
+
+            //whether an acknowledgement has been sent for an out-of-order block since the last progress, so that a
+            // burst of out-of-order blocks only causes one re-send of the window
+            boolean gapReported = false;
+
+            //measures the round trip time to set the retransmission timeout. the transfer is abandoned if it makes no
+            // progress before the deadline, or if too many nonsense packets are received in a row
+            RttEstimator rtt = new RttEstimator(options.getTimeout());
+            long lastProgress = System.nanoTime();
+            int invalids = 0;
+
+            //when the packet which should prompt the next data packet was sent, or -1 if it has been re-sent (or
+            // nothing is outstanding) so the round trip can't be measured
+            long sentAt = System.nanoTime();
+
+            //send the first packet, then loop until all of the file is received
+            try {
+                UDPUtil.send(socket, sendDatagram);
+            } catch (IOException e) {
+                //nothing will be received, so the packet will be re-sent when the receive times out
+                ++invalids;
+            }
+
+            //continue looping until the deadline passes or we reach the max number of invalids
+            // the hopeful alternative is that the final data packet is received, in which case we return
+            while (true) {
+                try {
+                    try {
+                        //block until we receive a response, if this throws a timeout exception then back off
+                        // and send the last packet again
+                        setTimeout(socket, rtt, lastProgress);
+                        UDPUtil.receive(socket, rcvDatagram);
+                    } catch (SocketTimeoutException timeout) {
+                        metrics.timedOut();
+                        metrics.retransmitted();
+                        rtt.backoff();
+                        sentAt = -1;
+                        checkLimits(lastProgress, invalids, "failed to write to file too many times");
+                        if (first) {
+                            System.out.println("timed out, resending " + firstPacket);
+                            UDPUtil.send(socket, sendDatagram);
+                        } else {
+                            //acknowledge everything received so far, even if part way through a window
+                            System.out.println("timed out, resending ACK[block="
+                                    + Short.toUnsignedInt(rollover.toBlockNumber(ackNumber)) + "]");
+                            sendDatagram = acknowledge(
+                                    socket, ackBuffer, ackDatagram, rollover.toBlockNumber(ackNumber), remotePort
+                            );
+                        }
+                        unacknowledged = 0;
+                        continue;
+                    }
+
+                    if (ackNumber == 0) {
+                        //server can respond from a different port, so re-set the remote port based on
+                        // the received datagram
+                        remotePort = rcvDatagram.getPort();
+                    }
+
+                    //decode the received datagram in place - if this throws an exception, it means the packet is
+                    // 'nonsensical' in terms of the protocol - so increment the number of these invalid packets
+                    PacketType type;
+                    try {
+                        type = codec.wrap(receiveView, 0, rcvDatagram.getLength()).getPacketType();
+                    } catch (TFTPException e) {
+                        metrics.invalidPacket();
+                        ++invalids;
+                        checkLimits(lastProgress, invalids, "failed to write to file too many times");
+                        continue;
+                    }
+
+                    if (type == PacketType.DATA) {
+
+                        //packet has correct block number, we are waiting on this packet
+                        if (codec.getBlockNumber() == rollover.toBlockNumber(ackNumber + 1)) {
+                            //queue the data received in the data packet to be written to the file, straight from the
+                            // receive buffer. the sink has given up on the file if this fails, so the transfer does too
+                            try {
+                                sink.write(codec.getData());
+                            } catch (IOException e) {
+                                throw writeFailed(socket, remoteAddress, remotePort, metrics);
+                            }
+                            //increment the number of bytes successfully received
+                            bytesReceived += codec.getDataLength();
+                            metrics.dataReceived(codec.getDataLength());
+                            //now we are waiting on the packet with block number (ackNumber + 1)
+                            ++ackNumber;
+                            ++unacknowledged;
+                            first = false;
+                            gapReported = false;
+                            if (sentAt != -1) {
+                                rtt.sample(System.nanoTime() - sentAt);
+                                sentAt = -1;
+                            }
+                            lastProgress = System.nanoTime();
+                            rtt.clearBackoff();
+                            invalids = 0;
+
+                            //if this is the final packet, send an acknowledgement, print information about the
+                            // transfer, and finish
+                            if (codec.getDataLength() < session.getBlockSize()) {
+                                flush(socket, sink, remoteAddress, remotePort, metrics);
+                                short finalBlock = rollover.toBlockNumber(ackNumber);
+                                acknowledge(socket, ackBuffer, ackDatagram, finalBlock, remotePort);
+
+                                System.out.printf(
+                                        "%s[block=%d,length=%d]%n",
+                                        type, Short.toUnsignedInt(finalBlock), codec.getDataLength()
+                                );
+                                System.out.printf(
+                                        "received %d bytes in %s seconds%n",
+                                        bytesReceived, secondsSince(startTime)
+                                );
+                                //a server dallies in case the final acknowledgement is lost, so the client sending
+                                // the file finishes successfully. a client doesn't - it has the file, and the user
+                                // shouldn't have to wait
+                                if (!(firstPacket instanceof RequestPacket)) {
+                                    dally(socket, rcvDatagram, receiveView, codec, ackDatagram, finalBlock, rtt);
+                                }
+                                return bytesReceived;
+                            }
+
+                            //acknowledge once a whole window has been received
+                            if (unacknowledged == session.getWindowSize()) {
+                                sendDatagram = acknowledge(
+                                        socket, ackBuffer, ackDatagram, rollover.toBlockNumber(ackNumber), remotePort
+                                );
+                                sentAt = System.nanoTime();
+                                unacknowledged = 0;
+                            }
+
+                        } else if (!first && !gapReported
+                                && rollover.toSequence(codec.getBlockNumber(), ackNumber) > ackNumber) {
+                            //a block was missed - acknowledge the last block received in order so that the sender
+                            // continues from the following block. blocks already received are ignored, as the
+                            // sender re-sends those after going back, and reporting them would have it go back again
+                            sendDatagram = acknowledge(
+                                    socket, ackBuffer, ackDatagram, rollover.toBlockNumber(ackNumber), remotePort
+                            );
+                            sentAt = -1;
+                            unacknowledged = 0;
+                            gapReported = true;
+                        }
+
+                    } else if (type == PacketType.OPTION_ACKNOWLEDGEMENT
+                            && firstPacket instanceof RequestPacket && ackNumber == 0) {
+                        if (first) {
+                            //the server accepted some of the requested options - switch to the acknowledged options
+                            session = acknowledgeOptions(
+                                    socket, options, (OptionAcknowledgementPacket) codec.toPacket(),
+                                    remoteAddress, remotePort, metrics
+                            );
+                            rollover = session.getRollover();
+                            //the server has said how big the file is - give up now if it won't fit
+                            if (session.getTransferSize() != -1) {
+                                try {
+                                    sink.expect(session.getTransferSize());
+                                } catch (IOException e) {
+                                    throw noRoom(socket, remoteAddress, remotePort, metrics, e);
+                                }
+                            }
+                            first = false;
+                            if (sentAt != -1) {
+                                rtt.sample(System.nanoTime() - sentAt);
+                            }
+                            lastProgress = System.nanoTime();
+                            rtt.clearBackoff();
+                            sentAt = System.nanoTime();
+                        } else {
+                            sentAt = -1;
+                        }
+                        //acknowledge the OACK with ACK 0 to start the flow of data (again, if the OACK was re-sent
+                        // because the first ACK 0 was lost)
+                        sendDatagram = acknowledge(socket, ackBuffer, ackDatagram, (short) 0, remotePort);
+
+                    } else if (type == PacketType.ERROR) {
+                        //received error packet from remote host, so terminate with its message
+                        metrics.errorReceived(codec.getErrorType());
+                        throw new TFTPException("error: " + ((ErrorPacket) codec.toPacket()).getMessage());
+                    }
+
+                } catch (IOException e) {
+                    //failed to write to file for whatever reason - can still try again, but only up to MAX_INVALIDS
+                    // times in a row
+                    ++invalids;
+                    checkLimits(lastProgress, invalids, "failed to write to file too many times");
+                }
+            }
+        }
+
+        //wait for everything received to be written out before the final block is acknowledged - if it can't be, the
+        // sender is told the transfer has failed rather than left thinking it succeeded
+        private static void flush(DatagramSocket socket, BlockSink sink, InetAddress remoteAddress, int remotePort,
+                                  TransferMetrics metrics) throws TFTPException {
+            try {
+                sink.flush().get();
+            } catch (ExecutionException e) {
+                throw writeFailed(socket, remoteAddress, remotePort, metrics);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw writeFailed(socket, remoteAddress, remotePort, metrics);
+            }
+        }
+
+        //tell the sender the file couldn't be written, returning the exception to end the transfer with
+        private static TFTPException writeFailed(DatagramSocket socket, InetAddress remoteAddress, int remotePort,
+                                                 TransferMetrics metrics) {
+            ErrorPacket error = new ErrorPacket(ErrorType.UNDEFINED, "error writing to file");
+            try {
+                UDPUtil.send(socket, toDatagram(error, remoteAddress, remotePort));
+                metrics.errorSent(ErrorType.UNDEFINED);
+            } catch (IOException ignore) {
+                //failing anyway
+            }
+            return new TFTPException("error: failed to write to file");
+        }
+
+        //tell the sender the file it has said is coming won't fit, returning the exception to abandon the transfer with
+        private static TFTPException noRoom(DatagramSocket socket, InetAddress remoteAddress, int remotePort,
+                                            TransferMetrics metrics, IOException cause) {
+            ErrorPacket error = new ErrorPacket(ErrorType.DISK_FULL, "no room for file");
+            try {
+                UDPUtil.send(socket, toDatagram(error, remoteAddress, remotePort));
+                metrics.errorSent(ErrorType.DISK_FULL);
+            } catch (IOException ignore) {
+                //failing anyway
+            }
+            return new TFTPException("error: no room for file: " + cause.getMessage());
+        }
+
+        //write the acknowledgement number into the reusable ACK packet and send it, returning its datagram
+        private static DatagramPacket acknowledge(DatagramSocket socket, ByteBuffer ackBuffer,
+                                                  DatagramPacket ackDatagram, short ackNumber,
+                                                  int remotePort) throws IOException {
+            PacketCodec.putAcknowledgement(ackBuffer, ackNumber);
+            ackDatagram.setPort(remotePort);
+            UDPUtil.send(socket, ackDatagram);
+            return ackDatagram;
+        }
+
+        //wait a while after acknowledging the final block in case the acknowledgement was lost - the sender then
+        // re-sends the final block, which is acknowledged again so that the sender also finishes (the 'dally'
+        // suggested by RFC 1350). long enough for the sender to time out, allowing for its timeout being a bit longer
+        private static void dally(DatagramSocket socket, DatagramPacket rcvDatagram, ByteBuffer receiveView,
+                                  PacketCodec codec, DatagramPacket ackDatagram, short finalBlock, RttEstimator rtt) {
+            long end = System.nanoTime() + Math.min(2L * rtt.getTimeout(), Configuration.DEADLINE) * 1_000_000L;
+            try {
+                long remaining;
+                while ((remaining = (end - System.nanoTime()) / 1_000_000) > 0) {
+                    socket.setSoTimeout((int) remaining);
+                    UDPUtil.receive(socket, rcvDatagram);
+                    try {
+                        codec.wrap(receiveView, 0, rcvDatagram.getLength());
+                        if (codec.getPacketType() == PacketType.DATA && codec.getBlockNumber() == finalBlock) {
+                            UDPUtil.send(socket, ackDatagram);
+                        }
+                    } catch (TFTPException ignore) {
+                        //the file has already been received, so just ignore anything unexpected
+                    }
+                }
+            } catch (IOException ignore) {
+                //timed out without the final block being re-sent (or the socket failed) - either way we're done
+            }
+        }
+
+    }
+
+    //wait for a response for the current retransmission timeout, but not past the point where the transfer is given up
+    private static void setTimeout(DatagramSocket socket, RttEstimator rtt, long lastProgress) throws SocketException {
+        long remaining = Configuration.DEADLINE - (System.nanoTime() - lastProgress) / 1_000_000;
+        socket.setSoTimeout((int) Math.max(1, Math.min(rtt.getTimeout(), remaining)));
+    }
+
+    //give up on a transfer once it has gone too long without progress or too many invalid packets have occurred
+    private static void checkLimits(long lastProgress, int invalids, String invalidReason) throws TFTPException {
+        if (System.nanoTime() - lastProgress >= Configuration.DEADLINE * 1_000_000L) {
+            //nothing acknowledged/received for too long - give up
+            throw new TFTPException("error: transfer timed out");
+        } else if (invalids >= Configuration.MAX_INVALIDS) {
+            //too many odd packets received or too many failed attempts to write to output stream
+            throw new TFTPException("error: too many invalid packets received or " + invalidReason);
+        }
+    }
+}
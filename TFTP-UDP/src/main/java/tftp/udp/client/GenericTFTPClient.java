@@ -1,6 +1,9 @@
 package tftp.udp.client;
 
 import tftp.shared.Configuration;
+import tftp.shared.Rollover;
+import tftp.shared.TFTPException;
+import tftp.shared.TransferOptions;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
@@ -11,6 +14,10 @@ public abstract class GenericTFTPClient extends Thread {
 
     protected InetAddress remoteAddress;
     protected int remotePort;
+    //options requested from the server for each transfer
+    protected final TransferOptions options = new TransferOptions();
+    //whether to ask for files by multicast
+    protected boolean multicast = false;
 
 
     public GenericTFTPClient(int port) {
@@ -49,9 +56,33 @@ public abstract class GenericTFTPClient extends Thread {
                         handlePut(args);
                         break;
                     case "timeout":
-                        //set the timeout length
+                        //set the initial timeout length
                         handleTimeout(args);
                         break;
+                    case "reqtimeout":
+                        //set the timeout to ask the server to use
+                        handleRequestedTimeout(args);
+                        break;
+                    case "deadline":
+                        //set how long a transfer can go without progress
+                        handleDeadline(args);
+                        break;
+                    case "blksize":
+                        //set the block size to request
+                        handleBlockSize(args);
+                        break;
+                    case "windowsize":
+                        //set the window size to request
+                        handleWindowSize(args);
+                        break;
+                    case "rollover":
+                        //set the block number to request after block 65535
+                        handleRollover(args);
+                        break;
+                    case "multicast":
+                        //set whether to ask for files by multicast
+                        handleMulticast(args);
+                        break;
                     case "exit":
                         //stop the client
                         return;
@@ -176,12 +207,111 @@ public abstract class GenericTFTPClient extends Thread {
         }
     }
 
+    private void handleRequestedTimeout(String[] args) {
+        //if no arguments to command, print correct usage
+        if (args.length == 1) {
+            System.out.println("usage: reqtimeout time-in-seconds");
+            return;
+        }
+
+        //set requested timeout, print error if not an integer or out of range
+        try {
+            options.setTimeout(Integer.parseInt(args[1]));
+        } catch (NumberFormatException nfe) {
+            System.out.println("invalid timeout: " + args[1]);
+        } catch (TFTPException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private void handleDeadline(String[] args) {
+        //if no arguments to command, print correct usage
+        if (args.length == 1) {
+            System.out.println("usage: deadline time-in-ms");
+            return;
+        }
+
+        //set deadline, print error if not an integer
+        try {
+            Configuration.DEADLINE = Integer.parseInt(args[1]);
+        } catch (NumberFormatException nfe) {
+            System.out.println("invalid deadline: " + args[1]);
+        }
+    }
+
+    private void handleBlockSize(String[] args) {
+        //if no arguments to command, print correct usage
+        if (args.length == 1) {
+            System.out.println("usage: blksize size-in-bytes");
+            return;
+        }
+
+        //set requested block size, print error if not an integer or out of range
+        try {
+            options.setBlockSize(Integer.parseInt(args[1]));
+        } catch (NumberFormatException nfe) {
+            System.out.println("invalid block size: " + args[1]);
+        } catch (TFTPException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private void handleWindowSize(String[] args) {
+        //if no arguments to command, print correct usage
+        if (args.length == 1) {
+            System.out.println("usage: windowsize number-of-blocks");
+            return;
+        }
+
+        //set requested window size, print error if not an integer or out of range
+        try {
+            options.setWindowSize(Integer.parseInt(args[1]));
+        } catch (NumberFormatException nfe) {
+            System.out.println("invalid window size: " + args[1]);
+        } catch (TFTPException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private void handleRollover(String[] args) {
+        //if no arguments to command, print correct usage
+        if (args.length == 1) {
+            System.out.println("usage: rollover 0|1");
+            return;
+        }
+
+        //set requested rollover, print error if not 0 or 1
+        try {
+            options.setRollover(Rollover.fromValue(Integer.parseInt(args[1])));
+        } catch (NumberFormatException nfe) {
+            System.out.println("invalid rollover: " + args[1]);
+        } catch (TFTPException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private void handleMulticast(String[] args) {
+        //if no arguments to command, print correct usage
+        if (args.length == 1 || !(args[1].equals("on") || args[1].equals("off"))) {
+            System.out.println("usage: multicast on|off");
+            return;
+        }
+
+        multicast = args[1].equals("on");
+    }
+
 
     private void printHelp() {
         System.out.println("connect host-name [port]");
         System.out.println("get remote-path [local-path]");
         System.out.println("put local-path [remote-path]");
         System.out.println("timeout time-in-ms");
+        System.out.println("reqtimeout time-in-seconds");
+        System.out.println("deadline time-in-ms");
+        System.out.println("blksize size-in-bytes");
+        System.out.println("windowsize number-of-blocks");
+        System.out.println("rollover 0|1");
+        System.out.println("multicast on|off");
         System.out.println("exit");
     }
 
@@ -0,0 +1,287 @@
+package tftp.udp.client;
+
+import tftp.shared.Configuration;
+import tftp.shared.ErrorType;
+import tftp.shared.Mode;
+import tftp.shared.RttEstimator;
+import tftp.shared.TFTPException;
+import tftp.shared.TransferOptions;
+import tftp.shared.packet.*;
+import tftp.udp.UDPUtil;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The client side of a multicast transfer (RFC 2090). The request asks for multicast, and the server's OACK names the
+ * group to join and whether this client is the master. Blocks arrive from the group in whatever order the group is
+ * being sent them - a client joining late gets the rest of the file first - and each is written into place in the
+ * file. While master, the client acknowledges the last block it has in order whenever that changes, which has the
+ * server send the group the following block. Once it has the whole file, master or not, it acknowledges the final
+ * block to leave the group.
+ */
+public class MulticastReceiver {
+
+    private final DatagramChannel control;
+    private final Selector selector;
+    private final FileChannel file;
+    private final TransferOptions requested;
+
+    private DatagramChannel group;
+    private SocketAddress server;
+    private TransferOptions session;
+    private boolean master = false;
+
+    //the blocks received, and the number of the final (short) block once it has been
+    private final BitSet received = new BitSet();
+    private int finalBlock = -1;
+    //the last block received in order, and the last acknowledged, -1 if none has been
+    private int contiguous = 0;
+    private int acknowledged = -1;
+    private long bytesReceived = 0;
+
+    private final ByteBuffer buffer;
+    private final PacketCodec codec = new PacketCodec();
+
+
+    private MulticastReceiver(DatagramChannel control, Selector selector, FileChannel file,
+                              TransferOptions requested) {
+        this.control = control;
+        this.selector = selector;
+        this.file = file;
+        this.requested = requested;
+        this.buffer = ByteBuffer.allocate(Math.max(requested.getPacketLength(), Configuration.MAX_PACKET_LENGTH));
+    }
+
+    //read the file from the server by multicast into the given file, with the requested options. returns the number
+    // of bytes received, or -1 if the server won't send the file by multicast - it has been told to stop, and the file
+    // should be read as usual
+    public static long receive(InetAddress remoteAddress, int remotePort, String fileName, FileChannel file,
+                               TransferOptions options) throws IOException, TFTPException {
+        try (DatagramChannel control = DatagramChannel.open();
+             Selector selector = Selector.open()) {
+            control.bind(null);
+            control.configureBlocking(false);
+            control.register(selector, SelectionKey.OP_READ);
+            MulticastReceiver receiver = new MulticastReceiver(control, selector, file, options);
+            try {
+                return receiver.receive(new InetSocketAddress(remoteAddress, remotePort), fileName);
+            } finally {
+                if (receiver.group != null) {
+                    receiver.group.close();
+                }
+            }
+        }
+    }
+
+    private long receive(InetSocketAddress remote, String fileName) throws IOException, TFTPException {
+        long startTime = System.currentTimeMillis();
+        Map<String, String> options = new LinkedHashMap<>(requested.toMap());
+        options.put(TransferOptions.MULTICAST, "");
+        ReadRequestPacket request = new ReadRequestPacket(fileName, Mode.OCTET, options);
+
+        RttEstimator rtt = new RttEstimator(requested.getTimeout());
+        long lastProgress = System.nanoTime();
+        send(request, remote);
+
+        while (finalBlock == -1 || contiguous < finalBlock) {
+            if (System.nanoTime() - lastProgress >= Configuration.DEADLINE * 1_000_000L) {
+                throw new TFTPException("error: transfer timed out");
+            }
+            if (selector.select(rtt.getTimeout()) == 0) {
+                rtt.backoff();
+                if (server == null) {
+                    System.out.println("timed out, resending " + request);
+                    send(request, remote);
+                } else if (master) {
+                    acknowledge();
+                }
+                continue;
+            }
+            selector.selectedKeys().clear();
+
+            //drain both channels of everything waiting
+            SocketAddress from;
+            while ((from = receive(control)) != null) {
+                if (server == null) {
+                    //the server answers from a port of its own for the transfer
+                    server = from;
+                } else if (!from.equals(server)) {
+                    continue;
+                }
+                TFTPPacket packet;
+                try {
+                    packet = codec.toPacket();
+                } catch (TFTPException e) {
+                    continue;
+                }
+                if (packet instanceof ErrorPacket) {
+                    throw new TFTPException("error: " + ((ErrorPacket) packet).getMessage());
+                } else if (packet instanceof OptionAcknowledgementPacket) {
+                    if (!onOack((OptionAcknowledgementPacket) packet)) {
+                        return -1;
+                    }
+                    lastProgress = System.nanoTime();
+                    rtt.clearBackoff();
+                } else if (packet instanceof DataPacket && session == null) {
+                    //the server ignored the options, and is sending the file to this client alone
+                    decline("multicast not acknowledged");
+                    return -1;
+                }
+            }
+            while (group != null && receive(group) != null) {
+                if (onData()) {
+                    lastProgress = System.nanoTime();
+                    rtt.clearBackoff();
+                }
+            }
+        }
+
+        //leave the group - or as master, acknowledge the final block
+        acknowledged = -1;
+        contiguous = finalBlock;
+        acknowledge();
+        System.out.printf("received %d bytes in %s seconds%n", bytesReceived, UDPUtil.secondsSince(startTime));
+        return bytesReceived;
+    }
+
+    //returns false if the server hasn't acknowledged multicast
+    private boolean onOack(OptionAcknowledgementPacket oack) throws IOException, TFTPException {
+        Map<String, String> options = new LinkedHashMap<>(oack.getOptions());
+        String multicast = options.remove(TransferOptions.MULTICAST);
+        if (multicast == null) {
+            decline("multicast not acknowledged");
+            return false;
+        }
+        //address,port,mc - the address and port may be left out of OACKs after the first
+        String[] fields = multicast.split(",", -1);
+        if (fields.length != 3) {
+            decline("invalid multicast option: " + multicast);
+            throw new TFTPException("invalid multicast option acknowledged: " + multicast);
+        }
+        if (session == null) {
+            session = requested.acknowledge(options);
+            try {
+                join(InetAddress.getByName(fields[0]), Integer.parseInt(fields[1]));
+            } catch (NumberFormatException e) {
+                decline("invalid multicast option: " + multicast);
+                throw new TFTPException("invalid multicast option acknowledged: " + multicast);
+            }
+        }
+        master = fields[2].equals("1");
+        if (master) {
+            //the first acknowledgement as master asks for the blocks missed so far
+            acknowledged = -1;
+            acknowledge();
+        }
+        return true;
+    }
+
+    //returns true if the block received is new
+    private boolean onData() throws IOException {
+        try {
+            if (session == null || codec.getPacketType() != PacketType.DATA) {
+                return false;
+            }
+        } catch (TFTPException e) {
+            return false;
+        }
+        int block = Short.toUnsignedInt(codec.getBlockNumber());
+        int length = codec.getDataLength();
+        if (block == 0 || received.get(block)) {
+            return false;
+        }
+        ByteBuffer data = codec.getData();
+        long position = (long) (block - 1) * session.getBlockSize();
+        while (data.hasRemaining()) {
+            position += file.write(data, position);
+        }
+        received.set(block);
+        bytesReceived += length;
+        if (length < session.getBlockSize()) {
+            finalBlock = block;
+        }
+        contiguous = received.nextClearBit(1) - 1;
+        if (master && contiguous > acknowledged) {
+            acknowledge();
+        }
+        return true;
+    }
+
+    private void join(InetAddress address, int port) throws IOException, TFTPException {
+        if (!address.isMulticastAddress()) {
+            decline("not a multicast address: " + address.getHostAddress());
+            throw new TFTPException("not a multicast address: " + address.getHostAddress());
+        }
+        group = DatagramChannel.open(
+                address instanceof Inet6Address ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET
+        );
+        //other clients on this host may be in the group too
+        group.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        group.bind(new InetSocketAddress(port));
+        group.join(address, networkInterface());
+        group.configureBlocking(false);
+        group.register(selector, SelectionKey.OP_READ);
+    }
+
+    //the interface set in Configuration, or the one the server is reached through
+    private NetworkInterface networkInterface() throws IOException, TFTPException {
+        if (Configuration.MULTICAST_INTERFACE != null) {
+            NetworkInterface named = NetworkInterface.getByName(Configuration.MULTICAST_INTERFACE);
+            if (named == null) {
+                throw new TFTPException("unknown network interface: " + Configuration.MULTICAST_INTERFACE);
+            }
+            return named;
+        }
+        try (DatagramSocket probe = new DatagramSocket()) {
+            probe.connect(server);
+            NetworkInterface found = NetworkInterface.getByInetAddress(probe.getLocalAddress());
+            if (found == null) {
+                throw new TFTPException("no network interface to join the multicast group on");
+            }
+            return found;
+        }
+    }
+
+    private void acknowledge() throws IOException {
+        send(new AcknowledgementPacket((short) contiguous), server);
+        acknowledged = contiguous;
+    }
+
+    //tell the server the transfer is off
+    private void decline(String message) throws IOException {
+        send(new ErrorPacket(ErrorType.OPTION_NEGOTIATION, message), server);
+    }
+
+    //receive a datagram from the channel into the buffer and point the codec at it, returning where it came from, or
+    // null if nothing is waiting
+    private SocketAddress receive(DatagramChannel channel) throws IOException {
+        buffer.clear();
+        SocketAddress from = channel.receive(buffer);
+        if (from != null) {
+            buffer.flip();
+            codec.wrap(buffer);
+        }
+        return from;
+    }
+
+    private void send(TFTPPacket packet, SocketAddress address) throws IOException {
+        control.send(ByteBuffer.wrap(packet.getPacketBytes(), 0, packet.getPacketLength()), address);
+    }
+
+}
@@ -0,0 +1,62 @@
+package tftp.udp.client;
+
+import tftp.shared.BlockSink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Wraps the sink a client receives a file into. Once the server says how big the file is (RFC 2349), the wrapped sink
+ * is told, so that it can make room for the file or refuse it, and how far the transfer has got is printed every
+ * tenth of the way.
+ */
+class ProgressBlockSink implements BlockSink {
+
+    //the number of times progress is printed
+    private static final int STEPS = 10;
+
+    private final BlockSink sink;
+
+    //the size of the file, -1 until the server says
+    private long size = -1;
+    private long written = 0;
+    //the last step printed
+    private int step = 0;
+
+
+    ProgressBlockSink(BlockSink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void expect(long size) throws IOException {
+        sink.expect(size);
+        this.size = size;
+    }
+
+    @Override
+    public void write(ByteBuffer data) throws IOException {
+        int length = data.remaining();
+        sink.write(data);
+        written += length;
+        if (size > 0) {
+            int reached = (int) Math.min(written * STEPS / size, STEPS);
+            if (reached > step && reached < STEPS) {
+                step = reached;
+                System.out.printf("received %d of %d bytes (%d%%)%n", written, size, reached * 100 / STEPS);
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> flush() {
+        return sink.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        sink.close();
+    }
+
+}
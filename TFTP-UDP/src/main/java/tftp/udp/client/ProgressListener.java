@@ -0,0 +1,16 @@
+package tftp.udp.client;
+
+/**
+ * Told how far a transfer started by a {@link TFTPNIOClient} has got. Called on the client's loop thread, which
+ * drives every transfer - a listener must be quick and must not block, or it holds up the rest.
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+    ProgressListener NONE = (bytes, size) -> {
+    };
+
+    //the number of bytes of the file transferred so far, and the size of the file, -1 if the server hasn't said
+    void onProgress(long bytes, long size);
+
+}
@@ -0,0 +1,156 @@
+package tftp.udp.client;
+
+import tftp.shared.BlockSink;
+import tftp.shared.BlockSource;
+import tftp.shared.Configuration;
+import tftp.shared.FileBlockSource;
+import tftp.shared.StagedBlockSink;
+import tftp.shared.TFTPException;
+import tftp.shared.TransferException;
+import tftp.shared.TransferOptions;
+import tftp.udp.nio.ClientLoop;
+import tftp.udp.nio.ClientTransfer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A client for programs rather than people - {@link GenericTFTPClient} is the interactive one. Each transfer returns
+ * straight away with a future which completes with its {@link TransferResult}, or exceptionally with a
+ * {@link TransferException} saying what kind of failure it was. Every transfer is driven by one {@link ClientLoop}
+ * thread, so any number can run at once. The future completes on that thread, as do stages added to it without an
+ * executor, so those must not block. Cancelling the future abandons the transfer, telling the server.
+ */
+public class TFTPNIOClient implements Closeable {
+
+    private final ClientLoop loop;
+
+
+    public TFTPNIOClient() throws IOException {
+        this.loop = new ClientLoop("tftp-client-loop");
+        loop.start();
+    }
+
+    //read the file from the server into the local file with the default options
+    public CompletableFuture<TransferResult> get(InetSocketAddress server, String remoteFile, Path localFile) {
+        return get(server, remoteFile, localFile, new TransferOptions(), ProgressListener.NONE);
+    }
+
+    //read the file from the server into the local file, asking for the given options. the local file is only replaced
+    // once the whole file has been received, so it is left as it was if the transfer fails
+    public CompletableFuture<TransferResult> get(InetSocketAddress server, String remoteFile, Path localFile,
+                                                 TransferOptions options, ProgressListener progress) {
+        //ask for the size of the file too, to refuse it straight away if it won't fit and show progress against
+        TransferOptions requested = new TransferOptions(options);
+        BlockSink sink;
+        try {
+            requested.setTransferSize(0);
+            sink = StagedBlockSink.open(localFile, -1, Configuration.DURABILITY);
+        } catch (IOException | InvalidPathException | TFTPException e) {
+            return failed(TransferException.Kind.LOCAL_IO, "unable to write to: " + localFile);
+        }
+        try {
+            return start(ClientTransfer::read, server, remoteFile, requested, sink, progress);
+        } catch (IOException e) {
+            close(sink);
+            return failed(TransferException.Kind.LOCAL_IO, "error: " + e.getMessage());
+        }
+    }
+
+    //write the local file to the server with the default options
+    public CompletableFuture<TransferResult> put(InetSocketAddress server, Path localFile, String remoteFile) {
+        return put(server, localFile, remoteFile, new TransferOptions(), ProgressListener.NONE);
+    }
+
+    //write the local file to the server, asking for the given options
+    public CompletableFuture<TransferResult> put(InetSocketAddress server, Path localFile, String remoteFile,
+                                                 TransferOptions options, ProgressListener progress) {
+        //tell the server how big the file is, so it can refuse it straight away if it won't fit (RFC 2349)
+        TransferOptions requested = new TransferOptions(options);
+        BlockSource source;
+        try {
+            source = FileBlockSource.open(localFile);
+        } catch (NoSuchFileException e) {
+            return failed(TransferException.Kind.LOCAL_IO, "file not found: " + localFile);
+        } catch (IOException | InvalidPathException e) {
+            return failed(TransferException.Kind.LOCAL_IO, "error reading file: " + e.getMessage());
+        }
+        try {
+            requested.setTransferSize(source.size());
+            return start(ClientTransfer::write, server, remoteFile, requested, source, progress);
+        } catch (IOException | TFTPException e) {
+            close(source);
+            return failed(TransferException.Kind.LOCAL_IO, "error reading file: " + e.getMessage());
+        }
+    }
+
+    //abandon every transfer still running, and stop the loop
+    @Override
+    public void close() {
+        loop.shutdown();
+    }
+
+    //how a transfer is opened on the loop - ClientTransfer.read or ClientTransfer.write
+    private interface Opener<F> {
+
+        ClientTransfer open(ClientLoop loop, InetSocketAddress server, String fileName, TransferOptions options,
+                            F file, ClientTransfer.Listener listener) throws IOException;
+
+    }
+
+    private <F> CompletableFuture<TransferResult> start(Opener<F> opener, InetSocketAddress server, String remoteFile,
+                                                        TransferOptions requested, F file, ProgressListener progress)
+            throws IOException {
+        if (!loop.isRunning()) {
+            throw new IOException("client closed");
+        }
+        CompletableFuture<TransferResult> future = new CompletableFuture<>();
+        long startTime = System.currentTimeMillis();
+        ClientTransfer transfer = opener.open(loop, server, remoteFile, requested, file, new ClientTransfer.Listener() {
+            @Override
+            public void onProgress(ClientTransfer transfer, long bytes) {
+                progress.onProgress(bytes, transfer.getSize());
+            }
+
+            @Override
+            public void onFinished(ClientTransfer transfer, TFTPException error) {
+                if (error == null) {
+                    future.complete(new TransferResult(
+                            remoteFile, transfer.getBytesTransferred(), startTime, transfer.getOptions()
+                    ));
+                } else if (error instanceof TransferException) {
+                    future.completeExceptionally(error);
+                } else {
+                    future.completeExceptionally(
+                            new TransferException(TransferException.Kind.PROTOCOL_ERROR, error.getMessage())
+                    );
+                }
+            }
+        });
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                transfer.cancel();
+            }
+        });
+        transfer.start();
+        return future;
+    }
+
+    private static CompletableFuture<TransferResult> failed(TransferException.Kind kind, String message) {
+        return CompletableFuture.failedFuture(new TransferException(kind, message));
+    }
+
+    private static void close(Closeable file) {
+        try {
+            file.close();
+        } catch (IOException ignore) {
+            //failed already
+        }
+    }
+
+}
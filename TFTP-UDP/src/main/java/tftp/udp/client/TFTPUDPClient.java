@@ -0,0 +1,148 @@
+package tftp.udp.client;
+
+import tftp.shared.BlockSink;
+import tftp.shared.BlockSource;
+import tftp.shared.Configuration;
+import tftp.shared.ErrorType;
+import tftp.shared.FileBlockSource;
+import tftp.shared.Mode;
+import tftp.shared.StagedBlockSink;
+import tftp.shared.TFTPException;
+import tftp.shared.TransferOptions;
+import tftp.shared.packet.ErrorPacket;
+import tftp.shared.packet.ReadRequestPacket;
+import tftp.shared.packet.WriteRequestPacket;
+import tftp.udp.UDPUtil;
+import tftp.udp.metrics.TransferMetrics;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.*;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+
+public class TFTPUDPClient extends GenericTFTPClient {
+
+    public TFTPUDPClient(int port) {
+        super(port);
+    }
+
+    @Override
+    public void get(String remoteFile, String localFile) {
+        try (DatagramSocket socket = UDPUtil.openSocket()) {
+            //try multicast first if asked for, falling back to a transfer of its own if the server won't
+            if (multicast) {
+                try (FileOutputStream fos = new FileOutputStream(localFile)) {
+                    if (MulticastReceiver.receive(
+                            remoteAddress, remotePort, remoteFile, fos.getChannel(), options
+                    ) != -1) {
+                        return;
+                    }
+                } catch (FileNotFoundException fnfe) {
+                    //file not found exception occurs "if the file exists but is a directory rather than a regular
+                    // file, does not exist but cannot be created, or cannot be opened for any other reason"
+                    refuse(socket, localFile);
+                    return;
+                }
+            }
+
+            //ask for the size of the file too, to make room for it and show progress against (RFC 2349)
+            TransferOptions requested = new TransferOptions(options);
+            requested.setTransferSize(0);
+
+            //write to a temporary file alongside the local one, which only takes its place once the whole file is
+            // received - if the transfer fails, the local file is left as it was
+            BlockSink sink;
+            try {
+                sink = new ProgressBlockSink(
+                        StagedBlockSink.open(Paths.get(localFile), -1, Configuration.DURABILITY)
+                );
+            } catch (IOException | InvalidPathException e) {
+                refuse(socket, localFile);
+                return;
+            }
+
+            //receive the file from the server, specifying the first packet in the 'communication' to be
+            // a read request packet
+            try {
+                UDPUtil.FileReceiver.receive(
+                        socket,
+                        new ReadRequestPacket(remoteFile, Mode.OCTET, requested.toMap()),
+                        remoteAddress,
+                        remotePort,
+                        sink,
+                        requested,
+                        TransferMetrics.NONE
+                );
+            } finally {
+                //discards the temporary file if the transfer didn't complete
+                try {
+                    sink.close();
+                } catch (IOException e) {
+                    System.out.println("error closing file: " + e.getMessage());
+                }
+            }
+
+        } catch (SocketException e) {
+            System.out.println("error: socket could not be opened");
+        } catch (TFTPException e) {
+            System.out.println(e.getMessage());
+        } catch (IOException ignore) {
+            //only reaches here if unable to send error packet, but already printed error message by this time
+        }
+    }
+
+    //the local file can't be written - say so, and send an error packet to the server
+    private void refuse(DatagramSocket socket, String localFile) throws IOException {
+        System.out.println("unable to write to: " + localFile);
+        ErrorPacket errorPacket = new ErrorPacket(
+                ErrorType.FILE_NOT_FOUND,
+                "unable to write to: " + localFile
+        );
+        DatagramPacket datagram = UDPUtil.toDatagram(errorPacket, remoteAddress, remotePort);
+        UDPUtil.send(socket, datagram);
+    }
+
+
+    @Override
+    public void put(String localFile, String remoteFile) {
+        try (DatagramSocket socket = UDPUtil.openSocket()) {
+            //open the given file to read blocks from
+            try (BlockSource source = FileBlockSource.open(Paths.get(localFile))) {
+                //tell the server how big the file is, so it can refuse it straight away if it won't fit (RFC 2349)
+                TransferOptions requested = new TransferOptions(options);
+                requested.setTransferSize(source.size());
+
+                //send the file to the server, specifying the first packet in the 'communication' to be
+                // a write request packet
+                UDPUtil.FileSender.send(
+                        socket,
+                        new WriteRequestPacket(remoteFile, Mode.OCTET, requested.toMap()),
+                        remoteAddress,
+                        remotePort,
+                        source,
+                        (short) 0,
+                        requested
+                );
+
+            } catch (NoSuchFileException e) {
+                System.out.println("file not found: " + localFile);
+            } catch (TFTPException e) {
+                System.out.println(e.getMessage());
+            }
+
+        } catch (SocketException e) {
+            System.out.println("error: socket could not be opened");
+        } catch (IOException e) {
+            System.out.println("error reading file: " + e.getMessage());
+        }
+    }
+
+    public static void main(String[] args) {
+        Thread client = new TFTPUDPClient(Configuration.DEFAULT_SERVER_PORT);
+        client.start();
+    }
+
+}
@@ -0,0 +1,47 @@
+package tftp.udp.client;
+
+import tftp.shared.TransferOptions;
+
+/**
+ * A transfer started by a {@link TFTPNIOClient} which has completed - the file, how much of it was moved, how long
+ * that took, and the options the server agreed to.
+ */
+public class TransferResult {
+
+    private final String fileName;
+    private final long bytes;
+    private final long millis;
+    private final TransferOptions options;
+
+
+    TransferResult(String fileName, long bytes, long startTime, TransferOptions options) {
+        this.fileName = fileName;
+        this.bytes = bytes;
+        this.millis = System.currentTimeMillis() - startTime;
+        this.options = options;
+    }
+
+    //the name of the file on the server
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    //the time taken, from sending the request to the final block
+    public long getMillis() {
+        return millis;
+    }
+
+    public TransferOptions getOptions() {
+        return options;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d bytes in %.1f seconds", fileName, bytes, millis / 1000.0);
+    }
+
+}
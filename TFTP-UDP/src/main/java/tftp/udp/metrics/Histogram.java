@@ -0,0 +1,75 @@
+package tftp.udp.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The distribution of a value over fixed buckets, as a Prometheus histogram - each bucket counts the observations
+ * less than or equal to its upper bound. Recording is lock-free, so a snapshot taken while values are being recorded
+ * may be slightly inconsistent.
+ */
+public class Histogram {
+
+    private final double[] bounds;
+    //the count of observations falling in each bucket alone, with a final bucket for those above every bound
+    private final LongAdder[] counts;
+    private final DoubleAdder sum = new DoubleAdder();
+
+    public Histogram(double... bounds) {
+        this.bounds = bounds.clone();
+        this.counts = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void observe(double value) {
+        int bucket = 0;
+        while (bucket < bounds.length && value > bounds[bucket]) {
+            ++bucket;
+        }
+        counts[bucket].increment();
+        sum.add(value);
+    }
+
+    public double[] getBounds() {
+        return bounds.clone();
+    }
+
+    //the number of observations less than or equal to each bound, then the total number of observations
+    public long[] getCumulativeCounts() {
+        long[] cumulative = new long[counts.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            total += counts[i].sum();
+            cumulative[i] = total;
+        }
+        return cumulative;
+    }
+
+    public long getCount() {
+        long total = 0;
+        for (LongAdder count : counts) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    public double getSum() {
+        return sum.sum();
+    }
+
+    //the cumulative counts by upper bound, for JMX
+    public Map<String, Long> toMap() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        long[] cumulative = getCumulativeCounts();
+        for (int i = 0; i < bounds.length; ++i) {
+            map.put("le " + bounds[i], cumulative[i]);
+        }
+        map.put("le +Inf", cumulative[bounds.length]);
+        return map;
+    }
+
+}
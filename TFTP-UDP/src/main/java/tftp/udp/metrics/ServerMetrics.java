@@ -0,0 +1,331 @@
+package tftp.udp.metrics;
+
+import tftp.shared.ErrorType;
+import tftp.shared.packet.PacketType;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live statistics for a server's transfers. Every counter is a {@link LongAdder}, so transfers on different threads
+ * record without contending with each other. Exposed over JMX once registered, and in the Prometheus text format by
+ * {@link PrometheusEndpoint}.
+ */
+public class ServerMetrics implements TransferMetrics, ServerMetricsMXBean {
+
+    //upper bounds of the histogram buckets - transfer durations in seconds, throughput in bytes per second, and the
+    // most blocks a sender had in flight
+    private static final double[] DURATION_BUCKETS = {
+            0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 300
+    };
+    private static final double[] THROUGHPUT_BUCKETS = {
+            1e3, 1e4, 1e5, 1e6, 1e7, 3e7, 1e8, 3e8, 1e9
+    };
+    private static final double[] WINDOW_BUCKETS = {
+            1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024, 2048, 4096
+    };
+
+    private final LongAdder activeSessions = new LongAdder();
+    private final LongAdder readRequests = new LongAdder();
+    private final LongAdder writeRequests = new LongAdder();
+    private final LongAdder rejectedRequests = new LongAdder();
+    private final LongAdder completedTransfers = new LongAdder();
+    private final LongAdder failedTransfers = new LongAdder();
+    private final LongAdder dataBytesSent = new LongAdder();
+    private final LongAdder dataBytesReceived = new LongAdder();
+    private final LongAdder retransmits = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder fastRetransmits = new LongAdder();
+    private final LongAdder invalidPackets = new LongAdder();
+    private final LongAdder readAheadHits = new LongAdder();
+    private final LongAdder readAheadStalls = new LongAdder();
+    //indexed by error type ordinal
+    private final LongAdder[] errorsSent = newCounters(ErrorType.values().length);
+    private final LongAdder[] errorsReceived = newCounters(ErrorType.values().length);
+
+    private final Histogram transferDuration = new Histogram(DURATION_BUCKETS);
+    private final Histogram transferThroughput = new Histogram(THROUGHPUT_BUCKETS);
+    private final Histogram windowPeak = new Histogram(WINDOW_BUCKETS);
+
+
+    //make the metrics available over JMX, under the given name
+    public void register(String name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+    }
+
+    @Override
+    public void requestRejected() {
+        rejectedRequests.increment();
+    }
+
+    @Override
+    public void transferStarted(PacketType request) {
+        activeSessions.increment();
+        if (request == PacketType.READ_REQUEST) {
+            readRequests.increment();
+        } else {
+            writeRequests.increment();
+        }
+    }
+
+    @Override
+    public void transferFinished(PacketType request, long bytes, long nanos) {
+        activeSessions.decrement();
+        if (bytes < 0) {
+            failedTransfers.increment();
+            return;
+        }
+        completedTransfers.increment();
+        double seconds = nanos / 1e9;
+        transferDuration.observe(seconds);
+        if (seconds > 0) {
+            transferThroughput.observe(bytes / seconds);
+        }
+    }
+
+    @Override
+    public void dataSent(int bytes) {
+        dataBytesSent.add(bytes);
+    }
+
+    @Override
+    public void dataReceived(int bytes) {
+        dataBytesReceived.add(bytes);
+    }
+
+    @Override
+    public void retransmitted() {
+        retransmits.increment();
+    }
+
+    @Override
+    public void timedOut() {
+        timeouts.increment();
+    }
+
+    @Override
+    public void fastRetransmit() {
+        fastRetransmits.increment();
+    }
+
+    @Override
+    public void windowPeaked(int blocks) {
+        windowPeak.observe(blocks);
+    }
+
+    @Override
+    public void invalidPacket() {
+        invalidPackets.increment();
+    }
+
+    @Override
+    public void readAheadHit() {
+        readAheadHits.increment();
+    }
+
+    @Override
+    public void readAheadStall() {
+        readAheadStalls.increment();
+    }
+
+    @Override
+    public void errorSent(ErrorType type) {
+        errorsSent[type.ordinal()].increment();
+    }
+
+    @Override
+    public void errorReceived(ErrorType type) {
+        errorsReceived[type.ordinal()].increment();
+    }
+
+    @Override
+    public long getActiveSessions() {
+        return activeSessions.sum();
+    }
+
+    @Override
+    public long getReadRequests() {
+        return readRequests.sum();
+    }
+
+    @Override
+    public long getWriteRequests() {
+        return writeRequests.sum();
+    }
+
+    @Override
+    public long getRejectedRequests() {
+        return rejectedRequests.sum();
+    }
+
+    @Override
+    public long getCompletedTransfers() {
+        return completedTransfers.sum();
+    }
+
+    @Override
+    public long getFailedTransfers() {
+        return failedTransfers.sum();
+    }
+
+    @Override
+    public long getDataBytesSent() {
+        return dataBytesSent.sum();
+    }
+
+    @Override
+    public long getDataBytesReceived() {
+        return dataBytesReceived.sum();
+    }
+
+    @Override
+    public long getRetransmits() {
+        return retransmits.sum();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getFastRetransmits() {
+        return fastRetransmits.sum();
+    }
+
+    @Override
+    public long getInvalidPackets() {
+        return invalidPackets.sum();
+    }
+
+    @Override
+    public long getReadAheadHits() {
+        return readAheadHits.sum();
+    }
+
+    @Override
+    public long getReadAheadStalls() {
+        return readAheadStalls.sum();
+    }
+
+    @Override
+    public Map<String, Long> getErrorsSent() {
+        return byErrorType(errorsSent);
+    }
+
+    @Override
+    public Map<String, Long> getErrorsReceived() {
+        return byErrorType(errorsReceived);
+    }
+
+    @Override
+    public Map<String, Long> getTransferDurationSeconds() {
+        return transferDuration.toMap();
+    }
+
+    @Override
+    public Map<String, Long> getTransferThroughputBytesPerSecond() {
+        return transferThroughput.toMap();
+    }
+
+    @Override
+    public Map<String, Long> getWindowPeakBlocks() {
+        return windowPeak.toMap();
+    }
+
+    //write every metric in the Prometheus text exposition format
+    public void writePrometheus(StringBuilder out) {
+        gauge(out, "tftp_active_sessions", "Transfers in progress.", getActiveSessions());
+
+        counterHeader(out, "tftp_requests_total", "Requests accepted, by type.");
+        out.append("tftp_requests_total{type=\"rrq\"} ").append(getReadRequests()).append('\n');
+        out.append("tftp_requests_total{type=\"wrq\"} ").append(getWriteRequests()).append('\n');
+
+        counter(out, "tftp_rejected_requests_total", "Requests refused for going over a limit.",
+                getRejectedRequests());
+
+        counterHeader(out, "tftp_transfers_total", "Transfers ended, by outcome.");
+        out.append("tftp_transfers_total{outcome=\"completed\"} ").append(getCompletedTransfers()).append('\n');
+        out.append("tftp_transfers_total{outcome=\"failed\"} ").append(getFailedTransfers()).append('\n');
+
+        counter(out, "tftp_data_sent_bytes_total", "File data sent, including data sent again.", getDataBytesSent());
+        counter(out, "tftp_data_received_bytes_total", "File data received.", getDataBytesReceived());
+        counter(out, "tftp_retransmits_total", "Packets sent again.", getRetransmits());
+        counter(out, "tftp_timeouts_total", "Retransmission timeouts expired.", getTimeouts());
+        counter(out, "tftp_fast_retransmits_total", "Blocks reported lost by the receiver and sent again.",
+                getFastRetransmits());
+        counter(out, "tftp_invalid_packets_total", "Invalid packets received.", getInvalidPackets());
+
+        counterHeader(out, "tftp_read_ahead_total", "Blocks read ahead from disk, by whether they were ready in time.");
+        out.append("tftp_read_ahead_total{result=\"hit\"} ").append(getReadAheadHits()).append('\n');
+        out.append("tftp_read_ahead_total{result=\"stall\"} ").append(getReadAheadStalls()).append('\n');
+
+        errors(out, "tftp_errors_sent_total", "Error packets sent, by error code.", errorsSent);
+        errors(out, "tftp_errors_received_total", "Error packets received, by error code.", errorsReceived);
+
+        histogram(out, "tftp_transfer_duration_seconds", "Duration of completed transfers.", transferDuration);
+        histogram(out, "tftp_transfer_throughput_bytes_per_second", "Throughput of completed transfers.",
+                transferThroughput);
+        histogram(out, "tftp_window_peak_blocks", "Most blocks in flight at once, for each transfer sending a file.",
+                windowPeak);
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counterHeader(StringBuilder out, String name, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        counterHeader(out, name, help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void errors(StringBuilder out, String name, String help, LongAdder[] counts) {
+        counterHeader(out, name, help);
+        for (ErrorType type : ErrorType.values()) {
+            out.append(name).append("{code=\"").append(type.getValue()).append("\",type=\"").append(type.name())
+                    .append("\"} ").append(counts[type.ordinal()].sum()).append('\n');
+        }
+    }
+
+    private static void histogram(StringBuilder out, String name, String help, Histogram histogram) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        double[] bounds = histogram.getBounds();
+        long[] cumulative = histogram.getCumulativeCounts();
+        for (int i = 0; i < bounds.length; ++i) {
+            out.append(name).append("_bucket{le=\"").append(bounds[i]).append("\"} ").append(cumulative[i])
+                    .append('\n');
+        }
+        out.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative[bounds.length]).append('\n');
+        out.append(name).append("_sum ").append(histogram.getSum()).append('\n');
+        out.append(name).append("_count ").append(cumulative[bounds.length]).append('\n');
+    }
+
+    private static Map<String, Long> byErrorType(LongAdder[] counts) {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (ErrorType type : ErrorType.values()) {
+            map.put(type.name(), counts[type.ordinal()].sum());
+        }
+        return map;
+    }
+
+    private static LongAdder[] newCounters(int count) {
+        LongAdder[] counters = new LongAdder[count];
+        for (int i = 0; i < count; ++i) {
+            counters[i] = new LongAdder();
+        }
+        return counters;
+    }
+
+}
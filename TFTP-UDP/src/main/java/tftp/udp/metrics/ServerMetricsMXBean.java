@@ -0,0 +1,48 @@
+package tftp.udp.metrics;
+
+import java.util.Map;
+
+/**
+ * The server's statistics as exposed over JMX - counters are totals since the server started.
+ */
+public interface ServerMetricsMXBean {
+
+    long getActiveSessions();
+
+    long getReadRequests();
+
+    long getWriteRequests();
+
+    long getRejectedRequests();
+
+    long getCompletedTransfers();
+
+    long getFailedTransfers();
+
+    long getDataBytesSent();
+
+    long getDataBytesReceived();
+
+    long getRetransmits();
+
+    long getTimeouts();
+
+    long getFastRetransmits();
+
+    long getInvalidPackets();
+
+    long getReadAheadHits();
+
+    long getReadAheadStalls();
+
+    Map<String, Long> getErrorsSent();
+
+    Map<String, Long> getErrorsReceived();
+
+    Map<String, Long> getTransferDurationSeconds();
+
+    Map<String, Long> getTransferThroughputBytesPerSecond();
+
+    Map<String, Long> getWindowPeakBlocks();
+
+}
@@ -0,0 +1,70 @@
+package tftp.udp.metrics;
+
+import tftp.shared.ErrorType;
+import tftp.shared.packet.PacketType;
+
+/**
+ * Events from transfers as they happen, for collecting statistics. Some are called for every packet, so
+ * implementations must be cheap and thread-safe - transfers on many threads report to the same instance.
+ * {@link #NONE} ignores everything, for transfers which aren't measured.
+ */
+public interface TransferMetrics {
+
+    TransferMetrics NONE = new TransferMetrics() {
+    };
+
+    //a request was refused as it would have gone over one of the server's limits
+    default void requestRejected() {
+    }
+
+    //a transfer has started in response to a request of the given type (READ_REQUEST or WRITE_REQUEST)
+    default void transferStarted(PacketType request) {
+    }
+
+    //a transfer has ended - bytes is the size of the file transferred, or -1 if the transfer failed
+    default void transferFinished(PacketType request, long bytes, long nanos) {
+    }
+
+    //file data sent in a data packet, including data sent again
+    default void dataSent(int bytes) {
+    }
+
+    //file data received in order and written
+    default void dataReceived(int bytes) {
+    }
+
+    //a packet was sent again as the response to it seemed to be lost
+    default void retransmitted() {
+    }
+
+    //the retransmission timeout expired without anything being received
+    default void timedOut() {
+    }
+
+    //the receiver reported blocks lost, so they were sent again without waiting for the timeout
+    default void fastRetransmit() {
+    }
+
+    //a sender's transfer has completed, having had at most the given number of blocks in flight
+    default void windowPeaked(int blocks) {
+    }
+
+    //a datagram which isn't a valid TFTP packet was received
+    default void invalidPacket() {
+    }
+
+    //a block read ahead from the disk was ready when the transfer came to send it
+    default void readAheadHit() {
+    }
+
+    //the transfer had to wait for a block to be read ahead from the disk
+    default void readAheadStall() {
+    }
+
+    default void errorSent(ErrorType type) {
+    }
+
+    default void errorReceived(ErrorType type) {
+    }
+
+}
@@ -0,0 +1,84 @@
+package tftp.udp.nio;
+
+import tftp.shared.Configuration;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * The portable {@link DatagramTransport}, on a {@link DatagramChannel}. The channel has no way to send or receive
+ * more than one datagram per call, so a batch is still a system call per datagram - but the loop's work is the same
+ * as with a transport which can do better.
+ */
+public class ChannelTransport implements DatagramTransport {
+
+    private final DatagramChannel channel;
+
+    //the datagrams queued, as the buffer and the position and limit it had when queued
+    private final ByteBuffer[] queued = new ByteBuffer[Configuration.IO_BATCH_SIZE];
+    private final int[] positions = new int[Configuration.IO_BATCH_SIZE];
+    private final int[] limits = new int[Configuration.IO_BATCH_SIZE];
+    private final SocketAddress[] addresses = new SocketAddress[Configuration.IO_BATCH_SIZE];
+    private int count = 0;
+
+
+    public ChannelTransport(DatagramChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public int receive(ByteBuffer[] buffers, SocketAddress[] from) throws IOException {
+        for (int i = 0; i < buffers.length; ++i) {
+            buffers[i].clear();
+            from[i] = channel.receive(buffers[i]);
+            if (from[i] == null) {
+                return i;
+            }
+            buffers[i].flip();
+        }
+        return buffers.length;
+    }
+
+    @Override
+    public void send(ByteBuffer packet, SocketAddress address) throws IOException {
+        if (count == queued.length) {
+            flush();
+        }
+        queued[count] = packet;
+        positions[count] = packet.position();
+        limits[count] = packet.limit();
+        addresses[count] = address;
+        ++count;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        //send everything even if one fails, then report the first failure
+        IOException failure = null;
+        for (int i = 0; i < count; ++i) {
+            ByteBuffer packet = queued[i];
+            packet.limit(limits[i]).position(positions[i]);
+            try {
+                channel.send(packet, addresses[i]);
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            queued[i] = null;
+            addresses[i] = null;
+        }
+        count = 0;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
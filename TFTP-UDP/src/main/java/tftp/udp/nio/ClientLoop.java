@@ -0,0 +1,151 @@
+package tftp.udp.nio;
+
+import tftp.shared.Configuration;
+import tftp.shared.TransferException;
+import tftp.shared.packet.PacketCodec;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The client's counterpart of {@link EventLoop} - a single thread driving any number of {@link ClientTransfer}s. A
+ * client's port is its transfer ID, so each transfer has a non-blocking channel of its own rather than sharing one as
+ * a server's do, but every channel is registered with the loop's selector and every deadline is on its timers - a
+ * transfer costs a channel, not a thread. Transfers are only ever touched from the loop's own thread, other threads
+ * hand work to it with {@link #execute(Runnable)}.
+ */
+public class ClientLoop extends Thread {
+
+    private final Selector selector;
+
+    //tasks submitted from other threads, run by the loop
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    //every transfer in progress, and those with datagrams queued to be flushed once the loop has dealt with everything
+    // ready
+    private final Set<ClientTransfer> transfers = new HashSet<>();
+    private final List<ClientTransfer> unflushed = new ArrayList<>();
+    //transfer deadlines and paced sends, in ticks of 1 ms
+    private final TimerWheel timers = new TimerWheel(1, 4096, System.currentTimeMillis());
+
+    //buffers for holding a batch of datagrams received on a channel, as for EventLoop
+    private final ByteBuffer[] receiveBuffers = new ByteBuffer[Configuration.IO_BATCH_SIZE];
+    private final SocketAddress[] receivedFrom = new SocketAddress[Configuration.IO_BATCH_SIZE];
+    private final PacketCodec codec = new PacketCodec();
+
+    private volatile boolean running = true;
+
+
+    public ClientLoop(String name) throws IOException {
+        super(name);
+        //transfers still running don't keep the program alive
+        setDaemon(true);
+        this.selector = Selector.open();
+        for (int i = 0; i < receiveBuffers.length; ++i) {
+            receiveBuffers[i] = ByteBuffer.allocateDirect(Configuration.MAX_BLOCK_SIZE + 4);
+        }
+    }
+
+    //run a task on the loop's thread
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    TimerWheel getTimers() {
+        return timers;
+    }
+
+    //start receiving for a transfer - must be called from the loop's thread
+    void register(ClientTransfer transfer) throws IOException {
+        transfer.getChannel().register(selector, SelectionKey.OP_READ, transfer);
+        transfers.add(transfer);
+    }
+
+    //the transfer has finished - must be called from the loop's thread
+    void deregister(ClientTransfer transfer) {
+        transfers.remove(transfer);
+        unflushed.remove(transfer);
+    }
+
+    //the transfer has queued datagrams to be sent - must be called from the loop's thread
+    void queued(ClientTransfer transfer) {
+        if (!unflushed.contains(transfer)) {
+            unflushed.add(transfer);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                //wait for datagrams until the next timer is due, or not at all if there is work to do
+                long deadline = timers.nextExpiry();
+                long timeout = deadline - System.currentTimeMillis();
+                if (!tasks.isEmpty() || timeout <= 0) {
+                    selector.selectNow();
+                } else if (deadline == Long.MAX_VALUE) {
+                    selector.select();
+                } else {
+                    selector.select(timeout);
+                }
+
+                runTasks();
+                //a batch from each channel ready at a time, so that a busy transfer can't starve the others
+                for (SelectionKey key : selector.selectedKeys()) {
+                    ((ClientTransfer) key.attachment()).receive(receiveBuffers, receivedFrom, codec);
+                }
+                selector.selectedKeys().clear();
+                timers.advance(System.currentTimeMillis());
+                flush();
+
+            } catch (IOException e) {
+                System.out.println("error in client loop: " + e);
+            }
+        }
+
+        //the loop has been shut down - abandon anything still running, or started since
+        runTasks();
+        for (ClientTransfer transfer : new ArrayList<>(transfers)) {
+            transfer.stop(new TransferException(TransferException.Kind.CANCELLED, "error: client shut down"));
+        }
+        try {
+            selector.close();
+        } catch (IOException ignore) {
+            //shutting down anyway
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void flush() {
+        for (ClientTransfer transfer : unflushed) {
+            transfer.flush();
+        }
+        unflushed.clear();
+    }
+
+}
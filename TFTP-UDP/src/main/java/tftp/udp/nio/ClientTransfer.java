@@ -0,0 +1,471 @@
+package tftp.udp.nio;
+
+import tftp.shared.BlockSink;
+import tftp.shared.BlockSource;
+import tftp.shared.ErrorType;
+import tftp.shared.Mode;
+import tftp.shared.Pacer;
+import tftp.shared.TFTPException;
+import tftp.shared.TransferException;
+import tftp.shared.TransferOptions;
+import tftp.shared.packet.*;
+import tftp.udp.UDPUtil;
+import tftp.udp.metrics.TransferMetrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * A transfer started by a client, driven by a {@link ClientLoop} over a channel of its own. The request is sent to
+ * the server's port and re-sent until the server answers from the port it has picked for the transfer - with an OACK,
+ * or if it ignored the options, DATA 1 for a read or ACK 0 for a write. From then on the transfer is a
+ * {@link ReceiveSession} or {@link SendSession} with that port, and anything from another port is refused with an
+ * UNKNOWN_ID error, as RFC 1350 says. The listener hears how far the transfer has got, and how it ended.
+ */
+public class ClientTransfer implements SessionContext {
+
+    public interface Listener {
+
+        //the number of bytes of the file transferred has gone up - received in order, or acknowledged by the server
+        void onProgress(ClientTransfer transfer, long bytes);
+
+        //the transfer has finished, successfully if error is null
+        void onFinished(ClientTransfer transfer, TFTPException error);
+
+    }
+
+    private final ClientLoop loop;
+    private final DatagramChannel channel;
+    private final DatagramTransport transport;
+    private final InetSocketAddress server;
+    private final RequestPacket request;
+    private final TransferOptions requested;
+    private final Listener listener;
+
+    //where a read is written, or where a write is read from - the other is null. owned by the session once the server
+    // has answered, closed here if it never does
+    private final BlockSink sink;
+    private final BlockSource source;
+
+    //sends the request until the server answers, then hands over to the session for the rest of the transfer
+    private Session session;
+    private boolean handedOver = false;
+    private boolean finished = false;
+
+    //the options the server agreed to, the requested ones until it answers, and the size of the file, -1 if not known
+    private TransferOptions options;
+    private long size;
+    //the bytes transferred last reported to the listener
+    private long reported = 0;
+
+    //reports progress to the listener as the session moves data
+    private final TransferMetrics progress = new TransferMetrics() {
+        @Override
+        public void dataSent(int bytes) {
+            progressed();
+        }
+
+        @Override
+        public void dataReceived(int bytes) {
+            progressed();
+        }
+    };
+
+
+    private ClientTransfer(ClientLoop loop, DatagramChannel channel, InetSocketAddress server, RequestPacket request,
+                           TransferOptions requested, BlockSink sink, BlockSource source, Listener listener)
+            throws IOException {
+        this.loop = loop;
+        this.channel = channel;
+        this.transport = DatagramTransport.open(channel);
+        this.server = server;
+        this.request = request;
+        this.requested = requested;
+        this.sink = sink;
+        this.source = source;
+        this.listener = listener;
+        this.options = requested;
+        this.size = source != null ? requested.getTransferSize() : -1;
+        channel.configureBlocking(false);
+    }
+
+    //read the named file from the server into the sink, asking for the given options
+    public static ClientTransfer read(ClientLoop loop, InetSocketAddress server, String fileName,
+                                      TransferOptions options, BlockSink sink, Listener listener) throws IOException {
+        return open(loop, server, new ReadRequestPacket(fileName, Mode.OCTET, options.toMap()), options, sink, null,
+                listener);
+    }
+
+    //write the source to the named file on the server, asking for the given options
+    public static ClientTransfer write(ClientLoop loop, InetSocketAddress server, String fileName,
+                                       TransferOptions options, BlockSource source, Listener listener)
+            throws IOException {
+        return open(loop, server, new WriteRequestPacket(fileName, Mode.OCTET, options.toMap()), options, null, source,
+                listener);
+    }
+
+    private static ClientTransfer open(ClientLoop loop, InetSocketAddress server, RequestPacket request,
+                                       TransferOptions options, BlockSink sink, BlockSource source, Listener listener)
+            throws IOException {
+        //bound to any free port - the port is this end's transfer ID
+        DatagramChannel channel = UDPUtil.bindChannel(0, false);
+        try {
+            return new ClientTransfer(loop, channel, server, request, options, sink, source, listener);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    //send the request, from any thread
+    public void start() {
+        loop.execute(() -> {
+            if (!loop.isRunning()) {
+                abort(new TransferException(TransferException.Kind.CANCELLED, "error: client shut down"));
+                return;
+            }
+            try {
+                loop.register(this);
+            } catch (IOException e) {
+                abort(new TransferException(TransferException.Kind.LOCAL_IO, "error: " + e.getMessage()));
+                return;
+            }
+            session = new RequestSession();
+            session.start();
+        });
+    }
+
+    //give up on the transfer, from any thread
+    public void cancel() {
+        loop.execute(() -> stop(new TransferException(TransferException.Kind.CANCELLED, "error: transfer cancelled")));
+    }
+
+    public String getFileName() {
+        return request.getFileName();
+    }
+
+    public boolean isRead() {
+        return request instanceof ReadRequestPacket;
+    }
+
+    //the options in effect - those requested until the server has answered
+    public TransferOptions getOptions() {
+        return options;
+    }
+
+    //the size of the file, or -1 if the server hasn't said
+    public long getSize() {
+        return size;
+    }
+
+    public long getBytesTransferred() {
+        return session == null ? 0 : session.getBytesTransferred();
+    }
+
+    DatagramChannel getChannel() {
+        return channel;
+    }
+
+    //give up on the transfer with the given error, telling the server if it has answered - must be called from the
+    // loop's thread
+    void stop(TransferException error) {
+        if (finished) {
+            return;
+        }
+        if (handedOver) {
+            progress.errorSent(ErrorType.UNDEFINED);
+            send(new ErrorPacket(ErrorType.UNDEFINED, "transfer cancelled"), session.getRemoteAddress());
+        }
+        abort(error);
+    }
+
+    //end the transfer with the given error straight away - must be called from the loop's thread
+    private void abort(TransferException error) {
+        if (session == null) {
+            end(error);
+        } else {
+            session.finish(error);
+        }
+    }
+
+    //receive a batch of the datagrams waiting on the channel and handle them - called by the loop when it is readable
+    void receive(ByteBuffer[] buffers, SocketAddress[] from, PacketCodec codec) {
+        if (finished) {
+            return;
+        }
+        int received;
+        try {
+            received = transport.receive(buffers, from);
+        } catch (IOException e) {
+            session.onInvalidPacket();
+            return;
+        }
+        for (int i = 0; i < received && !finished; ++i) {
+            dispatch(codec.wrap(buffers[i]), from[i]);
+            from[i] = null;
+        }
+    }
+
+    private void dispatch(PacketCodec packet, SocketAddress from) {
+        if (!handedOver) {
+            //the server answers the request from a port of its own
+            if (((InetSocketAddress) from).getAddress().equals(server.getAddress())) {
+                onAnswer(packet, from);
+            }
+            return;
+        }
+        if (!from.equals(session.getRemoteAddress())) {
+            //not part of this transfer - tell the sender, but carry on
+            send(new ErrorPacket(ErrorType.UNKNOWN_ID, "unknown transfer ID"), from);
+            return;
+        }
+        try {
+            //check the packet is valid before handing it on
+            packet.getPacketType();
+        } catch (TFTPException e) {
+            session.onInvalidPacket();
+            return;
+        }
+        session.onPacket(packet);
+    }
+
+    //the first packet from the server in answer to the request
+    private void onAnswer(PacketCodec packet, SocketAddress from) {
+        PacketType type;
+        TransferOptions agreed;
+        try {
+            type = packet.getPacketType();
+            if (type == PacketType.ERROR) {
+                progress.errorReceived(packet.getErrorType());
+                session.finish(TransferException.remote(
+                        packet.getErrorType(), ((ErrorPacket) packet.toPacket()).getMessage()
+                ));
+                return;
+            } else if (type == PacketType.OPTION_ACKNOWLEDGEMENT) {
+                agreed = acknowledge((OptionAcknowledgementPacket) packet.toPacket(), from);
+                if (agreed == null) {
+                    return;
+                }
+            } else if (isRead() ? type == PacketType.DATA && packet.getBlockNumber() == 1
+                    : type == PacketType.ACKNOWLEDGEMENT && packet.getBlockNumber() == 0) {
+                //the server ignored the options, so the defaults apply
+                agreed = new TransferOptions();
+            } else {
+                return;
+            }
+        } catch (TFTPException e) {
+            session.onInvalidPacket();
+            return;
+        }
+        options = agreed;
+
+        Session requesting = session;
+        if (isRead()) {
+            //the transfer starts with ACK 0 in answer to an OACK, or straight away with DATA 1
+            ReceiveSession receiving = new ReceiveSession(
+                    this, from, agreed, new AcknowledgementPacket((short) 0), sink, progress
+            ) {
+                //a client doesn't dally - it has the file, and whoever asked for it shouldn't have to wait
+                @Override
+                protected void dally(long millis) {
+                    finish(null);
+                }
+            };
+            handOver(requesting, receiving);
+            if (type == PacketType.DATA) {
+                receiving.onPacket(packet);
+            } else {
+                receiving.start();
+            }
+        } else {
+            DataPacket first;
+            try {
+                ByteBuffer data = ByteBuffer.allocate(agreed.getBlockSize());
+                int read = source.read(0, data);
+                first = new DataPacket((short) 1, data.array(), read);
+            } catch (IOException e) {
+                send(new ErrorPacket(ErrorType.UNDEFINED, "error reading from file"), from);
+                progress.errorSent(ErrorType.UNDEFINED);
+                requesting.finish(new TransferException(TransferException.Kind.LOCAL_IO, "error reading from file"));
+                return;
+            }
+            handOver(requesting, new SendSession(this, from, agreed, first, source, progress, Pacer.forSession(null)));
+            session.start();
+        }
+    }
+
+    //check the options the server acknowledged against those requested, returning the options to use, or null if
+    // the transfer has been abandoned over them
+    private TransferOptions acknowledge(OptionAcknowledgementPacket oack, SocketAddress from) {
+        TransferOptions agreed;
+        try {
+            agreed = requested.acknowledge(oack.getOptions());
+        } catch (TFTPException e) {
+            send(new ErrorPacket(ErrorType.OPTION_NEGOTIATION, e.getMessage()), from);
+            progress.errorSent(ErrorType.OPTION_NEGOTIATION);
+            session.finish(new TransferException(TransferException.Kind.PROTOCOL_ERROR, "error: " + e.getMessage()));
+            return null;
+        }
+        //the server has said how big the file is - give up now if it won't fit
+        if (isRead() && agreed.getTransferSize() != -1) {
+            try {
+                sink.expect(agreed.getTransferSize());
+            } catch (IOException e) {
+                send(new ErrorPacket(ErrorType.DISK_FULL, "no room for file"), from);
+                progress.errorSent(ErrorType.DISK_FULL);
+                session.finish(new TransferException(
+                        TransferException.Kind.LOCAL_IO, "error: no room for file: " + e.getMessage()
+                ));
+                return null;
+            }
+            size = agreed.getTransferSize();
+        }
+        return agreed;
+    }
+
+    //the request has been answered - the session carries on the transfer, and owns the file from now on
+    private void handOver(Session requesting, Session next) {
+        session = next;
+        handedOver = true;
+        requesting.finish(null);
+    }
+
+    private void progressed() {
+        long bytes = getBytesTransferred();
+        if (bytes != reported) {
+            reported = bytes;
+            try {
+                listener.onProgress(this, bytes);
+            } catch (RuntimeException e) {
+                System.out.println("error in progress listener: " + e);
+            }
+        }
+    }
+
+    void flush() {
+        try {
+            transport.flush();
+        } catch (IOException e) {
+            //lost, the same as a datagram dropped by the network
+        }
+    }
+
+    @Override
+    public void send(TFTPPacket packet, SocketAddress address) {
+        send(ByteBuffer.wrap(packet.getPacketBytes(), 0, packet.getPacketLength()), address);
+    }
+
+    @Override
+    public void send(ByteBuffer packet, SocketAddress address) {
+        try {
+            transport.send(packet, address);
+        } catch (IOException e) {
+            //lost, the same as a datagram dropped by the network
+        }
+        loop.queued(this);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        loop.execute(task);
+    }
+
+    @Override
+    public TimerWheel getTimers() {
+        return loop.getTimers();
+    }
+
+    @Override
+    public TransferMetrics getMetrics() {
+        return progress;
+    }
+
+    @Override
+    public void finished(Session session, TFTPException error) {
+        //the request session finishes when it hands over
+        if (session == this.session) {
+            end(error);
+        }
+    }
+
+    private void end(TFTPException error) {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (!handedOver) {
+            //the file was never handed to a session
+            try {
+                if (sink != null) {
+                    sink.close();
+                } else {
+                    source.close();
+                }
+            } catch (IOException e) {
+                System.out.println("error closing file: " + e.getMessage());
+            }
+        }
+        //send anything still queued, such as the final acknowledgement, before the channel goes
+        flush();
+        loop.deregister(this);
+        try {
+            channel.close();
+        } catch (IOException ignore) {
+            //finished anyway
+        }
+        if (error == null) {
+            progressed();
+        }
+        try {
+            listener.onFinished(this, error);
+        } catch (RuntimeException e) {
+            System.out.println("error in transfer listener: " + e);
+        }
+    }
+
+    //sends the request, and re-sends it until the server answers
+    private class RequestSession extends Session {
+
+        RequestSession() {
+            super(ClientTransfer.this, server, requested, progress);
+        }
+
+        @Override
+        public long getBytesTransferred() {
+            return 0;
+        }
+
+        @Override
+        public void start() {
+            send(request);
+            resetDeadline();
+        }
+
+        @Override
+        public void onPacket(PacketCodec packet) {
+            //the answer comes from another port, so is handled by the transfer
+        }
+
+        @Override
+        public void onTimeout() {
+            metrics.timedOut();
+            rtt.backoff();
+            if (!checkLimits()) {
+                return;
+            }
+            metrics.retransmitted();
+            send(request);
+            resetDeadline();
+        }
+
+        @Override
+        protected void close() {
+            //the file belongs to the transfer until the server answers
+        }
+
+    }
+
+}
@@ -0,0 +1,47 @@
+package tftp.udp.nio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Moves datagrams between an {@link EventLoop} and the network a batch at a time - the loop drains a burst of
+ * received datagrams in one call, and queues everything its sessions send until it has dealt with them all, then
+ * flushes the lot. On Linux, a build on JDK 22 or later includes MmsgTransport, which sends or receives a whole batch
+ * in a single system call (sendmmsg and recvmmsg) - otherwise, or where the runtime won't allow it, the portable
+ * {@link ChannelTransport} is used. Only used from the loop's own thread.
+ */
+public interface DatagramTransport extends Closeable {
+
+    //the transport to use for the channel, which must be non-blocking - a batched one if it can be used here
+    static DatagramTransport open(DatagramChannel channel) {
+        DatagramTransport batched = openBatched(channel);
+        return batched != null ? batched : new ChannelTransport(channel);
+    }
+
+    //MmsgTransport uses the foreign function API, only final from JDK 22, so it is only built there and looked up
+    // reflectively to keep building for older releases. null if it isn't built, or can't be used
+    private static DatagramTransport openBatched(DatagramChannel channel) {
+        try {
+            Method open = Class.forName("tftp.udp.nio.MmsgTransport").getMethod("open", DatagramChannel.class);
+            return (DatagramTransport) open.invoke(null, channel);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    //receive the datagrams waiting, up to one into each buffer, without blocking. each buffer used is left ready to
+    // read, with the address it came from at the same index of from. returns the number received, 0 if none waiting
+    int receive(ByteBuffer[] buffers, SocketAddress[] from) throws IOException;
+
+    //queue a datagram of the bytes between the buffer's position and limit, to be sent by the next flush. the bytes
+    // are read from the buffer as it is at the time of the flush, so the same buffer can be queued more than once
+    void send(ByteBuffer packet, SocketAddress address) throws IOException;
+
+    //send every datagram queued - one which doesn't fit in the socket buffer is dropped, the same as a lost datagram
+    void flush() throws IOException;
+
+}
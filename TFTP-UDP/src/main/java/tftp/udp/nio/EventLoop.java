@@ -0,0 +1,239 @@
+package tftp.udp.nio;
+
+import tftp.shared.Configuration;
+import tftp.shared.TFTPException;
+import tftp.shared.TransferException;
+import tftp.shared.packet.PacketCodec;
+import tftp.shared.packet.PacketType;
+import tftp.shared.packet.TFTPPacket;
+import tftp.udp.metrics.TransferMetrics;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single thread driving any number of {@link Session}s over one non-blocking {@link DatagramChannel}. Received
+ * datagrams are routed to the session for the remote endpoint they came from - anything else is passed to the
+ * {@link Handler}. Sessions and the session table are only ever touched from the loop's own thread, other threads
+ * hand work to it with {@link #execute(Runnable)}. Datagrams go through a {@link DatagramTransport} in batches -
+ * those sent by the sessions are queued while the loop works through what is ready, and flushed together after.
+ */
+public class EventLoop extends Thread implements SessionContext {
+
+    public interface Handler {
+
+        //a packet from a remote endpoint without a session on this loop
+        void onUnknownPacket(EventLoop loop, SocketAddress from, TFTPPacket packet);
+
+        //a session on this loop has finished, successfully if error is null
+        void onSessionFinished(EventLoop loop, Session session, TFTPException error);
+
+    }
+
+    private final DatagramChannel channel;
+    private final DatagramTransport transport;
+    private final Selector selector;
+    private final Handler handler;
+    private final TransferMetrics metrics;
+
+    //tasks submitted from other threads, run by the loop
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    //live sessions on this loop, by remote endpoint
+    private final Map<SocketAddress, Session> sessions = new HashMap<>();
+    //session deadlines and paced sends, in ticks of 1 ms - a revolution of the wheel covers a little over 4 seconds
+    private final TimerWheel timers = new TimerWheel(1, 4096, System.currentTimeMillis());
+
+    //buffers for holding a batch of received datagrams, each large enough for the biggest block size - direct, so
+    // that the channel receives straight into them, and decoded in place by the codec
+    private final ByteBuffer[] receiveBuffers = new ByteBuffer[Configuration.IO_BATCH_SIZE];
+    private final SocketAddress[] receivedFrom = new SocketAddress[Configuration.IO_BATCH_SIZE];
+    private final PacketCodec codec = new PacketCodec();
+
+    private volatile boolean running = true;
+
+
+    public EventLoop(String name, DatagramChannel channel, Handler handler, TransferMetrics metrics)
+            throws IOException {
+        super(name);
+        this.channel = channel;
+        this.handler = handler;
+        this.metrics = metrics;
+        this.selector = Selector.open();
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ);
+        this.transport = DatagramTransport.open(channel);
+        for (int i = 0; i < receiveBuffers.length; ++i) {
+            receiveBuffers[i] = ByteBuffer.allocateDirect(Configuration.MAX_BLOCK_SIZE + 4);
+        }
+    }
+
+    public DatagramChannel getChannel() {
+        return channel;
+    }
+
+    //run a task on the loop's thread
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    //add a session to the loop and start it - must be called from the loop's thread, and only if there isn't a
+    // session for the remote address in progress already
+    public void register(Session session) {
+        release(session.getRemoteAddress());
+        sessions.put(session.getRemoteAddress(), session);
+        session.start();
+    }
+
+    //whether a transfer with the remote address is in progress - one which is complete and only dallying isn't
+    public boolean hasSession(SocketAddress remoteAddress) {
+        Session session = sessions.get(remoteAddress);
+        return session != null && !session.isDallying();
+    }
+
+    //finish the session with the remote address if it is only dallying, as the remote host has moved on to a new
+    // transfer - must be called from the loop's thread
+    public void release(SocketAddress remoteAddress) {
+        Session previous = sessions.get(remoteAddress);
+        if (previous != null && previous.isDallying()) {
+            previous.finish(null);
+        }
+    }
+
+    //give up on a session which has stopped making progress - must be called from the loop's thread
+    public void abandon(Session session) {
+        session.finish(new TransferException(TransferException.Kind.TIMED_OUT, "error: transfer abandoned"));
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void send(TFTPPacket packet, SocketAddress address) throws IOException {
+        send(ByteBuffer.wrap(packet.getPacketBytes(), 0, packet.getPacketLength()), address);
+    }
+
+    @Override
+    public void send(ByteBuffer packet, SocketAddress address) throws IOException {
+        //queued until the loop has dealt with everything ready - must be called from the loop's thread
+        transport.send(packet, address);
+    }
+
+    @Override
+    public TimerWheel getTimers() {
+        return timers;
+    }
+
+    @Override
+    public TransferMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void finished(Session session, TFTPException error) {
+        sessions.remove(session.getRemoteAddress(), session);
+        handler.onSessionFinished(this, session, error);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                //wait for datagrams until the next timer is due, or not at all if there is work to do
+                long deadline = timers.nextExpiry();
+                long timeout = deadline - System.currentTimeMillis();
+                if (!tasks.isEmpty() || timeout <= 0) {
+                    selector.selectNow();
+                } else if (deadline == Long.MAX_VALUE) {
+                    selector.select();
+                } else {
+                    selector.select(timeout);
+                }
+                selector.selectedKeys().clear();
+
+                runTasks();
+                receive();
+                timers.advance(System.currentTimeMillis());
+                transport.flush();
+
+            } catch (IOException e) {
+                System.out.println("error in event loop: " + e);
+            }
+        }
+
+        //the loop has been shut down - abandon anything still running
+        for (Session session : new ArrayList<>(sessions.values())) {
+            session.finish(new TransferException(TransferException.Kind.CANCELLED, "error: server shutting down"));
+        }
+        try {
+            transport.flush();
+        } catch (IOException ignore) {
+            //shutting down anyway
+        }
+        try {
+            selector.close();
+            transport.close();
+        } catch (IOException ignore) {
+            //shutting down anyway
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    //drain every datagram waiting on the channel a batch at a time, routing each to its session
+    private void receive() throws IOException {
+        int received;
+        do {
+            received = transport.receive(receiveBuffers, receivedFrom);
+            for (int i = 0; i < received; ++i) {
+                dispatch(receiveBuffers[i], receivedFrom[i]);
+                receivedFrom[i] = null;
+            }
+        } while (received == receiveBuffers.length);
+    }
+
+    private void dispatch(ByteBuffer datagram, SocketAddress from) {
+        codec.wrap(datagram);
+
+        Session session = sessions.get(from);
+        try {
+            //check the packet is valid before handing it on
+            PacketType type = codec.getPacketType();
+            if (session != null && session.isDallying()
+                    && (type == PacketType.READ_REQUEST || type == PacketType.WRITE_REQUEST)) {
+                //a new request from a port whose transfer is complete - the port has been reused
+                session = null;
+            }
+            if (session != null) {
+                session.onPacket(codec);
+            } else {
+                handler.onUnknownPacket(this, from, codec.toPacket());
+            }
+        } catch (TFTPException e) {
+            if (session != null) {
+                session.onInvalidPacket();
+            } else {
+                System.out.println("error parsing received packet: " + e);
+            }
+        }
+    }
+
+}
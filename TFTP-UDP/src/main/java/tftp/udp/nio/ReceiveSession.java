@@ -0,0 +1,251 @@
+package tftp.udp.nio;
+
+import tftp.shared.BlockSink;
+import tftp.shared.Configuration;
+import tftp.shared.ErrorType;
+import tftp.shared.Rollover;
+import tftp.shared.TFTPException;
+import tftp.shared.TransferException;
+import tftp.shared.TransferOptions;
+import tftp.shared.WriteBehindBlockSink;
+import tftp.shared.packet.*;
+import tftp.udp.UDPUtil;
+import tftp.udp.metrics.TransferMetrics;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * The receiving side of a transfer as a state machine - the non-blocking counterpart of
+ * {@link UDPUtil.FileReceiver}. The first packet is ACK 0, or an OACK in its place.
+ */
+public class ReceiveSession extends Session {
+
+    //the file, written behind the transfer
+    private final BlockSink sink;
+
+    //the first packet, re-sent on timeout until the first data packet arrives
+    private final TFTPPacket firstPacket;
+    //acknowledgement packets, re-written in place in turn for each block acknowledged. the transport reads a packet
+    // when it flushes, so there is one for every packet it can queue - acknowledgements sent before the flush would
+    // otherwise all go out as the last
+    private final ByteBuffer[] ackBuffers = new ByteBuffer[Configuration.IO_BATCH_SIZE];
+    private int nextAckBuffer = 0;
+
+    //the sequence number of the last data packet received in order, counting from the start of the transfer without
+    // wrapping - acknowledged with the block number it rolls over to
+    private long ackNumber = 0;
+    private final Rollover rollover;
+    //the number of blocks received since the last acknowledgement was sent
+    private int unacknowledged = 0;
+    //whether an acknowledgement has been sent for an out-of-order block since the last progress
+    private boolean gapReported = false;
+    //when the packet which should prompt the next data packet was sent, or -1 if it has been re-sent (or nothing is
+    // outstanding) so the round trip can't be measured
+    private long sentAt = -1;
+    //whether the final block has been received and acknowledged, after which the session waits a while in case the
+    // acknowledgement was lost and the final block is re-sent
+    private boolean complete = false;
+    //whether the final block has been received, and the file is being flushed before it is acknowledged
+    private boolean flushing = false;
+    //whether the file has been closed - as soon as it's complete, or when the session ends if it never is
+    private boolean closed = false;
+
+    private long bytesReceived = 0;
+
+
+    public ReceiveSession(SessionContext context, SocketAddress remoteAddress, TransferOptions options,
+                          TFTPPacket firstPacket, FileOutputStream fos) {
+        this(context, remoteAddress, options, firstPacket, fos, context.getMetrics());
+    }
+
+    public ReceiveSession(SessionContext context, SocketAddress remoteAddress, TransferOptions options,
+                          TFTPPacket firstPacket, FileOutputStream fos, TransferMetrics metrics) {
+        this(context, remoteAddress, options, firstPacket,
+                new WriteBehindBlockSink(fos.getChannel(), Configuration.DURABILITY), metrics);
+    }
+
+    //as above, writing the file to the given sink, which is closed when the session ends
+    public ReceiveSession(SessionContext context, SocketAddress remoteAddress, TransferOptions options,
+                          TFTPPacket firstPacket, BlockSink sink, TransferMetrics metrics) {
+        super(context, remoteAddress, options, metrics);
+        this.firstPacket = firstPacket;
+        this.sink = sink;
+        this.rollover = options.getRollover();
+    }
+
+    @Override
+    public void start() {
+        sentAt = System.nanoTime();
+        send(firstPacket);
+        resetDeadline();
+    }
+
+    @Override
+    public void onPacket(PacketCodec packet) {
+        PacketType type;
+        try {
+            type = packet.getPacketType();
+            if (type == PacketType.ERROR) {
+                //received error packet from remote host, so terminate
+                metrics.errorReceived(packet.getErrorType());
+                finish(TransferException.remote(packet.getErrorType(), ((ErrorPacket) packet.toPacket()).getMessage()));
+                return;
+            }
+        } catch (TFTPException e) {
+            onInvalidPacket();
+            return;
+        }
+        if (type != PacketType.DATA) {
+            return;
+        }
+        int dataLength = packet.getDataLength();
+
+        if (complete) {
+            //the final acknowledgement was lost, so the sender re-sent the final block
+            if (packet.getBlockNumber() == rollover.toBlockNumber(ackNumber)) {
+                acknowledge();
+            }
+            return;
+        }
+        if (flushing) {
+            //the final block is only acknowledged once the file is written
+            return;
+        }
+
+        if (packet.getBlockNumber() == rollover.toBlockNumber(ackNumber + 1)) {
+            try {
+                //queue the data received in the data packet to be written to the file
+                sink.write(packet.getData());
+            } catch (IOException e) {
+                //the sink has given up on the file, so the transfer does too
+                writeFailed();
+                return;
+            }
+            bytesReceived += dataLength;
+            metrics.dataReceived(dataLength);
+            ++ackNumber;
+            ++unacknowledged;
+            gapReported = false;
+            if (sentAt != -1) {
+                rtt.sample(System.nanoTime() - sentAt);
+                sentAt = -1;
+            }
+            progress();
+            resetDeadline();
+
+            if (dataLength < options.getBlockSize()) {
+                //wait for the file to be written without holding up the loop, then acknowledge
+                flushing = true;
+                sink.flush().whenComplete((ignore, error) -> context.execute(() -> flushed(error)));
+            } else if (unacknowledged == options.getWindowSize()) {
+                //acknowledge once a whole window has been received
+                acknowledge();
+                sentAt = System.nanoTime();
+            }
+
+        } else if (ackNumber != 0 && !gapReported
+                && rollover.toSequence(packet.getBlockNumber(), ackNumber) > ackNumber) {
+            //a block was missed - acknowledge the last block received in order so that the sender continues from
+            // the following block. blocks already received are ignored, as the sender re-sends those after going
+            // back, and reporting them would have it go back again
+            acknowledge();
+            gapReported = true;
+        }
+    }
+
+    //the file has been written after the final block, or failed to be if error isn't null
+    private void flushed(Throwable error) {
+        if (isFinished()) {
+            return;
+        }
+        flushing = false;
+        if (error != null) {
+            writeFailed();
+            return;
+        }
+        acknowledge();
+        System.out.printf("received %d bytes in %s seconds%n", bytesReceived, UDPUtil.secondsSince(startTime));
+        //the file is complete, but dally long enough for the sender to time out and re-send the final block if the
+        // acknowledgement was lost (as suggested by RFC 1350)
+        complete = true;
+        close();
+        dally(Math.min(2L * rtt.getTimeout(), Configuration.DEADLINE));
+    }
+
+    //tell the sender the file couldn't be written, and end the transfer
+    private void writeFailed() {
+        send(new ErrorPacket(ErrorType.UNDEFINED, "error writing to file"));
+        metrics.errorSent(ErrorType.UNDEFINED);
+        finish(new TransferException(TransferException.Kind.LOCAL_IO, "error: failed to write to file"));
+    }
+
+    @Override
+    public void onTimeout() {
+        if (complete) {
+            finish(null);
+            return;
+        }
+        if (flushing) {
+            //still writing the file - nothing to re-send, but give up if the disk takes too long
+            if (checkLimits()) {
+                resetDeadline();
+            }
+            return;
+        }
+        metrics.timedOut();
+        rtt.backoff();
+        sentAt = -1;
+        if (!checkLimits()) {
+            return;
+        }
+        metrics.retransmitted();
+        if (ackNumber == 0) {
+            //still waiting on the first data packet
+            send(firstPacket);
+            resetDeadline();
+        } else {
+            acknowledge();
+        }
+    }
+
+    private void acknowledge() {
+        ByteBuffer ackBuffer = ackBuffers[nextAckBuffer];
+        if (ackBuffer == null) {
+            ackBuffer = ackBuffers[nextAckBuffer] = ByteBuffer.allocate(4);
+        }
+        nextAckBuffer = (nextAckBuffer + 1) % ackBuffers.length;
+        PacketCodec.putAcknowledgement(ackBuffer, rollover.toBlockNumber(ackNumber));
+        ackBuffer.clear();
+        send(ackBuffer);
+        unacknowledged = 0;
+        resetDeadline();
+    }
+
+    @Override
+    public long getBytesTransferred() {
+        return bytesReceived;
+    }
+
+    //close the file the first time this is called, whether the file is complete or the session ended first
+    @Override
+    protected final void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            sink.close();
+        } catch (IOException e) {
+            System.out.println("error closing file: " + e.getMessage());
+        }
+        fileClosed();
+    }
+
+    //the file has been closed, whether complete or not
+    protected void fileClosed() {
+    }
+
+}
@@ -0,0 +1,305 @@
+package tftp.udp.nio;
+
+import tftp.shared.BlockSource;
+import tftp.shared.CongestionWindow;
+import tftp.shared.Pacer;
+import tftp.shared.Rollover;
+import tftp.shared.TFTPException;
+import tftp.shared.TransferException;
+import tftp.shared.TransferOptions;
+import tftp.shared.packet.*;
+import tftp.udp.UDPUtil;
+import tftp.udp.metrics.TransferMetrics;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * The sending side of a transfer as a state machine - the non-blocking counterpart of {@link UDPUtil.FileSender}.
+ * The first packet is either DATA 1, or an OACK which must be acknowledged with ACK 0 before data is sent.
+ */
+public class SendSession extends Session {
+
+    private final TFTPPacket firstPacket;
+    private final BlockSource source;
+
+    //whether we're still waiting on the first packet to be acknowledged
+    private boolean handshake;
+
+    //how many blocks may be in flight - the receiver acknowledges every window size blocks, and the window adapts
+    // from there to what the path can take
+    private final CongestionWindow congestion;
+    private final int windowSize;
+
+    //the data packets sent but not yet acknowledged, indexed by sequence number modulo the most which can be in
+    // flight - the file data is read straight into each packet after its header, and the packets are reused for the
+    // whole transfer, allocated once the window grows to use them. they are direct buffers, so nothing is copied
+    // between the file, the packet and the channel
+    private final ByteBuffer[] window;
+    private final int blockSize;
+    private final Rollover rollover;
+    //when each block in the window was first sent, and whether it has been sent again since - the round trip is
+    // only measured for blocks sent once
+    private final long[] sentAt;
+    private final boolean[] resentBlock;
+
+    //the last block acknowledged, the last block read from the file, and the next block to be sent - sequence
+    // numbers count from the start of the transfer without wrapping, and roll over to give the block numbers
+    private long lastAcked = 0;
+    private long lastRead = 0;
+    private long nextSend = 1;
+    //the highest block sent so far - anything sent at or below this is a re-send
+    private long lastSent = 0;
+    //the sequence number of the final (short) data packet, -1 until it has been read from the file
+    private long finalBlock = -1;
+    //when the first packet was sent, and how many times
+    private long firstSentAt;
+    private int firstSends = 0;
+
+    private long bytesSent = 0;
+
+    //spaces out the data packets to keep under the rate limits. a packet whose time hasn't come yet holds its
+    // reservation while the pace timer waits for it, then the window carries on from there
+    private final Pacer pacer;
+    private long reservedAt;
+    private boolean reserved = false;
+    private final TimerWheel.Timer paceTimer = new TimerWheel.Timer() {
+        @Override
+        protected void expire() {
+            sendWindow();
+        }
+    };
+
+
+    public SendSession(SessionContext context, SocketAddress remoteAddress, TransferOptions options,
+                       TFTPPacket firstPacket, BlockSource source) {
+        this(context, remoteAddress, options, firstPacket, source, context.getMetrics(), Pacer.forSession(null));
+    }
+
+    public SendSession(SessionContext context, SocketAddress remoteAddress, TransferOptions options,
+                       TFTPPacket firstPacket, BlockSource source, TransferMetrics metrics, Pacer pacer) {
+        super(context, remoteAddress, options, metrics);
+        this.firstPacket = firstPacket;
+        this.source = source;
+        this.pacer = pacer;
+        this.blockSize = options.getBlockSize();
+        this.rollover = options.getRollover();
+        this.congestion = CongestionWindow.forTransfer(options);
+        this.windowSize = options.getWindowSize();
+        this.window = new ByteBuffer[congestion.getLimit()];
+        this.sentAt = new long[window.length];
+        this.resentBlock = new boolean[window.length];
+    }
+
+    @Override
+    public void start() {
+        if (firstPacket instanceof DataPacket) {
+            //the first data packet starts the window
+            DataPacket data = (DataPacket) firstPacket;
+            ByteBuffer slot = slot(1);
+            slot.clear();
+            slot.put(data.getPacketBytes(), 0, data.getPacketLength());
+            slot.flip();
+            lastRead = 1;
+            if (data.isFinalPacket(blockSize)) {
+                finalBlock = 1;
+            }
+            sendWindow();
+        } else {
+            handshake = true;
+            sendFirstPacket();
+        }
+    }
+
+    @Override
+    public void onPacket(PacketCodec packet) {
+        PacketType type;
+        try {
+            type = packet.getPacketType();
+            if (type == PacketType.ERROR) {
+                //received error packet from remote host, so terminate
+                metrics.errorReceived(packet.getErrorType());
+                finish(TransferException.remote(packet.getErrorType(), ((ErrorPacket) packet.toPacket()).getMessage()));
+                return;
+            }
+        } catch (TFTPException e) {
+            onInvalidPacket();
+            return;
+        }
+        if (type != PacketType.ACKNOWLEDGEMENT) {
+            return;
+        }
+        short blockNumber = packet.getBlockNumber();
+
+        if (handshake) {
+            //the OACK has been acknowledged, start sending data
+            if (blockNumber == 0) {
+                handshake = false;
+                if (firstSends == 1) {
+                    rtt.sample(System.nanoTime() - firstSentAt);
+                }
+                progress();
+                sendWindow();
+            }
+            return;
+        }
+
+        //how far the acknowledgement moves the window on - acknowledgements are cumulative
+        long advance = rollover.toSequence(blockNumber, lastAcked) - lastAcked;
+
+        //anything sent can be acknowledged, including blocks sent before going back to re-send from an earlier one
+        if (advance > 0 && lastAcked + advance <= lastSent) {
+            for (long block = lastAcked + 1; block <= lastAcked + advance; ++block) {
+                bytesSent += window[(int) (block % window.length)].limit() - DataPacket.DATA_OFFSET;
+            }
+            lastAcked += advance;
+            nextSend = Math.max(nextSend, lastAcked + 1);
+            progress();
+            if (advance % windowSize == 0 || lastAcked == finalBlock) {
+                //the receiver got a whole number of windows in order, and acknowledged the last block in response
+                // to that block, which gives the round trip time as long as the block wasn't re-sent
+                int slot = (int) (lastAcked % window.length);
+                if (!resentBlock[slot]) {
+                    rtt.sample(System.nanoTime() - sentAt[slot]);
+                }
+                congestion.acknowledged(advance);
+            } else if (congestion.lost(lastAcked, lastSent)) {
+                //the receiver acknowledged part of a window, so it's reporting a gap - the blocks after the one
+                // acknowledged were lost, so send again from the following block without waiting to time out. gaps
+                // reported while those are re-sent are left to the timeout, as re-sent blocks arriving twice look
+                // like gaps to the receiver too
+                metrics.fastRetransmit();
+                nextSend = lastAcked + 1;
+            }
+
+            if (lastAcked == finalBlock) {
+                System.out.printf("sent %d bytes in %s seconds%n", bytesSent, UDPUtil.secondsSince(startTime));
+                if (congestion.isAdaptive()) {
+                    System.out.println("congestion " + congestion);
+                }
+                metrics.windowPeaked(congestion.getPeak());
+                finish(null);
+                return;
+            }
+            sendWindow();
+        } else if (advance == 0 && congestion.lost(lastAcked, lastSent)) {
+            //duplicate acknowledgement - the block following it was lost, so re-send from there
+            metrics.fastRetransmit();
+            nextSend = lastAcked + 1;
+            sendWindow();
+        }
+    }
+
+    @Override
+    public void onTimeout() {
+        metrics.timedOut();
+        rtt.backoff();
+        if (!checkLimits()) {
+            return;
+        }
+        if (handshake) {
+            sendFirstPacket();
+        } else {
+            //go back and re-send every unacknowledged block
+            congestion.timedOut(lastSent);
+            nextSend = lastAcked + 1;
+            sendWindow();
+        }
+    }
+
+    //send every block in the window which hasn't been sent yet, reading from the file as needed, as fast as the pacer
+    // allows - if it says to wait, the pace timer picks up where this leaves off
+    private void sendWindow() {
+        if (isFinished() || paceTimer.isScheduled()) {
+            return;
+        }
+        while (nextSend <= lastAcked + congestion.get() && (finalBlock == -1 || nextSend <= finalBlock)) {
+            ByteBuffer slot = slot(nextSend);
+            if (nextSend > lastRead) {
+                //never wait on the disk on the loop's thread - carry on once the block has been read
+                if (!source.whenReady((nextSend - 1) * blockSize, () -> context.execute(this::sendWindow))) {
+                    break;
+                }
+                int read;
+                try {
+                    //block n is at offset (n - 1) * block size. a read at the end of the file gives the zero-byte data
+                    // packet which ends a file which is a multiple of the block size
+                    slot.limit(DataPacket.DATA_OFFSET + blockSize).position(DataPacket.DATA_OFFSET);
+                    read = source.read((nextSend - 1) * blockSize, slot);
+                } catch (IOException e) {
+                    finish(new TransferException(TransferException.Kind.LOCAL_IO, "error reading from file"));
+                    return;
+                }
+                PacketCodec.putDataHeader(slot, rollover.toBlockNumber(nextSend));
+                slot.limit(DataPacket.DATA_OFFSET + read);
+                lastRead = nextSend;
+                if (read < blockSize) {
+                    finalBlock = nextSend;
+                }
+            }
+            if (pacer.isLimited()) {
+                if (!reserved) {
+                    reservedAt = pacer.reserve(slot.limit());
+                    reserved = true;
+                }
+                //the timers fire up to a tick late, so anything due within a tick is sent now
+                long wait = reservedAt - System.nanoTime();
+                long tick = context.getTimers().getTickMillis();
+                if (wait > tick * 1_000_000) {
+                    context.getTimers().schedule(paceTimer, System.currentTimeMillis() + wait / 1_000_000);
+                    break;
+                }
+                reserved = false;
+            }
+            int index = (int) (nextSend % window.length);
+            if (nextSend > lastSent) {
+                sentAt[index] = System.nanoTime();
+                resentBlock[index] = false;
+                lastSent = nextSend;
+            } else {
+                resentBlock[index] = true;
+                metrics.retransmitted();
+            }
+            metrics.dataSent(slot.limit() - DataPacket.DATA_OFFSET);
+            slot.position(0);
+            send(slot);
+            ++nextSend;
+        }
+        resetDeadline();
+    }
+
+    //the packet in the window for the given block, allocated the first time its slot is used
+    private ByteBuffer slot(long block) {
+        int index = (int) (block % window.length);
+        if (window[index] == null) {
+            window[index] = ByteBuffer.allocateDirect(blockSize + DataPacket.DATA_OFFSET);
+        }
+        return window[index];
+    }
+
+    private void sendFirstPacket() {
+        firstSentAt = System.nanoTime();
+        if (++firstSends > 1) {
+            metrics.retransmitted();
+        }
+        send(firstPacket);
+        resetDeadline();
+    }
+
+    @Override
+    public long getBytesTransferred() {
+        return bytesSent;
+    }
+
+    @Override
+    protected void close() {
+        context.getTimers().cancel(paceTimer);
+        try {
+            source.close();
+        } catch (IOException ignore) {
+            //nothing more to read anyway
+        }
+    }
+
+}
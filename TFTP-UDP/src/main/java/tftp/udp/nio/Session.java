@@ -0,0 +1,179 @@
+package tftp.udp.nio;
+
+import tftp.shared.Configuration;
+import tftp.shared.RttEstimator;
+import tftp.shared.TFTPException;
+import tftp.shared.TransferException;
+import tftp.shared.TransferOptions;
+import tftp.shared.packet.PacketCodec;
+import tftp.shared.packet.TFTPPacket;
+import tftp.udp.metrics.TransferMetrics;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * A single transfer driven as a non-blocking state machine, rather than by a thread of its own. The owner feeds it
+ * packets received from the remote host, and {@link #onTimeout()} is called by the context's timers once its deadline
+ * passes. Sessions are not thread-safe - all of their methods must be called from the thread driving them.
+ */
+public abstract class Session {
+
+    protected final SessionContext context;
+    protected final SocketAddress remoteAddress;
+    protected final TransferMetrics metrics;
+
+    //the options in effect for this transfer
+    protected final TransferOptions options;
+
+    //measures the round trip time to set the retransmission timeout. the transfer is abandoned if it makes no
+    // progress before the deadline, or if too many nonsense packets are received in a row
+    protected final RttEstimator rtt;
+    private long lastProgress = System.nanoTime();
+    protected int invalids = 0;
+
+    //track the time taken to print at the end if all goes well
+    protected final long startTime = System.currentTimeMillis();
+
+    //when the packet last sent is considered lost, Long.MAX_VALUE if not waiting on anything. the timer calls
+    // onTimeout() once it passes
+    private long deadline = Long.MAX_VALUE;
+    private final TimerWheel.Timer timer = new TimerWheel.Timer() {
+        @Override
+        protected void expire() {
+            deadline = Long.MAX_VALUE;
+            onTimeout();
+        }
+    };
+    private boolean finished = false;
+    //whether the transfer is complete, and the session is only waiting in case the remote host re-sends something
+    private boolean dallying = false;
+
+
+    protected Session(SessionContext context, SocketAddress remoteAddress, TransferOptions options) {
+        this(context, remoteAddress, options, context.getMetrics());
+    }
+
+    //as above, reporting events from the transfer to the given metrics rather than the context's
+    protected Session(SessionContext context, SocketAddress remoteAddress, TransferOptions options,
+                      TransferMetrics metrics) {
+        this.context = context;
+        this.remoteAddress = remoteAddress;
+        this.options = options;
+        this.metrics = metrics;
+        this.rtt = new RttEstimator(options.getTimeout());
+    }
+
+    public SocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    //the number of bytes of the file transferred so far
+    public abstract long getBytesTransferred();
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public boolean isDallying() {
+        return dallying;
+    }
+
+    //send the first packet of the transfer
+    public abstract void start();
+
+    //handle a packet received from the remote host - the codec is only valid for the duration of the call
+    public abstract void onPacket(PacketCodec packet);
+
+    //nothing has been received from the remote host before the deadline
+    public abstract void onTimeout();
+
+    //a datagram which isn't a valid TFTP packet was received from the remote host
+    public void onInvalidPacket() {
+        metrics.invalidPacket();
+        ++invalids;
+        checkLimits();
+    }
+
+    //release any resources held by the session, called once it has finished
+    protected abstract void close();
+
+    //wait for a response to the packet just sent until the retransmission timeout expires, but not past the point
+    // where the transfer is given up
+    protected void resetDeadline() {
+        long remaining = Configuration.DEADLINE - (System.nanoTime() - lastProgress) / 1_000_000;
+        setDeadline(System.currentTimeMillis() + Math.max(1, Math.min(rtt.getTimeout(), remaining)));
+    }
+
+    //wait the given time in ms with nothing outstanding, for anything still to arrive from the remote host
+    protected void dally(long millis) {
+        dallying = true;
+        setDeadline(System.currentTimeMillis() + millis);
+    }
+
+    private void setDeadline(long deadline) {
+        this.deadline = deadline;
+        context.getTimers().schedule(timer, deadline);
+    }
+
+    //the transfer has moved on
+    protected void progress() {
+        lastProgress = System.nanoTime();
+        rtt.clearBackoff();
+        invalids = 0;
+    }
+
+    protected void send(TFTPPacket packet) {
+        try {
+            context.send(packet, remoteAddress);
+        } catch (IOException e) {
+            //treat as lost - it will be re-sent once the deadline passes
+            ++invalids;
+        }
+    }
+
+    protected void send(ByteBuffer packet) {
+        try {
+            context.send(packet, remoteAddress);
+        } catch (IOException e) {
+            //treat as lost - it will be re-sent once the deadline passes
+            ++invalids;
+        }
+    }
+
+    //end the session, successfully if error is null
+    protected void finish(TFTPException error) {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        deadline = Long.MAX_VALUE;
+        context.getTimers().cancel(timer);
+        close();
+        context.finished(this, error);
+    }
+
+    //give up on the transfer once it has gone too long without progress or too many invalid packets have occurred,
+    // returning false if the session has finished as a result
+    protected boolean checkLimits() {
+        if (System.nanoTime() - lastProgress >= Configuration.DEADLINE * 1_000_000L) {
+            finish(new TransferException(TransferException.Kind.TIMED_OUT, "error: transfer timed out"));
+        } else if (invalids >= Configuration.MAX_INVALIDS) {
+            finish(new TransferException(
+                    TransferException.Kind.PROTOCOL_ERROR,
+                    "error: too many invalid packets received or error writing to/reading from socket"
+            ));
+        }
+        return !finished;
+    }
+
+}
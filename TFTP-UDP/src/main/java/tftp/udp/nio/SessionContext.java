@@ -0,0 +1,35 @@
+package tftp.udp.nio;
+
+import tftp.shared.TFTPException;
+import tftp.shared.packet.TFTPPacket;
+import tftp.udp.metrics.TransferMetrics;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * What a {@link Session} needs from whatever is driving it - a way of sending packets, timers for its deadlines,
+ * somewhere to report what happens during the transfer, and somewhere to report that it has finished.
+ */
+public interface SessionContext {
+
+    //send a packet to the given address, without blocking
+    void send(TFTPPacket packet, SocketAddress address) throws IOException;
+
+    //send the packet between the buffer's position and limit to the given address, without blocking
+    void send(ByteBuffer packet, SocketAddress address) throws IOException;
+
+    //run a task on the thread driving the session, from any thread
+    void execute(Runnable task);
+
+    //the timers for session deadlines, which fire on the thread driving the session
+    TimerWheel getTimers();
+
+    //where the session reports events from the transfer as they happen
+    TransferMetrics getMetrics();
+
+    //called once when the session has finished, successfully if error is null
+    void finished(Session session, TFTPException error);
+
+}
@@ -0,0 +1,143 @@
+package tftp.udp.nio;
+
+/**
+ * A hashed timing wheel for the deadlines of many sessions. Time is divided into ticks, and each timer is kept in the
+ * slot for the tick its deadline falls in, so arming, re-arming and cancelling a timer are constant time however many
+ * are running - which matters as a session re-arms its timer on every acknowledgement. Timers fire on the first tick
+ * at or after their deadline, so up to one tick late. Not thread-safe - it belongs to the thread driving the sessions.
+ */
+public class TimerWheel {
+
+    /**
+     * Something to be done once a deadline passes. A timer is in at most one slot at a time, linked in place, so
+     * re-arming it doesn't allocate.
+     */
+    public abstract static class Timer {
+
+        private Timer previous;
+        private Timer next;
+        private long expiryTick;
+        private boolean scheduled = false;
+
+        //the deadline has passed
+        protected abstract void expire();
+
+        public boolean isScheduled() {
+            return scheduled;
+        }
+
+    }
+
+    private final long tickMillis;
+    //one list of timers per slot, for ticks congruent modulo the number of slots
+    private final Timer[] slots;
+    private final int mask;
+    //the last tick processed - anything due at or before it has fired
+    private long currentTick;
+    private int size = 0;
+
+
+    //slots is rounded up to a power of two - a timer further off than slots * tick is passed over until its round
+    public TimerWheel(long tickMillis, int slots, long now) {
+        this.tickMillis = tickMillis;
+        this.slots = new Timer[Integer.highestOneBit(Math.max(slots - 1, 1)) << 1];
+        this.mask = this.slots.length - 1;
+        this.currentTick = now / tickMillis;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    //the number of timers running
+    public int size() {
+        return size;
+    }
+
+    //arm the timer to fire at the given time in ms, replacing any deadline it already had
+    public void schedule(Timer timer, long deadline) {
+        if (timer.scheduled) {
+            unlink(timer);
+        }
+        //round up, and never into a tick already processed
+        long tick = Math.max((deadline + tickMillis - 1) / tickMillis, currentTick + 1);
+        timer.expiryTick = tick;
+        link(timer, (int) (tick & mask));
+    }
+
+    public void cancel(Timer timer) {
+        if (timer.scheduled) {
+            unlink(timer);
+        }
+    }
+
+    //when the next timer might fire in ms, or Long.MAX_VALUE if none are running. only the slots are looked at, so
+    // this can be early if the first timer found is due in a later round
+    public long nextExpiry() {
+        if (size == 0) {
+            return Long.MAX_VALUE;
+        }
+        for (long tick = currentTick + 1; tick <= currentTick + slots.length; ++tick) {
+            if (slots[(int) (tick & mask)] != null) {
+                return tick * tickMillis;
+            }
+        }
+        return (currentTick + slots.length) * tickMillis;
+    }
+
+    //fire every timer due at or before the given time. timers may be re-armed or cancelled as they fire
+    public void advance(long now) {
+        long target = now / tickMillis;
+        //a whole revolution covers every slot, so there's no need to go round again however far behind we are
+        long tick = Math.max(currentTick + 1, target - slots.length + 1);
+        for (; tick <= target; ++tick) {
+            currentTick = tick;
+            int slot = (int) (tick & mask);
+            //walk the slot, firing the timers due and leaving those for a later round where they are. anything armed
+            // while firing goes into a later tick, so the walk ends
+            Timer timer = slots[slot];
+            while (timer != null) {
+                Timer next = timer.next;
+                if (timer.expiryTick <= tick) {
+                    unlink(timer);
+                    timer.expire();
+                    //firing may have cancelled or re-armed the next timer along, in which case start the slot again
+                    if (next != null && (!next.scheduled || (int) (next.expiryTick & mask) != slot)) {
+                        next = slots[slot];
+                    }
+                }
+                timer = next;
+            }
+        }
+        currentTick = Math.max(currentTick, target);
+    }
+
+    private void link(Timer timer, int slot) {
+        Timer head = slots[slot];
+        timer.previous = null;
+        timer.next = head;
+        if (head != null) {
+            head.previous = timer;
+        }
+        slots[slot] = timer;
+        timer.scheduled = true;
+        ++size;
+    }
+
+    private void unlink(Timer timer) {
+        int slot = (int) (timer.expiryTick & mask);
+        if (timer.previous != null) {
+            timer.previous.next = timer.next;
+        } else {
+            slots[slot] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.previous = timer.previous;
+        }
+        timer.previous = null;
+        timer.next = null;
+        timer.scheduled = false;
+        --size;
+    }
+
+}
@@ -0,0 +1,158 @@
+package tftp.udp.server;
+
+import tftp.shared.TFTPException;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether the server takes on a new transfer. Limits the number of transfers running in total and with any
+ * one client address, and the rate at which each client address can make requests, using a token bucket per
+ * client. Requests over a limit are refused outright, so the transfers already accepted keep their share of the
+ * server rather than everything slowing down together. A limit of 0 means no limit. Thread-safe.
+ */
+public class AdmissionController {
+
+    public static final int UNLIMITED = 0;
+
+    //how often clients with nothing running and a full bucket are forgotten, in ns
+    private static final long PRUNE_INTERVAL = 1_000_000_000L;
+
+    private static final class Client {
+
+        private int sessions = 0;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        private Client(double tokens) {
+            this.tokens = tokens;
+        }
+
+    }
+
+    private final int maxSessions;
+    private final int maxPerClient;
+    //requests allowed per second from each client, and how many can be made at once after a quiet spell
+    private final double requestRate;
+    private final double burst;
+
+    private final AtomicInteger sessions = new AtomicInteger();
+    private final ConcurrentHashMap<InetAddress, Client> clients = new ConcurrentHashMap<>();
+    private final AtomicLong prunedAt = new AtomicLong(System.nanoTime());
+
+
+    public AdmissionController(int maxSessions, int maxPerClient, double requestRate) {
+        this.maxSessions = maxSessions;
+        this.maxPerClient = maxPerClient;
+        this.requestRate = requestRate;
+        this.burst = Math.max(1, Math.ceil(requestRate));
+    }
+
+    //a controller which admits everything
+    public static AdmissionController unlimited() {
+        return new AdmissionController(UNLIMITED, UNLIMITED, UNLIMITED);
+    }
+
+    //take on a transfer with the client, which must be released once it ends. throws an exception with the message to
+    // send the client if a limit has been reached
+    public void admit(InetAddress client) throws TFTPException {
+        if (maxSessions == UNLIMITED && maxPerClient == UNLIMITED && requestRate == UNLIMITED) {
+            sessions.incrementAndGet();
+            return;
+        }
+        prune();
+
+        //the client's state is only changed inside compute, which holds it against concurrent changes
+        TFTPException[] refused = new TFTPException[1];
+        clients.compute(client, (address, state) -> {
+            if (state == null) {
+                state = new Client(burst);
+            }
+            if (requestRate != UNLIMITED) {
+                refill(state);
+                if (state.tokens < 1) {
+                    refused[0] = new TFTPException("too many requests, try again later");
+                    return state;
+                }
+            }
+            if (maxPerClient != UNLIMITED && state.sessions >= maxPerClient) {
+                refused[0] = new TFTPException("too many transfers from this client");
+                return state;
+            }
+            if (!reserve()) {
+                refused[0] = new TFTPException("server busy, try again later");
+                return state;
+            }
+            //the token is only spent on a request which goes ahead - one refused for the other limits costs nothing
+            if (requestRate != UNLIMITED) {
+                state.tokens -= 1;
+            }
+            ++state.sessions;
+            return state;
+        });
+        if (refused[0] != null) {
+            throw refused[0];
+        }
+    }
+
+    //a transfer admitted with the client has ended
+    public void release(InetAddress client) {
+        //the client's count first, so that by the time the total shows the transfer gone, the client can start another
+        clients.computeIfPresent(client, (address, state) -> {
+            --state.sessions;
+            return state;
+        });
+        sessions.decrementAndGet();
+    }
+
+    //the number of transfers admitted and not yet released
+    public int getSessions() {
+        return sessions.get();
+    }
+
+    //count a session against the total limit, if there's room
+    private boolean reserve() {
+        while (true) {
+            int current = sessions.get();
+            if (maxSessions != UNLIMITED && current >= maxSessions) {
+                return false;
+            }
+            if (sessions.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void refill(Client state) {
+        long now = System.nanoTime();
+        state.tokens = Math.min(burst, state.tokens + (now - state.refilledAt) / 1e9 * requestRate);
+        state.refilledAt = now;
+    }
+
+    //forget clients with nothing running whose bucket has filled back up - they're no different to a new client.
+    // done at most once a second, by whichever thread gets there first
+    private void prune() {
+        long now = System.nanoTime();
+        long last = prunedAt.get();
+        if (now - last < PRUNE_INTERVAL || !prunedAt.compareAndSet(last, now)) {
+            return;
+        }
+        for (InetAddress address : clients.keySet()) {
+            clients.computeIfPresent(address, (key, state) -> {
+                if (state.sessions > 0) {
+                    return state;
+                }
+                if (requestRate != UNLIMITED) {
+                    refill(state);
+                    if (state.tokens < burst) {
+                        return state;
+                    }
+                }
+                return null;
+            });
+        }
+    }
+
+}
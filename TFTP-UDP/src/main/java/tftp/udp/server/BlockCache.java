@@ -0,0 +1,223 @@
+package tftp.udp.server;
+
+import tftp.shared.BlockSource;
+import tftp.shared.Configuration;
+import tftp.shared.BufferBlockSource;
+import tftp.shared.FileBlockSource;
+import tftp.udp.metrics.TransferMetrics;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Keeps the contents of recently read files in memory, so that many clients reading the same file are served
+ * without going back to the disk. Files are held outside the heap in read-only direct buffers, which every transfer
+ * of that file shares. An entry is only used while the file's modification time and size are unchanged, and the
+ * least recently used files are evicted to keep the total within the byte budget. Files which aren't cached are
+ * read by a {@link SharedBlockProducer} shared by every transfer reading the same version of the file at once.
+ * Thread-safe.
+ */
+public class BlockCache {
+
+    //the maximum number of bytes of file contents held, 0 to disable the cache
+    private final long capacity;
+    private long size = 0;
+
+    //the cached files by absolute path, in order of access
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    //the files being read by transfers which aren't cached, by absolute path
+    private final Map<Path, SharedBlockProducer> producers = new HashMap<>();
+
+
+    public BlockCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    //open a file for reading - from memory if it's cached or small enough to be, otherwise from the disk, sharing the
+    // reads with any other transfers reading the file at the same time
+    public BlockSource open(String fileName) throws FileNotFoundException {
+        Path path = Paths.get(fileName);
+        ByteBuffer contents = get(path);
+        if (contents != null) {
+            return new BufferBlockSource(contents);
+        }
+        try {
+            return share(path);
+        } catch (IOException e) {
+            //whatever stopped the file being opened, as far as the client is concerned it can't be found
+            throw new FileNotFoundException(fileName);
+        }
+    }
+
+    //open a file to be sent in blocks of the given size - as above, but if it's read from the disk the blocks are read
+    // ahead of the transfer by Configuration.READ_AHEAD blocks
+    public BlockSource open(String fileName, int blockSize, TransferMetrics metrics) throws FileNotFoundException {
+        return ReadAheadBlockSource.wrap(open(fileName), blockSize, Configuration.READ_AHEAD, metrics);
+    }
+
+    //the contents of a file as a read-only buffer, loading it if needed. returns null if the file can't be cached -
+    // it is bigger than the budget, doesn't exist, or couldn't be read - in which case it should be read directly
+    public ByteBuffer get(Path path) {
+        if (capacity <= 0) {
+            return null;
+        }
+        path = path.toAbsolutePath().normalize();
+
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+        if (!attributes.isRegularFile() || attributes.size() > Math.min(capacity, Integer.MAX_VALUE)) {
+            return null;
+        }
+        long lastModified = attributes.lastModifiedTime().toMillis();
+
+        Entry entry;
+        boolean load = false;
+        synchronized (this) {
+            entry = entries.get(path);
+            if (entry == null || entry.lastModified != lastModified || entry.length != attributes.size()) {
+                //not cached, or the file has changed since - any transfers still using the old contents keep them
+                if (entry != null) {
+                    remove(path, entry);
+                }
+                entry = new Entry(path, lastModified, attributes.size());
+                entries.put(path, entry);
+                size += entry.length;
+                evict();
+                load = true;
+            }
+        }
+
+        //load outside of the lock, so that other files can be served meanwhile - concurrent requests for the same
+        // file wait for the one load
+        if (load) {
+            entry.contents.run();
+        }
+        try {
+            return entry.contents.get().duplicate();
+        } catch (ExecutionException e) {
+            System.out.println("error caching " + path + ": " + e.getCause());
+            synchronized (this) {
+                remove(path, entry);
+            }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    //a reader of the file from the producer already reading its current version, or from a new producer if none is
+    private BlockSource share(Path path) throws IOException {
+        path = path.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (!attributes.isRegularFile()) {
+            //nothing to share, read it like any other
+            return FileBlockSource.open(path);
+        }
+        //a file replaced by another of the same size and modification time is still told apart by its file key
+        List<Object> version = Arrays.asList(
+                attributes.lastModifiedTime().toMillis(), attributes.size(), attributes.fileKey()
+        );
+
+        synchronized (producers) {
+            SharedBlockProducer producer = producers.get(path);
+            if (producer != null && producer.getVersion().equals(version)) {
+                SharedBlockProducer.Reader reader = producer.attach();
+                if (reader != null) {
+                    return reader;
+                }
+            }
+            //any transfers still reading an older version carry on with their own producer
+            producer = SharedBlockProducer.open(path, version, attributes.size(), this::release);
+            producers.put(path, producer);
+            return producer.attach();
+        }
+    }
+
+    //the last reader of the producer has been closed
+    private void release(SharedBlockProducer producer) {
+        synchronized (producers) {
+            producers.remove(producer.getPath(), producer);
+        }
+    }
+
+    //drop a file which has been written to, so that it is read again from the disk
+    public void invalidate(String fileName) {
+        Path path = Paths.get(fileName).toAbsolutePath().normalize();
+        synchronized (this) {
+            Entry entry = entries.get(path);
+            if (entry != null) {
+                remove(path, entry);
+            }
+        }
+    }
+
+    //the number of bytes of file contents currently held
+    public synchronized long size() {
+        return size;
+    }
+
+    //remove the entry for the path, if it's still the given one
+    private void remove(Path path, Entry entry) {
+        if (entries.remove(path, entry)) {
+            size -= entry.length;
+        }
+    }
+
+    //remove the least recently used entries until the cache is back within its budget
+    private void evict() {
+        Iterator<Map.Entry<Path, Entry>> iterator = entries.entrySet().iterator();
+        while (size > capacity && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            iterator.remove();
+            size -= entry.length;
+        }
+    }
+
+    private static ByteBuffer load(Path path, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) length);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            //the file could be shorter by now, in which case the end of the stream ends the read early
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                //keep reading
+            }
+        }
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private static class Entry {
+
+        private final long lastModified;
+        private final long length;
+        //the file contents, loaded by the first request to find the file missing from the cache
+        private final FutureTask<ByteBuffer> contents;
+
+        private Entry(Path path, long lastModified, long length) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.contents = new FutureTask<>(() -> load(path, length));
+        }
+
+    }
+
+}
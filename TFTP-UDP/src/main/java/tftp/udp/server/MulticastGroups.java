@@ -0,0 +1,179 @@
+package tftp.udp.server;
+
+import tftp.shared.BlockSource;
+import tftp.shared.Configuration;
+import tftp.shared.TFTPException;
+import tftp.shared.TransferOptions;
+import tftp.shared.packet.PacketType;
+import tftp.udp.UDPUtil;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The {@link MulticastSession}s a server is running, one for each version of a file (and block size) being sent by
+ * multicast. Every session sends to the same multicast address, on a port of its own. Thread-safe.
+ */
+public class MulticastGroups {
+
+    //the hops a multicast datagram may take
+    private static final int TTL = 1;
+
+    private final InetAddress address;
+    private final int firstPort;
+    //the interface sent on, null for the system's choice
+    private final NetworkInterface networkInterface;
+
+    //guarded by this object's lock
+    private final Map<List<Object>, MulticastSession> sessions = new HashMap<>();
+    private final Set<Integer> ports = new HashSet<>();
+
+
+    public MulticastGroups(InetAddress address, int firstPort, NetworkInterface networkInterface) {
+        this.address = address;
+        this.firstPort = firstPort;
+        this.networkInterface = networkInterface;
+    }
+
+    //the groups set up in Configuration, or null if multicast isn't
+    public static MulticastGroups fromConfiguration() throws TFTPException {
+        if (Configuration.MULTICAST_ADDRESS == null) {
+            return null;
+        }
+        if (!Configuration.MULTICAST_ADDRESS.isMulticastAddress()) {
+            throw new TFTPException("not a multicast address: " + Configuration.MULTICAST_ADDRESS.getHostAddress());
+        }
+        NetworkInterface networkInterface = null;
+        if (Configuration.MULTICAST_INTERFACE != null) {
+            try {
+                networkInterface = NetworkInterface.getByName(Configuration.MULTICAST_INTERFACE);
+            } catch (SocketException e) {
+                //reported below
+            }
+            if (networkInterface == null) {
+                throw new TFTPException("unknown network interface: " + Configuration.MULTICAST_INTERFACE);
+            }
+        }
+        return new MulticastGroups(Configuration.MULTICAST_ADDRESS, Configuration.MULTICAST_PORT, networkInterface);
+    }
+
+    //serve a client asking for a file by multicast. it joins the session sending the file, or starts one, in which
+    // case the session runs on this thread until every client in the group has the file. returns false if the file
+    // can't be sent by multicast, and should be sent to the client on its own instead. otherwise the session has the
+    // client's entry, and closes it once the client leaves the group
+    public boolean serve(String fileName, InetSocketAddress client, TransferOptions requested, BlockCache cache,
+                         SessionRegistry.Entry entry) throws IOException, TFTPException {
+        //blocks are sent one at a time, as the RFC has it, so only the block size is used
+        TransferOptions options = new TransferOptions();
+        if (requested.toMap().containsKey(TransferOptions.BLOCK_SIZE)) {
+            options.setBlockSize(requested.getBlockSize());
+        }
+
+        BasicFileAttributes attributes;
+        Path path;
+        try {
+            path = Paths.get(fileName).toAbsolutePath().normalize();
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException | InvalidPathException e) {
+            throw new FileNotFoundException(fileName);
+        }
+        if (attributes.size() / options.getBlockSize() + 1 > MulticastSession.MAX_BLOCKS) {
+            return false;
+        }
+        List<Object> key = Arrays.asList(
+                path, attributes.lastModifiedTime().toMillis(), attributes.size(), options.getBlockSize()
+        );
+
+        MulticastSession session;
+        DatagramSocket socket;
+        BlockSource source;
+        int port;
+        synchronized (this) {
+            session = sessions.get(key);
+            if (session != null && session.join(client, entry)) {
+                //if the client goes quiet, it's dropped from the group
+                MulticastSession joined = session;
+                entry.onReap(() -> joined.drop(client));
+                return true;
+            }
+            port = firstPort;
+            while (ports.contains(port)) {
+                ++port;
+            }
+            source = cache.open(fileName, options.getBlockSize(), entry);
+            try {
+                socket = UDPUtil.openSocket();
+            } catch (IOException e) {
+                source.close();
+                throw e;
+            }
+            try {
+                socket.setOption(StandardSocketOptions.IP_MULTICAST_TTL, TTL);
+                if (networkInterface != null) {
+                    socket.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+                }
+                session = new MulticastSession(
+                        socket, new InetSocketAddress(address, port), source, options, entry
+                );
+            } catch (IOException e) {
+                socket.close();
+                source.close();
+                throw e;
+            }
+            ports.add(port);
+            sessions.put(key, session);
+            session.join(client, entry);
+        }
+
+        //if the session dies without making progress, closing the socket makes it give up
+        entry.onReap(socket::close);
+        entry.transferStarted(PacketType.READ_REQUEST);
+        long start = System.nanoTime();
+        try {
+            session.run();
+        } finally {
+            synchronized (this) {
+                sessions.remove(key, session);
+                ports.remove(port);
+            }
+            socket.close();
+            source.close();
+            entry.transferFinished(PacketType.READ_REQUEST, session.getBytesSent(), System.nanoTime() - start);
+        }
+        return true;
+    }
+
+    //send a client already in a group its OACK again, as it has asked for the file again. returns false if it isn't in
+    // any group
+    public boolean resend(InetSocketAddress client) {
+        List<MulticastSession> running;
+        synchronized (this) {
+            running = new ArrayList<>(sessions.values());
+        }
+        for (MulticastSession session : running) {
+            if (session.resend(client)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
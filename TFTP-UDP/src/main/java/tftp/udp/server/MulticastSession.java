@@ -0,0 +1,301 @@
+package tftp.udp.server;
+
+import tftp.shared.BlockSource;
+import tftp.shared.Configuration;
+import tftp.shared.ErrorType;
+import tftp.shared.RttEstimator;
+import tftp.shared.TFTPException;
+import tftp.shared.TransferOptions;
+import tftp.shared.packet.*;
+import tftp.udp.UDPUtil;
+import tftp.udp.metrics.TransferMetrics;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sends a file to a multicast group (RFC 2090) for every client reading it with the multicast option at the same
+ * time, so that it crosses the network once rather than once per client. Each client joins with a request of its
+ * own, and is sent an OACK from the session's socket naming the group. One client at a time is the master, which
+ * acknowledges blocks on behalf of the group - each acknowledgement has the following block sent to the group. Once
+ * the master has the whole file the next client to have joined becomes master, and acknowledges the last block it
+ * has in order, so whatever it missed by joining late (or losing blocks) is sent again. A client which has the whole
+ * file before its turn comes acknowledges the final block to leave. Blocks are sent one at a time, as in the RFC.
+ */
+public class MulticastSession {
+
+    //the most blocks a file sent by multicast can have - block numbers don't roll over, as a client joining late
+    // couldn't tell which time round a block was from
+    public static final int MAX_BLOCKS = 65535;
+
+    private final DatagramSocket socket;
+    private final InetSocketAddress group;
+    private final BlockSource source;
+    private final TransferOptions options;
+    private final TransferMetrics metrics;
+    //the number of the final (short) data packet
+    private final int finalBlock;
+
+    //everything below is guarded by this object's lock
+    //the clients yet to get the whole file, in the order they joined, including the master, each with its entry in
+    // the server's registry - closed once the client leaves, so the client counts as a transfer until then
+    private final LinkedHashMap<InetSocketAddress, SessionRegistry.Entry> clients = new LinkedHashMap<>();
+    private InetSocketAddress master;
+    //the block last sent to the group for the master, 0 while waiting for the master to answer its OACK
+    private int sentBlock = 0;
+    //when it was sent, or -1 if it has been sent again since, so the round trip can't be measured
+    private long sentAt = -1;
+    //the times in a row the master hasn't answered before the timeout
+    private int timeouts = 0;
+    private boolean finished = false;
+
+    private final RttEstimator rtt = new RttEstimator();
+    private final ByteBuffer block;
+    private long bytesSent = 0;
+
+
+    public MulticastSession(DatagramSocket socket, InetSocketAddress group, BlockSource source,
+                            TransferOptions options, TransferMetrics metrics) throws IOException {
+        this.socket = socket;
+        this.group = group;
+        this.source = source;
+        this.options = options;
+        this.metrics = metrics;
+        this.finalBlock = (int) (source.size() / options.getBlockSize() + 1);
+        this.block = ByteBuffer.allocate(options.getBlockSize());
+    }
+
+    //add a client to the group, sending it an OACK - returns false if the session has already finished, in which case
+    // the client needs a session of its own. the session closes the client's entry once it leaves
+    public synchronized boolean join(InetSocketAddress client, SessionRegistry.Entry entry) {
+        if (finished) {
+            return false;
+        }
+        System.out.println("client " + client + " joining multicast group " + group);
+        SessionRegistry.Entry previous = clients.put(client, entry);
+        if (previous != null && previous != entry) {
+            previous.close();
+        }
+        if (master == null) {
+            nextMaster();
+        } else {
+            sendOack(client, client.equals(master));
+        }
+        return true;
+    }
+
+    //send a client in the group its OACK again - returns false if it isn't in the group
+    public synchronized boolean resend(InetSocketAddress client) {
+        if (!clients.containsKey(client)) {
+            return false;
+        }
+        sendOack(client, client.equals(master));
+        return true;
+    }
+
+    //take a client which has gone quiet out of the group
+    public synchronized void drop(InetSocketAddress client) {
+        leave(client);
+    }
+
+    //send the file to the group until every client has it, or has given up. whichever clients are left in the group at
+    // the end have their entries closed
+    public void run() {
+        try {
+            serve();
+        } finally {
+            synchronized (this) {
+                for (SessionRegistry.Entry entry : clients.values()) {
+                    entry.close();
+                }
+                clients.clear();
+                master = null;
+                finished = true;
+            }
+        }
+    }
+
+    private void serve() {
+        byte[] buffer = new byte[Configuration.MAX_PACKET_LENGTH];
+        DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+        while (true) {
+            try {
+                socket.setSoTimeout(rtt.getTimeout());
+                UDPUtil.receive(socket, datagram);
+            } catch (SocketTimeoutException e) {
+                synchronized (this) {
+                    onTimeout();
+                    if (finished) {
+                        return;
+                    }
+                }
+                continue;
+            } catch (IOException e) {
+                //the socket was closed, the session was reaped
+                synchronized (this) {
+                    finished = true;
+                }
+                return;
+            }
+
+            TFTPPacket packet;
+            try {
+                packet = UDPUtil.fromDatagram(datagram);
+            } catch (TFTPException e) {
+                metrics.invalidPacket();
+                continue;
+            }
+            synchronized (this) {
+                onPacket((InetSocketAddress) datagram.getSocketAddress(), packet);
+                if (finished) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    //must hold the lock
+    private void onPacket(InetSocketAddress from, TFTPPacket packet) {
+        if (packet instanceof ErrorPacket) {
+            //the client has given up
+            metrics.errorReceived(((ErrorPacket) packet).getErrorType());
+            leave(from);
+        } else if (packet instanceof AcknowledgementPacket) {
+            int acknowledged = Short.toUnsignedInt(((AcknowledgementPacket) packet).getBlockNumber());
+            if (from.equals(master)) {
+                if (sentAt != -1 && acknowledged == sentBlock) {
+                    rtt.sample(System.nanoTime() - sentAt);
+                }
+                rtt.clearBackoff();
+                timeouts = 0;
+                //the group is making progress, so none of the clients waiting their turn have died
+                for (SessionRegistry.Entry entry : clients.values()) {
+                    entry.touch();
+                }
+                if (acknowledged >= finalBlock) {
+                    leave(from);
+                } else {
+                    //the master has every block up to this one, so send it the next
+                    sentBlock = acknowledged + 1;
+                    sentAt = System.nanoTime();
+                    sendBlock(sentBlock);
+                }
+            } else if (acknowledged >= finalBlock) {
+                //a client has the whole file before its turn as master
+                leave(from);
+            }
+        }
+    }
+
+    //must hold the lock
+    private void onTimeout() {
+        if (master == null) {
+            finished = true;
+            return;
+        }
+        metrics.timedOut();
+        rtt.backoff();
+        sentAt = -1;
+        if (++timeouts > Configuration.MAX_INVALIDS) {
+            //carry on without the master
+            System.out.println("multicast master " + master + " stopped responding");
+            leave(master);
+            return;
+        }
+        metrics.retransmitted();
+        if (sentBlock == 0) {
+            sendOack(master, true);
+        } else {
+            sendBlock(sentBlock);
+        }
+    }
+
+    //the client is done with the group - if it was the master, the next to have joined takes over. must hold the lock
+    private void leave(InetSocketAddress client) {
+        SessionRegistry.Entry entry = clients.remove(client);
+        if (entry == null) {
+            return;
+        }
+        entry.close();
+        if (client.equals(master)) {
+            nextMaster();
+        }
+    }
+
+    //must hold the lock
+    private void nextMaster() {
+        if (clients.isEmpty()) {
+            master = null;
+            finished = true;
+            return;
+        }
+        master = clients.keySet().iterator().next();
+        sentBlock = 0;
+        sentAt = -1;
+        timeouts = 0;
+        sendOack(master, true);
+    }
+
+    private void sendOack(InetSocketAddress client, boolean isMaster) {
+        Map<String, String> acknowledged = options.toMap();
+        acknowledged.put(TransferOptions.MULTICAST, String.format(
+                "%s,%d,%d", group.getAddress().getHostAddress(), group.getPort(), isMaster ? 1 : 0
+        ));
+        try {
+            UDPUtil.send(socket, UDPUtil.toDatagram(
+                    new OptionAcknowledgementPacket(acknowledged), client.getAddress(), client.getPort()
+            ));
+        } catch (IOException e) {
+            //sent again if the client doesn't answer
+        }
+    }
+
+    private void sendBlock(int number) {
+        int read;
+        try {
+            block.clear();
+            read = source.read((long) (number - 1) * options.getBlockSize(), block);
+        } catch (IOException e) {
+            System.out.println("error reading from file: " + e.getMessage());
+            finish(new ErrorPacket(ErrorType.UNDEFINED, "error reading from file"));
+            return;
+        }
+        try {
+            UDPUtil.send(socket, UDPUtil.toDatagram(
+                    new DataPacket((short) number, block.array(), read), group.getAddress(), group.getPort()
+            ));
+            metrics.dataSent(read);
+            bytesSent += read;
+        } catch (IOException e) {
+            //sent again when the master times out
+        }
+    }
+
+    //give up, telling every client why. must hold the lock
+    private void finish(ErrorPacket error) {
+        for (Map.Entry<InetSocketAddress, SessionRegistry.Entry> member : clients.entrySet()) {
+            InetSocketAddress client = member.getKey();
+            try {
+                UDPUtil.send(socket, UDPUtil.toDatagram(error, client.getAddress(), client.getPort()));
+                metrics.errorSent(error.getErrorType());
+            } catch (IOException ignore) {
+                //the client gives up on its own
+            }
+            member.getValue().close();
+        }
+        clients.clear();
+        master = null;
+        finished = true;
+    }
+
+}
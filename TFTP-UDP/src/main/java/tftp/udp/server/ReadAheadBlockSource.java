@@ -0,0 +1,297 @@
+package tftp.udp.server;
+
+import tftp.shared.BlockSource;
+import tftp.shared.BufferBlockSource;
+import tftp.udp.metrics.TransferMetrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A {@link BlockSource} which reads the blocks of a file ahead of the transfer on an I/O thread, so that a slow disk
+ * holds up the reads rather than the packets. Up to a fixed number of blocks past the last one taken are kept ready
+ * in a ring of buffers - taking a block frees its buffer for the block that many further on. The transfer's thread
+ * only ever copies out blocks which are ready, waiting only if the disk has fallen behind, which is counted as a
+ * stall. Reads are expected to be of whole blocks in order, as a transfer makes them - anything else is read
+ * straight from the file. Ring buffers are pooled between transfers.
+ */
+public class ReadAheadBlockSource implements BlockSource {
+
+    //the most buffers of each size kept in the pool
+    private static final int POOL_SIZE = 256;
+    private static final ConcurrentHashMap<Integer, ArrayBlockingQueue<ByteBuffer>> POOL = new ConcurrentHashMap<>();
+
+    //the I/O threads, shared by every transfer - one is only busy while a transfer's ring has room to fill
+    private static final ExecutorService IO = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "tftp-read-ahead");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final class Slot {
+
+        private final ByteBuffer buffer;
+        private long block = -1;
+        private int length;
+        private boolean ready = false;
+
+        private Slot(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+    }
+
+    private final BlockSource source;
+    private final int blockSize;
+    private final Executor executor;
+    private final TransferMetrics metrics;
+    //block i is kept in slot i % the number of slots
+    private final Slot[] ring;
+
+    //everything below is guarded by this object's lock
+    //the next block the transfer is expected to take, and the next block to be read ahead
+    private long taken = 0;
+    private long fetched = 0;
+    //the last block in the file, once it has been read
+    private long end = Long.MAX_VALUE;
+    private boolean pumping = false;
+    private boolean closed = false;
+    private IOException failure;
+    //run once the block waited on is ready, for transfers which can't wait on their own thread
+    private long waitingFor = -1;
+    private Runnable waiter;
+    //the last block counted as a stall, so it isn't counted again as a hit once it's ready
+    private long stalled = -1;
+
+
+    public ReadAheadBlockSource(BlockSource source, int blockSize, int depth, Executor executor,
+                                TransferMetrics metrics) {
+        this.source = source;
+        this.blockSize = blockSize;
+        this.executor = executor;
+        this.metrics = metrics;
+        this.ring = new Slot[depth];
+        for (int i = 0; i < depth; ++i) {
+            ring[i] = new Slot(allocate(blockSize));
+        }
+        //start on the first blocks straight away, while the transfer is getting going
+        synchronized (this) {
+            pump();
+        }
+    }
+
+    //read ahead of the source by the given number of blocks on the shared I/O threads, unless there's no point - the
+    // source is already in memory, or depth is 0
+    public static BlockSource wrap(BlockSource source, int blockSize, int depth, TransferMetrics metrics) {
+        if (depth <= 0 || source instanceof BufferBlockSource) {
+            return source;
+        }
+        return new ReadAheadBlockSource(source, blockSize, depth, IO, metrics);
+    }
+
+    @Override
+    public int read(long offset, ByteBuffer buffer) throws IOException {
+        if (offset % blockSize != 0 || buffer.remaining() < blockSize) {
+            return source.read(offset, buffer);
+        }
+        long block = offset / blockSize;
+        Slot slot = ring[(int) (block % ring.length)];
+        int length;
+        synchronized (this) {
+            if (block < taken) {
+                //gone from the ring already
+                return source.read(offset, buffer);
+            }
+            skipTo(block);
+            boolean waited = false;
+            while (!(slot.ready && slot.block == block)) {
+                if (block > end) {
+                    return 0;
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                if (closed) {
+                    throw new IOException("source closed");
+                }
+                waited = true;
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted waiting for the disk");
+                }
+            }
+            if (stalled != block) {
+                if (waited) {
+                    metrics.readAheadStall();
+                } else {
+                    metrics.readAheadHit();
+                }
+            }
+
+            //the pump never touches a ready slot the transfer hasn't taken, so it can be copied outside the lock
+            length = slot.length;
+        }
+        slot.buffer.limit(length).position(0);
+        buffer.put(slot.buffer);
+
+        synchronized (this) {
+            taken = block + 1;
+            slot.ready = false;
+            pump();
+        }
+        return length;
+    }
+
+    @Override
+    public synchronized boolean whenReady(long offset, Runnable callback) {
+        long block = offset / blockSize;
+        if (offset % blockSize != 0 || block < taken) {
+            //read straight from the source
+            return source.whenReady(offset, callback);
+        }
+        if (block > end || failure != null || closed) {
+            //fails straight away
+            return true;
+        }
+        skipTo(block);
+        Slot slot = ring[(int) (block % ring.length)];
+        if (slot.ready && slot.block == block) {
+            return true;
+        }
+        if (stalled != block) {
+            stalled = block;
+            metrics.readAheadStall();
+        }
+        waitingFor = block;
+        waiter = callback;
+        return false;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return source.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        boolean idle;
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+            //the buffers can't go back to the pool while a read into one may still be running
+            while (pumping) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            idle = !pumping;
+        }
+        if (idle) {
+            for (Slot slot : ring) {
+                release(slot.buffer);
+            }
+        }
+        source.close();
+    }
+
+    //a transfer has jumped ahead of the blocks taken - carry on reading ahead from there instead
+    private void skipTo(long block) {
+        if (block > taken) {
+            taken = block;
+            if (!pumping && fetched < block) {
+                fetched = block;
+            }
+            pump();
+        }
+    }
+
+    //start reading ahead if there is room in the ring and nothing is reading already - must hold the lock
+    private void pump() {
+        if (!pumping && hasRoom()) {
+            pumping = true;
+            executor.execute(this::fill);
+        }
+    }
+
+    private boolean hasRoom() {
+        return !closed && failure == null && fetched <= end && fetched < taken + ring.length;
+    }
+
+    //read blocks into the ring until it's full or the file ends - only ever running on one thread at a time
+    private void fill() {
+        while (true) {
+            long block;
+            Slot slot;
+            synchronized (this) {
+                if (!hasRoom()) {
+                    pumping = false;
+                    notifyAll();
+                    return;
+                }
+                block = fetched;
+                slot = ring[(int) (block % ring.length)];
+                slot.ready = false;
+                slot.block = block;
+            }
+
+            int read = 0;
+            IOException error = null;
+            try {
+                slot.buffer.clear();
+                read = source.read(block * blockSize, slot.buffer);
+            } catch (IOException e) {
+                error = e;
+            }
+
+            Runnable callback = null;
+            synchronized (this) {
+                if (error != null) {
+                    failure = error;
+                } else {
+                    slot.length = read;
+                    slot.ready = true;
+                    ++fetched;
+                    if (read < blockSize) {
+                        end = block;
+                    }
+                }
+                if (waiter != null && (error != null || waitingFor <= block || end == block)) {
+                    callback = waiter;
+                    waiter = null;
+                }
+                notifyAll();
+                if (error != null) {
+                    pumping = false;
+                }
+            }
+            if (callback != null) {
+                callback.run();
+            }
+            if (error != null) {
+                return;
+            }
+        }
+    }
+
+    private static ByteBuffer allocate(int size) {
+        ArrayBlockingQueue<ByteBuffer> pooled = POOL.get(size);
+        ByteBuffer buffer = pooled != null ? pooled.poll() : null;
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(size);
+    }
+
+    private static void release(ByteBuffer buffer) {
+        buffer.clear();
+        POOL.computeIfAbsent(buffer.capacity(), size -> new ArrayBlockingQueue<>(POOL_SIZE)).offer(buffer);
+    }
+
+}
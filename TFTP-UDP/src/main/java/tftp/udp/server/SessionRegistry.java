@@ -0,0 +1,412 @@
+package tftp.udp.server;
+
+import tftp.shared.Configuration;
+import tftp.shared.ErrorType;
+import tftp.shared.packet.PacketType;
+import tftp.udp.metrics.TransferMetrics;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Every live transfer on a server, by client endpoint. A request from an endpoint which already has a transfer
+ * running is a re-sent copy of the request which started it, so is absorbed rather than starting the file again.
+ * Transfers remove themselves when they end - anything which goes quiet for twice the deadline has died without
+ * doing so, and is reaped. Thread-safe.
+ */
+public class SessionRegistry {
+
+    /**
+     * A live transfer. Reports to the server's metrics through the entry, which notes the activity so that a
+     * transfer still moving data is never reaped.
+     */
+    public static final class Entry implements TransferMetrics, AutoCloseable {
+
+        private final SessionRegistry registry;
+        private final long key;
+        private final InetAddress address;
+        private final int port;
+        private final TransferMetrics metrics;
+        //whatever is running the transfer, for engines which need to find it again
+        private final Object owner;
+        private volatile long lastActive = System.nanoTime();
+        //abandons the transfer once it has been reaped
+        private volatile Runnable reaper;
+        //lets go of whatever the transfer held once it has ended, run only the first time it's closed
+        private volatile Runnable closer;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Entry(SessionRegistry registry, long key, InetAddress address, int port, Object owner) {
+            this.registry = registry;
+            this.key = key;
+            this.address = address;
+            this.port = port;
+            this.metrics = registry.metrics;
+            this.owner = owner;
+        }
+
+        public Object getOwner() {
+            return owner;
+        }
+
+        //run the given task if the transfer is reaped - it should make whatever is running the transfer give up
+        public void onReap(Runnable reaper) {
+            this.reaper = reaper;
+        }
+
+        //run the given task once the transfer has ended - when it's closed, including after it has been reaped
+        public void onClose(Runnable closer) {
+            this.closer = closer;
+        }
+
+        //note that the transfer is still alive
+        public void touch() {
+            lastActive = System.nanoTime();
+        }
+
+        //the transfer has ended
+        @Override
+        public void close() {
+            registry.entries.remove(key, this);
+            Runnable task = closer;
+            if (task != null && closed.compareAndSet(false, true)) {
+                task.run();
+            }
+        }
+
+        private boolean isFor(InetAddress address, int port) {
+            return this.port == port && this.address.equals(address);
+        }
+
+        @Override
+        public void transferStarted(PacketType request) {
+            touch();
+            metrics.transferStarted(request);
+        }
+
+        @Override
+        public void transferFinished(PacketType request, long bytes, long nanos) {
+            metrics.transferFinished(request, bytes, nanos);
+        }
+
+        @Override
+        public void dataSent(int bytes) {
+            touch();
+            metrics.dataSent(bytes);
+        }
+
+        @Override
+        public void dataReceived(int bytes) {
+            touch();
+            metrics.dataReceived(bytes);
+        }
+
+        @Override
+        public void retransmitted() {
+            metrics.retransmitted();
+        }
+
+        @Override
+        public void timedOut() {
+            metrics.timedOut();
+        }
+
+        @Override
+        public void fastRetransmit() {
+            metrics.fastRetransmit();
+        }
+
+        @Override
+        public void windowPeaked(int blocks) {
+            metrics.windowPeaked(blocks);
+        }
+
+        @Override
+        public void invalidPacket() {
+            metrics.invalidPacket();
+        }
+
+        @Override
+        public void readAheadHit() {
+            metrics.readAheadHit();
+        }
+
+        @Override
+        public void readAheadStall() {
+            metrics.readAheadStall();
+        }
+
+        @Override
+        public void errorSent(ErrorType type) {
+            metrics.errorSent(type);
+        }
+
+        @Override
+        public void errorReceived(ErrorType type) {
+            metrics.errorReceived(type);
+        }
+
+    }
+
+    /**
+     * The entries by key, kept without boxing the keys. The table is split into stripes, each an open-addressed table
+     * with linear probing under a lock of its own, so transfers starting and ending on different threads rarely meet.
+     */
+    private static final class Table {
+
+        private static final int STRIPES = 16;
+        private static final int INITIAL_CAPACITY = 16;
+
+        private final Stripe[] stripes = new Stripe[STRIPES];
+
+        private Table() {
+            for (int i = 0; i < STRIPES; ++i) {
+                stripes[i] = new Stripe();
+            }
+        }
+
+        //the key's bits spread over the whole long - the top bits pick the stripe, the bottom bits the slot in it
+        private static long hash(long key) {
+            long mixed = key * 0x9e3779b97f4a7c15L;
+            return mixed ^ mixed >>> 29;
+        }
+
+        private Stripe stripe(long hash) {
+            return stripes[(int) (hash >>> 60)];
+        }
+
+        private Entry putIfAbsent(long key, Entry entry) {
+            long hash = hash(key);
+            return stripe(hash).putIfAbsent(key, hash, entry);
+        }
+
+        private Entry get(long key) {
+            long hash = hash(key);
+            return stripe(hash).get(key, hash);
+        }
+
+        private void remove(long key, Entry entry) {
+            long hash = hash(key);
+            stripe(hash).remove(key, hash, entry);
+        }
+
+        private int size() {
+            int size = 0;
+            for (Stripe stripe : stripes) {
+                size += stripe.size();
+            }
+            return size;
+        }
+
+        //take out every entry with no activity since the given time, adding them to the list
+        private void removeIdleSince(long since, List<Entry> removed) {
+            for (Stripe stripe : stripes) {
+                stripe.removeIdleSince(since, removed);
+            }
+        }
+
+    }
+
+    private static final class Stripe {
+
+        //keys and their entries side by side, a null entry marking a free slot. never more than half full
+        private long[] keys = new long[Table.INITIAL_CAPACITY];
+        private Entry[] values = new Entry[Table.INITIAL_CAPACITY];
+        private int count = 0;
+
+        private synchronized Entry get(long key, long hash) {
+            int slot = find(key, hash);
+            return slot < 0 ? null : values[slot];
+        }
+
+        private synchronized Entry putIfAbsent(long key, long hash, Entry entry) {
+            int mask = keys.length - 1;
+            int slot = (int) hash & mask;
+            while (values[slot] != null) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = entry;
+            if (++count * 2 > keys.length) {
+                grow();
+            }
+            return null;
+        }
+
+        private synchronized void remove(long key, long hash, Entry entry) {
+            int slot = find(key, hash);
+            if (slot >= 0 && values[slot] == entry) {
+                delete(slot);
+            }
+        }
+
+        private synchronized int size() {
+            return count;
+        }
+
+        private synchronized void removeIdleSince(long since, List<Entry> removed) {
+            int first = removed.size();
+            for (Entry entry : values) {
+                if (entry != null && entry.lastActive - since <= 0) {
+                    removed.add(entry);
+                }
+            }
+            //deleting moves entries along, so they're found by key afterwards rather than taken out during the scan
+            for (int i = first; i < removed.size(); ++i) {
+                Entry entry = removed.get(i);
+                delete(find(entry.key, Table.hash(entry.key)));
+            }
+        }
+
+        //the slot holding the key, or -1. must hold the lock
+        private int find(long key, long hash) {
+            int mask = keys.length - 1;
+            for (int slot = (int) hash & mask; values[slot] != null; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        //empty the slot, moving back any entries after it which would otherwise no longer be found. must hold the lock
+        private void delete(int slot) {
+            int mask = keys.length - 1;
+            values[slot] = null;
+            --count;
+            int next = slot;
+            while (true) {
+                next = (next + 1) & mask;
+                if (values[next] == null) {
+                    return;
+                }
+                //an entry stays put if its home slot is after the gap, up to where it is now
+                int home = (int) Table.hash(keys[next]) & mask;
+                boolean stays = slot <= next ? slot < home && home <= next : slot < home || home <= next;
+                if (!stays) {
+                    keys[slot] = keys[next];
+                    values[slot] = values[next];
+                    values[next] = null;
+                    slot = next;
+                }
+            }
+        }
+
+        //must hold the lock
+        private void grow() {
+            long[] oldKeys = keys;
+            Entry[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new Entry[oldValues.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldValues.length; ++i) {
+                if (oldValues[i] != null) {
+                    int slot = (int) Table.hash(oldKeys[i]) & mask;
+                    while (values[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+    }
+
+    private final Table entries = new Table();
+    private final TransferMetrics metrics;
+    private ScheduledExecutorService reaper;
+
+
+    //entries report transfer events on to the given metrics
+    public SessionRegistry(TransferMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    //the key for a client endpoint - an IPv4 address and port packed together exactly, or for IPv6 the address folded
+    // down to fit alongside the port with the top bit set so the two never meet
+    public static long key(InetAddress address, int port) {
+        byte[] bytes = address.getAddress();
+        if (address instanceof Inet4Address) {
+            long ip = (bytes[0] & 0xffL) << 24 | (bytes[1] & 0xffL) << 16 | (bytes[2] & 0xffL) << 8 | (bytes[3] & 0xffL);
+            return ip << 16 | port;
+        }
+        long hash = 0;
+        for (byte b : bytes) {
+            hash = hash * 0x100000001b3L ^ (b & 0xff);
+        }
+        return Long.MIN_VALUE | (hash & 0x7fff_ffff_ffffL) << 16 | port;
+    }
+
+    //record a new transfer with the client, returning null if one is already running. the owner is kept with the entry
+    // for the engine's own use
+    public Entry register(InetAddress address, int port, Object owner) {
+        long key = key(address, port);
+        Entry entry = new Entry(this, key, address, port, owner);
+        Entry existing = entries.putIfAbsent(key, entry);
+        if (existing == null) {
+            return entry;
+        }
+        if (existing.isFor(address, port)) {
+            return null;
+        }
+        //two IPv6 endpoints with the same key - very unlikely, so rather than chain them, let the second go untracked
+        return new Entry(this, key, address, port, owner);
+    }
+
+    //the transfer running with the client, if any
+    public Entry get(InetAddress address, int port) {
+        Entry entry = entries.get(key(address, port));
+        return entry != null && entry.isFor(address, port) ? entry : null;
+    }
+
+    //the number of transfers running
+    public int size() {
+        return entries.size();
+    }
+
+    //remove every transfer which has gone twice the deadline without any activity, and have it abandoned
+    public void reap() {
+        long idle = 2L * Configuration.DEADLINE * 1_000_000L;
+        List<Entry> reaped = new ArrayList<>();
+        entries.removeIdleSince(System.nanoTime() - idle, reaped);
+        //abandoned outside the table's locks, as abandoning a transfer may close other entries
+        for (Entry entry : reaped) {
+            System.out.println("reaping idle transfer with " + entry.address + ":" + entry.port);
+            Runnable task = entry.reaper;
+            if (task != null) {
+                task.run();
+            }
+        }
+    }
+
+    //reap idle transfers in the background every deadline
+    public synchronized void startReaping() {
+        if (reaper != null) {
+            return;
+        }
+        reaper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "tftp-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleWithFixedDelay(this::reap, Configuration.DEADLINE, Configuration.DEADLINE, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopReaping() {
+        if (reaper != null) {
+            reaper.shutdownNow();
+            reaper = null;
+        }
+    }
+
+}
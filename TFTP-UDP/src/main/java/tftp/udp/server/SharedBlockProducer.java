@@ -0,0 +1,348 @@
+package tftp.udp.server;
+
+import tftp.shared.BlockSource;
+import tftp.shared.Configuration;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+
+/**
+ * Reads one version of a file for every transfer reading it at once, so that a crowd of clients fetching the same
+ * file costs one read from the disk rather than one each. The file is read in chunks into read-only buffers, which
+ * every transfer's {@link Reader} copies its blocks from. A chunk is kept until every reader attached has moved past
+ * it, so readers going at different speeds share it - up to a limit on the chunks kept, beyond which a reader far
+ * behind the others reads again for itself. A reader going back to a chunk it has moved past, to re-send a block,
+ * reads the block straight from the file. The producer is counted by its readers, and closes the file once the last
+ * one is closed. A transfer which mustn't wait on the disk asks {@link Reader#whenReady} first, which has the chunks
+ * it needs read on an I/O thread instead. Thread-safe.
+ */
+public class SharedBlockProducer {
+
+    //the size of each chunk read from the file
+    private static final int CHUNK_SIZE = 256 * 1024;
+    //the most chunks kept for the readers behind
+    private static final int MAX_CHUNKS = 64;
+
+    //the I/O threads reading chunks for readers which can't wait on their own thread, shared by every producer
+    private static final ExecutorService IO = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "tftp-shared-read");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final class Chunk {
+
+        //the number of readers which haven't moved past the chunk yet
+        private int pending;
+        //the contents, read by the first reader to need them
+        private final FutureTask<ByteBuffer> contents;
+
+        private Chunk(int pending, FutureTask<ByteBuffer> contents) {
+            this.pending = pending;
+            this.contents = contents;
+        }
+
+    }
+
+    private final Path path;
+    private final FileChannel channel;
+    //identifies the version of the file being read - its modification time, size and (where there is one) file key
+    private final Object version;
+    //the size of that version, from when it was opened - what a transfer is told it will be sent (RFC 2349)
+    private final long size;
+    //told once the last reader is closed
+    private final Consumer<SharedBlockProducer> release;
+
+    //everything below is guarded by this object's lock
+    private final List<Reader> readers = new ArrayList<>();
+    private final Map<Long, Chunk> chunks = new HashMap<>();
+    private boolean closed = false;
+
+
+    private SharedBlockProducer(Path path, FileChannel channel, Object version, long size,
+                                Consumer<SharedBlockProducer> release) {
+        this.path = path;
+        this.channel = channel;
+        this.version = version;
+        this.size = size;
+        this.release = release;
+    }
+
+    //open the file at the path, which is identified by the given version of the given size - the release is run once
+    // the producer's last reader is closed
+    static SharedBlockProducer open(Path path, Object version, long size, Consumer<SharedBlockProducer> release)
+            throws IOException {
+        return new SharedBlockProducer(path, FileChannel.open(path, StandardOpenOption.READ), version, size, release);
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    Object getVersion() {
+        return version;
+    }
+
+    //a new reader starting from the beginning of the file, or null if the last reader has already been closed
+    synchronized Reader attach() {
+        if (closed) {
+            return null;
+        }
+        Reader reader = new Reader();
+        readers.add(reader);
+        //it has yet to pass every chunk
+        for (Chunk chunk : chunks.values()) {
+            ++chunk.pending;
+        }
+        return reader;
+    }
+
+    //the chunk with the given index for the reader, which is done with every chunk before it - null if it's already
+    // moved past this one. the contents are read by whoever runs them first
+    private synchronized FutureTask<ByteBuffer> acquire(Reader reader, long index) {
+        if (index < reader.next) {
+            return null;
+        }
+        for (long passed = reader.next; passed < index; ++passed) {
+            pass(passed);
+        }
+        reader.next = index;
+        return chunk(index);
+    }
+
+    //the chunk with the given index, which the reader will need after the one it's on - must hold the lock
+    private FutureTask<ByteBuffer> chunk(long index) {
+        Chunk chunk = chunks.get(index);
+        if (chunk != null) {
+            return chunk.contents;
+        }
+        FutureTask<ByteBuffer> contents = new FutureTask<>(() -> load(index));
+        int pending = 0;
+        for (Reader other : readers) {
+            if (other.next <= index) {
+                ++pending;
+            }
+        }
+        if (chunks.size() >= MAX_CHUNKS) {
+            //keep whichever chunks the most readers still need - readers left behind read again for themselves
+            Map.Entry<Long, Chunk> least = null;
+            for (Map.Entry<Long, Chunk> entry : chunks.entrySet()) {
+                if (least == null || entry.getValue().pending < least.getValue().pending) {
+                    least = entry;
+                }
+            }
+            if (least.getValue().pending < pending) {
+                chunks.remove(least.getKey());
+            }
+        }
+        if (chunks.size() < MAX_CHUNKS) {
+            chunks.put(index, new Chunk(pending, contents));
+        }
+        return contents;
+    }
+
+    //the chunk after the one the reader is on, for a block which runs on into it
+    private synchronized FutureTask<ByteBuffer> following(Reader reader, long index) {
+        return index < reader.next ? null : chunk(index);
+    }
+
+    //a reader has moved past the chunk - must hold the lock
+    private void pass(long index) {
+        Chunk chunk = chunks.get(index);
+        if (chunk != null && --chunk.pending <= 0) {
+            chunks.remove(index);
+        }
+    }
+
+    //a chunk couldn't be read - drop it, so that the next reader to need it tries again
+    private synchronized void failed(long index, FutureTask<ByteBuffer> contents) {
+        Chunk chunk = chunks.get(index);
+        if (chunk != null && chunk.contents == contents) {
+            chunks.remove(index);
+        }
+    }
+
+    private void detach(Reader reader) throws IOException {
+        synchronized (this) {
+            if (!readers.remove(reader)) {
+                return;
+            }
+            Iterator<Map.Entry<Long, Chunk>> iterator = chunks.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Long, Chunk> entry = iterator.next();
+                if (entry.getKey() >= reader.next && --entry.getValue().pending <= 0) {
+                    iterator.remove();
+                }
+            }
+            if (!readers.isEmpty()) {
+                return;
+            }
+            closed = true;
+            chunks.clear();
+        }
+        release.accept(this);
+        channel.close();
+    }
+
+    private ByteBuffer load(long index) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        long offset = index * CHUNK_SIZE;
+        //the file could be shorter by now, in which case the end of the stream ends the read early
+        while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) != -1) {
+            //keep reading
+        }
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * A single transfer's view of the file, which is read by the producer. Like any source it is expected to be used
+     * by one transfer, but it can be read from more than one thread at a time, as when reading ahead.
+     */
+    public class Reader implements BlockSource {
+
+        //the first chunk the reader may still need - it's done with every chunk before this one
+        private long next = 0;
+        //the chunk most recently copied from, and a view of it to copy through
+        private long viewIndex = -1;
+        private ByteBuffer view;
+
+
+        private Reader() {
+        }
+
+        @Override
+        public synchronized int read(long offset, ByteBuffer buffer) throws IOException {
+            int total = 0;
+            //a block can span the end of one chunk and the start of the next
+            while (buffer.hasRemaining()) {
+                long position = offset + total;
+                long index = position / CHUNK_SIZE;
+                ByteBuffer chunk = chunk(index);
+                if (chunk == null) {
+                    //moved past the chunk already - read the rest straight from the file
+                    return total + readFile(position, buffer);
+                }
+                int start = (int) (position - index * CHUNK_SIZE);
+                if (start >= chunk.limit()) {
+                    //the end of the file
+                    break;
+                }
+                int length = Math.min(buffer.remaining(), chunk.limit() - start);
+                chunk.limit(start + length).position(start);
+                buffer.put(chunk);
+                chunk.clear();
+                total += length;
+                if (chunk.capacity() < CHUNK_SIZE) {
+                    break;
+                }
+            }
+            return total;
+        }
+
+        //a view of the chunk with the given index, or null if the reader has moved past it
+        private ByteBuffer chunk(long index) throws IOException {
+            if (index == viewIndex) {
+                return view;
+            }
+            FutureTask<ByteBuffer> contents = acquire(this, index);
+            if (contents == null) {
+                return null;
+            }
+            //read outside of the producer's lock, so that readers of other chunks carry on meanwhile - any other
+            // readers of this chunk wait for the one read
+            contents.run();
+            try {
+                //a view of its own, so that the position and limit can be moved to copy from it
+                view = contents.get().slice();
+                viewIndex = index;
+                return view;
+            } catch (ExecutionException e) {
+                failed(index, contents);
+                throw e.getCause() instanceof IOException
+                        ? (IOException) e.getCause()
+                        : new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted waiting for the disk");
+            }
+        }
+
+        private int readFile(long offset, ByteBuffer buffer) throws IOException {
+            int total = 0;
+            //a single read can return less than asked for, so keep reading until the buffer is full or the file ends
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, offset + total);
+                if (read == -1) {
+                    break;
+                }
+                total += read;
+            }
+            return total;
+        }
+
+        //ready if the chunks a block from the offset would be copied from have been read, or it would be read straight
+        // from the file. if not, they are read on an I/O thread, which runs the callback once they have been
+        @Override
+        public synchronized boolean whenReady(long offset, Runnable callback) {
+            long index = offset / CHUNK_SIZE;
+            //the largest block can run on into the next chunk, unless the file ends first
+            long last = Math.max(Math.min(offset + Configuration.MAX_BLOCK_SIZE, size) - 1, offset) / CHUNK_SIZE;
+            if (index == viewIndex && last == index) {
+                return true;
+            }
+            FutureTask<ByteBuffer> first = index == viewIndex ? null : acquire(this, index);
+            FutureTask<ByteBuffer> second = last == index ? null : following(this, last);
+            if ((first == null || first.isDone()) && (second == null || second.isDone())) {
+                return true;
+            }
+            IO.execute(() -> {
+                await(first);
+                await(second);
+                callback.run();
+            });
+            return false;
+        }
+
+        //read the chunk if nobody has yet, and wait for it - a failure is left for the read to find
+        private void await(FutureTask<ByteBuffer> contents) {
+            if (contents == null) {
+                return;
+            }
+            contents.run();
+            try {
+                contents.get();
+            } catch (ExecutionException ignore) {
+                //reported by the read
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        //the size the file had when it was opened, rather than asking the disk again
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public void close() throws IOException {
+            detach(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,363 @@
+package tftp.udp.server;
+
+import tftp.shared.BlockSink;
+import tftp.shared.BlockSource;
+import tftp.shared.ErrorType;
+import tftp.shared.Configuration;
+import tftp.shared.Mode;
+import tftp.shared.Pacer;
+import tftp.shared.StagedBlockSink;
+import tftp.shared.TFTPException;
+import tftp.shared.TransferOptions;
+import tftp.shared.packet.*;
+import tftp.udp.UDPUtil;
+import tftp.udp.metrics.ServerMetrics;
+import tftp.udp.nio.EventLoop;
+import tftp.udp.nio.ReceiveSession;
+import tftp.udp.nio.SendSession;
+import tftp.udp.nio.Session;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An alternative engine to {@link TFTPUDPServer}, which drives every transfer from a small fixed number of event
+ * loops instead of a thread and socket per transfer. The first loop listens on the server port and hands each
+ * request to a loop chosen by the client's endpoint - the transfer is then carried out over that loop's socket.
+ * Requests from the same endpoint always go to the same loop, so a re-sent request finds the transfer it started.
+ * With more than one listener, that many loops are bound to the server port with SO_REUSEPORT and the kernel spreads
+ * clients between them - each listener hands requests only to the loops in its own shard, with a registry of its own.
+ */
+public class TFTPNIOServer extends Thread implements EventLoop.Handler {
+
+    //the threads which open the files for new transfers, shared by every server - one is only busy while a file is
+    // being opened
+    private static final ExecutorService OPENERS = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "tftp-open");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int port;
+    private final EventLoop[] loops;
+    private final BlockCache cache;
+    private final ServerMetrics metrics;
+    //the number of loops listening on the server port - loop i belongs to shard i % listeners
+    private final int listeners;
+    //every transfer running on the loops of each shard
+    private final SessionRegistry[] sessions;
+    //the limits on the transfers taken on
+    private final AdmissionController admission;
+    //the budget for data sent by every transfer together
+    private final Pacer pacer = new Pacer(Configuration.GLOBAL_RATE);
+
+    public TFTPNIOServer(int port, int loopCount, BlockCache cache) {
+        this(port, loopCount, cache, new ServerMetrics());
+    }
+
+    //as above, recording statistics for every transfer in the given metrics
+    public TFTPNIOServer(int port, int loopCount, BlockCache cache, ServerMetrics metrics) {
+        this(port, loopCount, cache, metrics, AdmissionController.unlimited());
+    }
+
+    //as above, refusing requests which would go over the admission controller's limits
+    public TFTPNIOServer(int port, int loopCount, BlockCache cache, ServerMetrics metrics,
+                         AdmissionController admission) {
+        this(port, loopCount, cache, metrics, admission, 1);
+    }
+
+    //as above, with the given number of loops listening on the port with SO_REUSEPORT. there are at least as many
+    // loops as listeners
+    public TFTPNIOServer(int port, int loopCount, BlockCache cache, ServerMetrics metrics,
+                         AdmissionController admission, int listeners) {
+        this.port = port;
+        this.loops = new EventLoop[Math.max(loopCount, listeners)];
+        this.cache = cache;
+        this.metrics = metrics;
+        this.admission = admission;
+        this.listeners = listeners;
+        this.sessions = new SessionRegistry[listeners];
+        for (int i = 0; i < listeners; ++i) {
+            sessions[i] = new SessionRegistry(metrics);
+        }
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void run() {
+        DatagramChannel[] channels = new DatagramChannel[loops.length];
+        try {
+            for (int i = 0; i < loops.length; ++i) {
+                //the listeners' channels are bound to the server port, the others to any free port - a transfer's
+                // port is its transfer ID, so doesn't have to be the one the request was sent to
+                channels[i] = i < listeners
+                        ? UDPUtil.bindChannel(port, listeners > 1)
+                        : UDPUtil.bindChannel(0, false);
+                loops[i] = new EventLoop("tftp-loop-" + i, channels[i], this, metrics);
+            }
+        } catch (IOException e) {
+            System.out.println("failed to start server: " + e);
+            for (DatagramChannel channel : channels) {
+                try {
+                    if (channel != null) {
+                        channel.close();
+                    }
+                } catch (IOException ignore) {
+                    //failed already
+                }
+            }
+            return;
+        }
+
+        for (EventLoop loop : loops) {
+            loop.start();
+        }
+        for (SessionRegistry registry : sessions) {
+            registry.startReaping();
+        }
+        try {
+            for (EventLoop loop : loops) {
+                loop.join();
+            }
+        } catch (InterruptedException e) {
+            shutdown();
+        } finally {
+            for (SessionRegistry registry : sessions) {
+                registry.stopReaping();
+            }
+        }
+    }
+
+    public void shutdown() {
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.shutdown();
+            }
+        }
+    }
+
+    @Override
+    public void onUnknownPacket(EventLoop loop, SocketAddress from, TFTPPacket packet) {
+        int shard = indexOf(loop);
+        if (shard >= listeners) {
+            //not a request and not part of any transfer on this port
+            sendError(loop, from, ErrorType.UNKNOWN_ID, "unknown transfer ID");
+            return;
+        }
+        SessionRegistry sessions = this.sessions[shard];
+
+        //if the packet is a RRQ or WRQ, hand it to the next loop to respond to the client, otherwise ignore
+        switch (packet.getPacketType()) {
+            case READ_REQUEST:
+            case WRITE_REQUEST:
+                InetAddress address = ((InetSocketAddress) from).getAddress();
+                int clientPort = ((InetSocketAddress) from).getPort();
+                EventLoop target = loopFor(shard, SessionRegistry.key(address, clientPort));
+                RequestPacket request = (RequestPacket) packet;
+                target.execute(() -> {
+                    //a re-sent request for a transfer which is already running on that loop
+                    if (target.hasSession(from)) {
+                        System.out.println("received duplicate request " + request + ", ignoring");
+                        return;
+                    }
+                    target.release(from);
+                    //registered before anything else, so that a request re-sent while the file is being opened - before
+                    // the session is on the loop - is dropped here rather than counted against the limits again
+                    SessionRegistry.Entry entry = sessions.register(address, clientPort, target);
+                    if (entry == null) {
+                        System.out.println("received duplicate request " + request + ", ignoring");
+                        return;
+                    }
+                    try {
+                        admission.admit(address);
+                    } catch (TFTPException e) {
+                        entry.close();
+                        System.out.println("refusing request " + request + ": " + e.getMessage());
+                        metrics.requestRejected();
+                        sendError(target, from, ErrorType.UNDEFINED, e.getMessage());
+                        return;
+                    }
+                    //opening the file waits on the disk, so is done off the loop, which carries on with its other
+                    // transfers meanwhile
+                    OPENERS.execute(() -> {
+                        Session session = createSession(target, from, request, entry);
+                        target.execute(() -> {
+                            if (session == null) {
+                                entry.close();
+                                admission.release(address);
+                                return;
+                            }
+                            entry.onReap(() -> target.execute(() -> target.abandon(session)));
+                            entry.transferStarted(request.getPacketType());
+                            target.register(session);
+                        });
+                    });
+                });
+                break;
+            default:
+                System.out.println("received packet " + packet + ", ignoring");
+                break;
+        }
+    }
+
+    @Override
+    public void onSessionFinished(EventLoop loop, Session session, TFTPException error) {
+        if (error != null) {
+            System.out.println(error.getMessage());
+        }
+        PacketType request = session instanceof SendSession ? PacketType.READ_REQUEST : PacketType.WRITE_REQUEST;
+        long millis = System.currentTimeMillis() - session.getStartTime();
+        metrics.transferFinished(request, error == null ? session.getBytesTransferred() : -1, millis * 1_000_000);
+
+        //only this loop registers transfers with the client, so the entry found is this session's
+        InetSocketAddress client = (InetSocketAddress) session.getRemoteAddress();
+        admission.release(client.getAddress());
+        SessionRegistry.Entry entry = sessions[indexOf(loop) % listeners].get(client.getAddress(), client.getPort());
+        if (entry != null && entry.getOwner() == loop) {
+            entry.close();
+        }
+    }
+
+    //the loop in the shard which carries out transfers with a client - always the same one for the same endpoint
+    private EventLoop loopFor(int shard, long key) {
+        long mixed = key * 0x9e3779b97f4a7c15L;
+        //the shard's loops are shard, shard + listeners, shard + 2 * listeners...
+        int count = (loops.length - shard + listeners - 1) / listeners;
+        return loops[shard + listeners * Math.floorMod((int) (mixed >>> 32), count)];
+    }
+
+    private int indexOf(EventLoop loop) {
+        for (int i = 0; i < loops.length; ++i) {
+            if (loops[i] == loop) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("not one of this server's loops");
+    }
+
+    //set up a session to respond to a request, or have the loop send the client an error and return null if it can't
+    // be served - runs on one of the openers, so the file can be opened and its first block read without holding up
+    // the loop
+    private Session createSession(EventLoop loop, SocketAddress client, RequestPacket request,
+                                  SessionRegistry.Entry entry) {
+        System.out.println("responding to request: " + request + " from client: " + client);
+
+        if (request.getMode() != Mode.OCTET) {
+            refuse(loop, client, ErrorType.UNDEFINED, "unsupported mode: " + request.getMode());
+            System.out.println("unsupported mode: " + request.getMode());
+            return null;
+        }
+
+        //accept whichever of the requested options the server supports
+        TransferOptions options = TransferOptions.negotiate(request.getOptions());
+
+        if (request instanceof ReadRequestPacket) {
+            BlockSource source;
+            try {
+                source = cache.open(request.getFileName(), options.getBlockSize(), entry);
+            } catch (FileNotFoundException e) {
+                refuse(loop, client, ErrorType.FILE_NOT_FOUND, "file not found: " + request.getFileName());
+                return null;
+            }
+
+            TFTPPacket firstPacket;
+            if (options.isEmpty()) {
+                //no options - respond with the first data packet straight away
+                ByteBuffer first = ByteBuffer.allocate(options.getBlockSize());
+                try {
+                    int read = source.read(0, first);
+                    firstPacket = new DataPacket((short) 1, first.array(), read);
+                } catch (IOException e) {
+                    System.out.println("error reading from file");
+                    try {
+                        source.close();
+                    } catch (IOException ignore) {
+                        //already failed
+                    }
+                    return null;
+                }
+            } else {
+                //answer a request for the size of the file (RFC 2349)
+                try {
+                    if (options.getTransferSize() != -1) {
+                        options.setTransferSize(source.size());
+                    }
+                } catch (IOException | TFTPException e) {
+                    System.out.println("error reading from file");
+                    try {
+                        source.close();
+                    } catch (IOException ignore) {
+                        //already failed
+                    }
+                    return null;
+                }
+                //respond with an OACK, which the client acknowledges with ACK 0 before data is sent
+                firstPacket = new OptionAcknowledgementPacket(options.toMap());
+            }
+            return new SendSession(loop, client, options, firstPacket, source, entry, Pacer.forSession(pacer));
+
+        } else {
+            //checked against the free space when the client gives the file's size (RFC 2349)
+            long size = TransferOptions.requestedTransferSize(request.getOptions());
+            BlockSink sink;
+            try {
+                Path path = Paths.get(request.getFileName());
+                //written under a temporary name, and only put in place once the whole file is received
+                sink = StagedBlockSink.fits(path, size)
+                        ? StagedBlockSink.open(path, size, Configuration.DURABILITY)
+                        : null;
+            } catch (IOException | InvalidPathException e) {
+                System.out.println("unable to write to: " + request.getFileName());
+                refuse(loop, client, ErrorType.FILE_NOT_FOUND, "unable to write to: " + request.getFileName());
+                return null;
+            }
+            if (sink == null) {
+                //refused before any of the file is sent
+                System.out.println("not enough space for: " + request.getFileName());
+                refuse(loop, client, ErrorType.DISK_FULL, "not enough space for " + size + " bytes");
+                return null;
+            }
+
+            //acknowledge with ACK 0, or if options were accepted, an OACK in its place
+            TFTPPacket firstPacket = options.isEmpty()
+                    ? new AcknowledgementPacket((short) 0)
+                    : new OptionAcknowledgementPacket(options.toMap());
+            String fileName = request.getFileName();
+            return new ReceiveSession(loop, client, options, firstPacket, sink, entry) {
+                @Override
+                protected void fileClosed() {
+                    //the file may have been replaced, so whatever was cached is stale
+                    cache.invalidate(fileName);
+                }
+            };
+        }
+    }
+
+    //send the client an error from the loop's thread
+    private void refuse(EventLoop loop, SocketAddress client, ErrorType type, String message) {
+        loop.execute(() -> sendError(loop, client, type, message));
+    }
+
+    private void sendError(EventLoop loop, SocketAddress client, ErrorType type, String message) {
+        metrics.errorSent(type);
+        try {
+            loop.send(new ErrorPacket(type, message), client);
+        } catch (IOException e) {
+            System.out.println("error: " + e.getMessage());
+        }
+    }
+
+}
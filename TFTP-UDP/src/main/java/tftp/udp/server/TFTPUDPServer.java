@@ -0,0 +1,765 @@
+package tftp.udp.server;
+
+import tftp.shared.BlockSink;
+import tftp.shared.BlockSource;
+import tftp.shared.Configuration;
+import tftp.shared.Durability;
+import tftp.shared.ErrorType;
+import tftp.shared.Mode;
+import tftp.shared.Pacer;
+import tftp.shared.Rollover;
+import tftp.shared.StagedBlockSink;
+import tftp.shared.TFTPException;
+import tftp.shared.TransferOptions;
+import tftp.shared.packet.*;
+import tftp.udp.UDPUtil;
+import tftp.udp.metrics.PrometheusEndpoint;
+import tftp.udp.metrics.ServerMetrics;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.management.JMException;
+
+public class TFTPUDPServer extends Thread {
+
+    private final int port;
+    private final ExecutorService executor;
+    private final BlockCache cache;
+    private final ServerMetrics metrics;
+    //the number of sockets listening for requests on the port
+    private final int listeners;
+    //every transfer running, so that re-sent requests don't start a transfer again - one registry per listener, as
+    // requests from a client always arrive at the same listener
+    private final SessionRegistry[] sessions;
+    //the limits on the transfers taken on
+    private final AdmissionController admission;
+    //the budget for data sent by every transfer together
+    private final Pacer pacer = new Pacer(Configuration.GLOBAL_RATE);
+    //the sessions sending files to clients asking for multicast, null if the server doesn't do multicast
+    private final MulticastGroups multicast;
+    //the sockets listening for requests, once the server has started
+    private volatile DatagramSocket[] sockets;
+
+    public TFTPUDPServer(int port) {
+        this(port, Executors.newCachedThreadPool(), new BlockCache(Configuration.DEFAULT_CACHE_SIZE));
+    }
+
+    //the executor runs a handler for each transfer, which blocks on its own socket for the length of the transfer.
+    // files read are served from the cache where possible
+    public TFTPUDPServer(int port, ExecutorService executor, BlockCache cache) {
+        this(port, executor, cache, new ServerMetrics());
+    }
+
+    //as above, recording statistics for every transfer in the given metrics
+    public TFTPUDPServer(int port, ExecutorService executor, BlockCache cache, ServerMetrics metrics) {
+        this(port, executor, cache, metrics, AdmissionController.unlimited());
+    }
+
+    //as above, refusing requests which would go over the admission controller's limits
+    public TFTPUDPServer(int port, ExecutorService executor, BlockCache cache, ServerMetrics metrics,
+                         AdmissionController admission) {
+        this(port, executor, cache, metrics, admission, 1);
+    }
+
+    //as above, listening with the given number of sockets bound to the port with SO_REUSEPORT, each with a thread of
+    // its own receiving requests - the kernel spreads clients between them
+    public TFTPUDPServer(int port, ExecutorService executor, BlockCache cache, ServerMetrics metrics,
+                         AdmissionController admission, int listeners) {
+        this(port, executor, cache, metrics, admission, listeners, null);
+    }
+
+    //as above, sending files by multicast (RFC 2090) to clients asking for it with the given groups
+    public TFTPUDPServer(int port, ExecutorService executor, BlockCache cache, ServerMetrics metrics,
+                         AdmissionController admission, int listeners, MulticastGroups multicast) {
+        this.port = port;
+        this.executor = executor;
+        this.cache = cache;
+        this.metrics = metrics;
+        this.admission = admission;
+        this.listeners = listeners;
+        this.multicast = multicast;
+        this.sessions = new SessionRegistry[listeners];
+        for (int i = 0; i < listeners; ++i) {
+            sessions[i] = new SessionRegistry(metrics);
+        }
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    //an executor which starts a virtual thread per transfer - blocked handlers then only cost a small heap-allocated
+    // stack rather than a platform thread. virtual threads are only available from JDK 21, so the factory method is
+    // looked up reflectively to keep building for older releases
+    public static ExecutorService newVirtualThreadExecutor() throws TFTPException {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new TFTPException("virtual threads require JDK 21 or later");
+        }
+    }
+
+    @Override
+    public void run() {
+        //create the datagram sockets and bind them to the given port
+        DatagramSocket[] sockets = new DatagramSocket[listeners];
+        try {
+            for (int i = 0; i < listeners; ++i) {
+                sockets[i] = UDPUtil.bindSocket(port, listeners > 1);
+            }
+        } catch (SocketException e) {
+            System.out.println("failed to start server: " + e);
+            for (DatagramSocket socket : sockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+            return;
+        }
+        this.sockets = sockets;
+
+        //every listener but the first gets a thread of its own, the first uses this one
+        Thread[] threads = new Thread[listeners];
+        for (int i = 1; i < listeners; ++i) {
+            int shard = i;
+            threads[i] = new Thread(() -> listen(sockets[shard], sessions[shard]), "tftp-listener-" + i);
+            threads[i].start();
+        }
+        listen(sockets[0], sessions[0]);
+        try {
+            for (int i = 1; i < listeners; ++i) {
+                threads[i].join();
+            }
+        } catch (InterruptedException e) {
+            shutdown();
+        }
+    }
+
+    //receive requests on the socket until it's closed, starting a handler for each
+    private void listen(DatagramSocket socket, SessionRegistry sessions) {
+        try {
+            //allocate a buffer for holding received datagrams
+            byte[] buffer = new byte[Configuration.MAX_PACKET_LENGTH];
+            DatagramPacket receivePacket = new DatagramPacket(buffer, buffer.length);
+
+            sessions.startReaping();
+
+            //loop forever until forcibly stopped or shut down
+            while (true) {
+
+                try {
+                    //receive a datagram packet from the network - this method blocks
+                    socket.receive(receivePacket);
+                } catch (IOException e) {
+                    if (socket.isClosed()) {
+                        return;
+                    }
+                    System.out.println("error receiving packet: " + e);
+                    continue;
+                }
+
+                try {
+                    //extract the TFTP packet from the datagram
+                    TFTPPacket packet = UDPUtil.fromDatagram(receivePacket);
+
+                    //if the packet is a RRQ or WRQ, submit a job to the executor
+                    // to respond to the client, otherwise ignore.
+                    SessionRegistry.Entry session;
+                    switch (packet.getPacketType()) {
+                        case READ_REQUEST:
+                            session = admit(socket, sessions, receivePacket, packet);
+                            if (session != null) {
+                                executor.submit(new ServerRRQHandler(
+                                        receivePacket.getAddress(),
+                                        receivePacket.getPort(),
+                                        (ReadRequestPacket) packet,
+                                        cache,
+                                        session,
+                                        Pacer.forSession(pacer),
+                                        multicast
+                                ));
+                            }
+                            break;
+                        case WRITE_REQUEST:
+                            session = admit(socket, sessions, receivePacket, packet);
+                            if (session != null) {
+                                executor.submit(new ServerWRQHandler(
+                                        receivePacket.getAddress(),
+                                        receivePacket.getPort(),
+                                        (WriteRequestPacket) packet,
+                                        cache,
+                                        session
+                                ));
+                            }
+                            break;
+                        default:
+                            System.out.println("received packet " + packet + ", ignoring");
+                            break;
+                    }
+
+                } catch (TFTPException e) {
+                    System.out.println("error parsing received packet: " + e);
+                }
+            }
+
+        } finally {
+            sessions.stopReaping();
+        }
+    }
+
+    //record a transfer with the client who sent the request, or return null if it isn't to go ahead - either one is
+    // already running, in which case the request was re-sent before the response arrived and is ignored, or it would
+    // go over a limit, in which case the client is sent an error
+    private SessionRegistry.Entry admit(DatagramSocket socket, SessionRegistry sessions, DatagramPacket datagram,
+                                        TFTPPacket request) {
+        //the datagram is reused for the next packet received, so the hook releasing the slot needs its own copy
+        InetAddress client = datagram.getAddress();
+        int clientPort = datagram.getPort();
+        SessionRegistry.Entry session = sessions.register(client, clientPort, null);
+        if (session == null) {
+            //a client in a multicast group whose OACK went missing asks again - answer it from the group
+            if (multicast != null && request instanceof ReadRequestPacket
+                    && TransferOptions.requestsMulticast(((ReadRequestPacket) request).getOptions())
+                    && multicast.resend(new InetSocketAddress(client, clientPort))) {
+                return null;
+            }
+            System.out.println("received duplicate request " + request + ", ignoring");
+            return null;
+        }
+        try {
+            admission.admit(client);
+            //the transfer counts against the limits until its entry is closed - by the handler, or for a client handed
+            // to a multicast group, once it leaves the group
+            session.onClose(() -> admission.release(client));
+            return session;
+        } catch (TFTPException e) {
+            session.close();
+            System.out.println("refusing request " + request + ": " + e.getMessage());
+            metrics.requestRejected();
+            metrics.errorSent(ErrorType.UNDEFINED);
+            try {
+                ErrorPacket error = new ErrorPacket(ErrorType.UNDEFINED, e.getMessage());
+                UDPUtil.send(socket, UDPUtil.toDatagram(error, client, clientPort));
+            } catch (IOException ignore) {
+                //the client will re-send the request and be refused again
+            }
+            return null;
+        }
+    }
+
+    //stop listening for requests - transfers already running are left to finish
+    public void shutdown() {
+        DatagramSocket[] sockets = this.sockets;
+        if (sockets != null) {
+            for (DatagramSocket socket : sockets) {
+                socket.close();
+            }
+        }
+        executor.shutdown();
+    }
+
+    public static void main(String[] args) {
+        int port = Configuration.DEFAULT_SERVER_PORT;
+        String engine = "threaded";
+        String threads = "platform";
+        int loops = Runtime.getRuntime().availableProcessors();
+        long cacheSize = Configuration.DEFAULT_CACHE_SIZE;
+        int metricsPort = 0;
+        int listeners = 1;
+        int maxSessions = AdmissionController.UNLIMITED;
+        int maxPerClient = AdmissionController.UNLIMITED;
+        double requestRate = AdmissionController.UNLIMITED;
+
+        //parse the optional arguments
+        for (int i = 0; i < args.length - 1; ++i) {
+            if (args[i].equals("-port")) {
+                try {
+                    port = Integer.parseInt(args[i + 1]);
+                } catch (NumberFormatException nfe) {
+                    System.out.println("invalid port: " + args[i + 1]);
+                    return;
+                }
+            } else if (args[i].equals("-timeout")) {
+                try {
+                    Configuration.TIMEOUT = Integer.parseInt(args[i + 1]);
+                } catch (NumberFormatException nfe) {
+                    System.out.println("invalid timeout: " + args[i + 1]);
+                    return;
+                }
+            } else if (args[i].equals("-deadline")) {
+                //how long a transfer can go without progress before it is abandoned
+                try {
+                    Configuration.DEADLINE = Integer.parseInt(args[i + 1]);
+                } catch (NumberFormatException nfe) {
+                    System.out.println("invalid deadline: " + args[i + 1]);
+                    return;
+                }
+            } else if (args[i].equals("-engine")) {
+                //threaded: a thread and socket per transfer, nio: every transfer driven by a few event loops
+                engine = args[i + 1];
+            } else if (args[i].equals("-threads")) {
+                //for the threaded engine - platform: a cached pool of platform threads, virtual: a virtual thread
+                // per transfer
+                threads = args[i + 1];
+            } else if (args[i].equals("-cache-size")) {
+                //the number of bytes of file contents to keep in memory, 0 to always read from the disk
+                try {
+                    cacheSize = Long.parseLong(args[i + 1]);
+                } catch (NumberFormatException nfe) {
+                    System.out.println("invalid cache size: " + args[i + 1]);
+                    return;
+                }
+            } else if (args[i].equals("-listeners")) {
+                //the number of sockets bound to the port with SO_REUSEPORT, each receiving requests on its own thread
+                // (Linux and other platforms supporting SO_REUSEPORT only)
+                try {
+                    listeners = Integer.parseInt(args[i + 1]);
+                } catch (NumberFormatException nfe) {
+                    System.out.println("invalid number of listeners: " + args[i + 1]);
+                    return;
+                }
+            } else if (args[i].equals("-read-ahead")) {
+                //the number of blocks read ahead of each transfer from files which aren't cached
+                try {
+                    Configuration.READ_AHEAD = Integer.parseInt(args[i + 1]);
+                } catch (NumberFormatException nfe) {
+                    System.out.println("invalid read-ahead: " + args[i + 1]);
+                    return;
+                }
+            } else if (args[i].equals("-max-in-flight")) {
+                //the most bytes a transfer sending a file with the window size option keeps in flight, 0 to keep to
+                // the window size negotiated
+                try {
+                    Configuration.MAX_IN_FLIGHT = Long.parseLong(args[i + 1]);
+                } catch (NumberFormatException nfe) {
+                    System.out.println("invalid max-in-flight: " + args[i + 1]);
+                    return;
+                }
+            } else if (args[i].equals("-durability")) {
+                //how far a received file is synced to the disk before the final block is acknowledged - none, end
+                // (once the file is written) or periodic (every -sync-interval ms, and at the end)
+                try {
+                    Configuration.DURABILITY = Durability.valueOf(args[i + 1].toUpperCase());
+                } catch (IllegalArgumentException iae) {
+                    System.out.println("invalid durability: " + args[i + 1]);
+                    return;
+                }
+            } else if (args[i].equals("-sync-interval")) {
+                try {
+                    Configuration.SYNC_INTERVAL = Integer.parseInt(args[i + 1]);
+                } catch (NumberFormatException nfe) {
+                    System.out.println("invalid sync interval: " + args[i + 1]);
+                    return;
+                }
+            } else if (args[i].equals("-rollover")) {
+                //the block number which follows block 65535 (0 or 1) in transfers which don't ask for one with the
+                // rollover option
+                try {
+                    Configuration.ROLLOVER = Rollover.fromValue(Integer.parseInt(args[i + 1]));
+                } catch (NumberFormatException nfe) {
+                    System.out.println("invalid rollover: " + args[i + 1]);
+                    return;
+                } catch (TFTPException e) {
+                    System.out.println(e.getMessage());
+                    return;
+                }
+            } else if (args[i].equals("-multicast")) {
+                //send files by multicast (RFC 2090) to clients asking for it, to the given group address, with each
+                // file on its own port counting up from the given one (1758 if not given) - threaded engine only
+                String group = args[i + 1];
+                int colon = group.lastIndexOf(':');
+                try {
+                    if (colon != -1 && group.indexOf(':') == colon) {
+                        Configuration.MULTICAST_PORT = Integer.parseInt(group.substring(colon + 1));
+                        group = group.substring(0, colon);
+                    }
+                    Configuration.MULTICAST_ADDRESS = InetAddress.getByName(group);
+                } catch (NumberFormatException | UnknownHostException e) {
+                    System.out.println("invalid multicast group: " + args[i + 1]);
+                    return;
+                }
+            } else if (args[i].equals("-multicast-interface")) {
+                //the network interface to send multicast on, by name
+                Configuration.MULTICAST_INTERFACE = args[i + 1];
+            } else if (args[i].equals("-loops")) {
+                try {
+                    loops = Integer.parseInt(args[i + 1]);
+                } catch (NumberFormatException nfe) {
+                    System.out.println("invalid number of loops: " + args[i + 1]);
+                    return;
+                }
+            } else if (args[i].equals("-metrics-port")) {
+                //serve metrics for Prometheus on this port of the loopback address, 0 not to
+                try {
+                    metricsPort = Integer.parseInt(args[i + 1]);
+                } catch (NumberFormatException nfe) {
+                    System.out.println("invalid metrics port: " + args[i + 1]);
+                    return;
+                }
+            } else if (args[i].equals("-rate")) {
+                //the most bytes per second of data sent by a single transfer, 0 for no limit
+                try {
+                    Configuration.SESSION_RATE = Long.parseLong(args[i + 1]);
+                } catch (NumberFormatException nfe) {
+                    System.out.println("invalid rate: " + args[i + 1]);
+                    return;
+                }
+            } else if (args[i].equals("-global-rate")) {
+                //the most bytes per second of data sent by every transfer together, 0 for no limit
+                try {
+                    Configuration.GLOBAL_RATE = Long.parseLong(args[i + 1]);
+                } catch (NumberFormatException nfe) {
+                    System.out.println("invalid global rate: " + args[i + 1]);
+                    return;
+                }
+            } else if (args[i].equals("-max-sessions")) {
+                //the most transfers running at once, 0 for no limit
+                try {
+                    maxSessions = Integer.parseInt(args[i + 1]);
+                } catch (NumberFormatException nfe) {
+                    System.out.println("invalid maximum sessions: " + args[i + 1]);
+                    return;
+                }
+            } else if (args[i].equals("-max-per-client")) {
+                //the most transfers running at once with any one client address, 0 for no limit
+                try {
+                    maxPerClient = Integer.parseInt(args[i + 1]);
+                } catch (NumberFormatException nfe) {
+                    System.out.println("invalid maximum sessions per client: " + args[i + 1]);
+                    return;
+                }
+            } else if (args[i].equals("-request-rate")) {
+                //the requests per second allowed from any one client address, 0 for no limit
+                try {
+                    requestRate = Double.parseDouble(args[i + 1]);
+                } catch (NumberFormatException nfe) {
+                    System.out.println("invalid request rate: " + args[i + 1]);
+                    return;
+                }
+            }
+        }
+
+        //run the server using the chosen engine, passing the port as an argument
+        BlockCache cache = new BlockCache(cacheSize);
+        ServerMetrics metrics = new ServerMetrics();
+        AdmissionController admission = new AdmissionController(maxSessions, maxPerClient, requestRate);
+        Thread server;
+        switch (engine) {
+            case "threaded":
+                ExecutorService executor;
+                if (threads.equals("virtual")) {
+                    try {
+                        executor = newVirtualThreadExecutor();
+                    } catch (TFTPException e) {
+                        System.out.println(e.getMessage());
+                        return;
+                    }
+                } else if (threads.equals("platform")) {
+                    executor = Executors.newCachedThreadPool();
+                } else {
+                    System.out.println("unknown thread type: " + threads);
+                    return;
+                }
+                MulticastGroups multicast;
+                try {
+                    multicast = MulticastGroups.fromConfiguration();
+                } catch (TFTPException e) {
+                    System.out.println(e.getMessage());
+                    return;
+                }
+                server = new TFTPUDPServer(
+                        port, executor, cache, metrics, admission, Math.max(listeners, 1), multicast
+                );
+                break;
+            case "nio":
+                if (Configuration.MULTICAST_ADDRESS != null) {
+                    System.out.println("multicast is only supported by the threaded engine, ignoring");
+                }
+                server = new TFTPNIOServer(
+                        port, Math.max(loops, 1), cache, metrics, admission, Math.max(listeners, 1)
+                );
+                break;
+            default:
+                System.out.println("unknown engine: " + engine);
+                return;
+        }
+
+        //the metrics are always available over JMX, and over HTTP if asked for
+        try {
+            metrics.register("tftp:type=ServerMetrics,port=" + port);
+        } catch (JMException e) {
+            System.out.println("failed to register metrics: " + e);
+        }
+        if (metricsPort != 0) {
+            try {
+                new PrometheusEndpoint(metricsPort, metrics).start();
+            } catch (IOException e) {
+                System.out.println("failed to start metrics endpoint: " + e);
+                return;
+            }
+        }
+        server.start();
+    }
+
+    public static class ServerWRQHandler implements Runnable {
+
+        private InetAddress clientAddress;
+        private int clientPort;
+        private final WriteRequestPacket wrq;
+        private final BlockCache cache;
+        //the transfer's entry in the server's registry, which it reports to
+        private final SessionRegistry.Entry session;
+
+
+        public ServerWRQHandler(InetAddress clientAddress, int clientPort, WriteRequestPacket wrq, BlockCache cache,
+                                SessionRegistry.Entry session) {
+            this.clientAddress = clientAddress;
+            this.clientPort = clientPort;
+            this.wrq = wrq;
+            this.cache = cache;
+            this.session = session;
+        }
+
+        @Override
+        public void run() {
+            System.out.println("responding to request: " + wrq + " from client: " + clientAddress + ":" + clientPort);
+
+            try (DatagramSocket socket = UDPUtil.openSocket()) {
+                //if the transfer dies without making progress, closing the socket makes the handler give up
+                session.onReap(socket::close);
+
+                if (wrq.getMode() != Mode.OCTET) {
+                    ErrorPacket error = new ErrorPacket(ErrorType.UNDEFINED, "unsupported mode: " + wrq.getMode());
+                    UDPUtil.send(socket, UDPUtil.toDatagram(error, clientAddress, clientPort));
+                    session.errorSent(ErrorType.UNDEFINED);
+                    System.out.println("unsupported mode: " + wrq.getMode());
+                    return;
+                }
+
+                //accept whichever of the requested options the server supports
+                TransferOptions options = TransferOptions.negotiate(wrq.getOptions());
+
+                //the size the client says the file is (RFC 2349), if it does - a file too big for the disk is refused
+                // before any of it is sent
+                long size = TransferOptions.requestedTransferSize(wrq.getOptions());
+                BlockSink sink;
+                try {
+                    Path path = Paths.get(wrq.getFileName());
+                    //write to a temporary file alongside the one specified in the write request, which only takes
+                    // its place once the whole file is received - anyone reading it meanwhile sees the old one
+                    sink = StagedBlockSink.fits(path, size)
+                            ? StagedBlockSink.open(path, size, Configuration.DURABILITY)
+                            : null;
+                } catch (IOException | InvalidPathException e) {
+                    //some sort of error occurred in opening the file, print a message and send that
+                    // same message to the client in an error packet
+                    System.out.println("unable to write to: " + wrq.getFileName());
+                    ErrorPacket errorPacket = new ErrorPacket(
+                            ErrorType.FILE_NOT_FOUND,
+                            "unable to write to: " + wrq.getFileName()
+                    );
+                    DatagramPacket datagram = UDPUtil.toDatagram(errorPacket, clientAddress, clientPort);
+                    UDPUtil.send(socket, datagram);
+                    session.errorSent(ErrorType.FILE_NOT_FOUND);
+                    return;
+                }
+                if (sink == null) {
+                    //refused before any of the file is sent
+                    System.out.println("not enough space for: " + wrq.getFileName());
+                    ErrorPacket errorPacket = new ErrorPacket(
+                            ErrorType.DISK_FULL,
+                            "not enough space for " + size + " bytes"
+                    );
+                    UDPUtil.send(socket, UDPUtil.toDatagram(errorPacket, clientAddress, clientPort));
+                    session.errorSent(ErrorType.DISK_FULL);
+                    return;
+                }
+
+                try {
+                    //receive the file from the client, specifying the first packet to be acknowledging packet 0
+                    // as specified in the RFC, or if options were accepted, an OACK in its place (RFC 2347)
+                    TFTPPacket firstPacket = options.isEmpty()
+                            ? new AcknowledgementPacket((short) 0)
+                            : new OptionAcknowledgementPacket(options.toMap());
+                    session.transferStarted(PacketType.WRITE_REQUEST);
+                    long start = System.nanoTime();
+                    long bytes = -1;
+                    try {
+                        bytes = UDPUtil.FileReceiver.receive(
+                                socket,
+                                firstPacket,
+                                clientAddress,
+                                clientPort,
+                                sink,
+                                options,
+                                session
+                        );
+                    } finally {
+                        session.transferFinished(PacketType.WRITE_REQUEST, bytes, System.nanoTime() - start);
+                    }
+
+                } catch (TFTPException e) {
+                    //an error occurred in receiving the file, just print an error and end this handler
+                    System.out.println(e.getMessage());
+                } finally {
+                    //discards the temporary file if the transfer didn't complete
+                    try {
+                        sink.close();
+                    } catch (IOException e) {
+                        System.out.println("error closing file: " + e.getMessage());
+                    }
+                    //the file may have been replaced, so whatever was cached is stale
+                    cache.invalidate(wrq.getFileName());
+                }
+
+            } catch (IOException e) {
+                //couldn't even open a socket - give up
+                // also could happen if the output stream failed to close, but that doesn't really matter
+                System.out.println("failed to receive: " + e.getMessage());
+            } finally {
+                session.close();
+            }
+        }
+
+    }
+
+    public static class ServerRRQHandler implements Runnable {
+
+        private final InetAddress clientAddress;
+        private final int clientPort;
+        private final ReadRequestPacket rrq;
+        private final BlockCache cache;
+        //the transfer's entry in the server's registry, which it reports to
+        private final SessionRegistry.Entry session;
+        //spaces out the data sent to keep under the rate limits
+        private final Pacer pacer;
+        //the sessions sending files by multicast, null if the server doesn't
+        private final MulticastGroups multicast;
+
+        public ServerRRQHandler(InetAddress clientAddress, int clientPort, ReadRequestPacket rrq, BlockCache cache,
+                                SessionRegistry.Entry session, Pacer pacer) {
+            this(clientAddress, clientPort, rrq, cache, session, pacer, null);
+        }
+
+        //as above, sending the file by multicast if the client asks for it
+        public ServerRRQHandler(InetAddress clientAddress, int clientPort, ReadRequestPacket rrq, BlockCache cache,
+                                SessionRegistry.Entry session, Pacer pacer, MulticastGroups multicast) {
+            this.clientAddress = clientAddress;
+            this.clientPort = clientPort;
+            this.rrq = rrq;
+            this.cache = cache;
+            this.session = session;
+            this.pacer = pacer;
+            this.multicast = multicast;
+        }
+
+        @Override
+        public void run() {
+            System.out.println("responding to request: " + rrq + " from client: " + clientAddress + ":" + clientPort);
+
+            boolean grouped = false;
+            try (DatagramSocket socket = UDPUtil.openSocket()) {
+                //if the transfer dies without making progress, closing the socket makes the handler give up
+                session.onReap(socket::close);
+
+                if (rrq.getMode() != Mode.OCTET) {
+                    ErrorPacket error = new ErrorPacket(ErrorType.UNDEFINED, "unsupported mode: " + rrq.getMode());
+                    UDPUtil.send(socket, UDPUtil.toDatagram(error, clientAddress, clientPort));
+                    session.errorSent(ErrorType.UNDEFINED);
+                    System.out.println("unsupported mode: " + rrq.getMode());
+                    return;
+                }
+
+                //accept whichever of the requested options the server supports
+                TransferOptions options = TransferOptions.negotiate(rrq.getOptions());
+
+                //a client asking for multicast joins the group the file is being sent to, unless the file can't be
+                // sent that way, in which case it's sent to the client on its own. the group closes the client's entry
+                // once it leaves, which may be long after this handler is done
+                if (multicast != null && TransferOptions.requestsMulticast(rrq.getOptions())) {
+                    try {
+                        if (multicast.serve(rrq.getFileName(), new InetSocketAddress(clientAddress, clientPort),
+                                options, cache, session)) {
+                            grouped = true;
+                            return;
+                        }
+                    } catch (FileNotFoundException e) {
+                        sendFileNotFound(socket);
+                        return;
+                    }
+                }
+
+                try (BlockSource source = cache.open(rrq.getFileName(), options.getBlockSize(), session)) {
+                    //answer a request for the size of the file (RFC 2349)
+                    if (options.getTransferSize() != -1) {
+                        options.setTransferSize(source.size());
+                    }
+                    session.transferStarted(PacketType.READ_REQUEST);
+                    long start = System.nanoTime();
+                    long bytes = -1;
+                    try {
+                        if (options.isEmpty()) {
+                            //no options - respond with the first data packet straight away
+                            ByteBuffer first = ByteBuffer.allocate(options.getBlockSize());
+                            int read = source.read(0, first);
+                            DataPacket data = new DataPacket((short) 1, first.array(), read);
+
+                            bytes = UDPUtil.FileSender.send(
+                                    socket, data, clientAddress, clientPort, source, (short) 1, options, session, pacer
+                            );
+                        } else {
+                            //respond with an OACK, which the client acknowledges with ACK 0 before data is sent
+                            OptionAcknowledgementPacket oack = new OptionAcknowledgementPacket(options.toMap());
+
+                            bytes = UDPUtil.FileSender.send(
+                                    socket, oack, clientAddress, clientPort, source, (short) 0, options, session, pacer
+                            );
+                        }
+                    } finally {
+                        session.transferFinished(PacketType.READ_REQUEST, bytes, System.nanoTime() - start);
+                    }
+
+                } catch (FileNotFoundException e) {
+                    sendFileNotFound(socket);
+                } catch (TFTPException e) {
+                    System.out.println(e.getMessage());
+                }
+
+            } catch (TFTPException e) {
+                System.out.println(e.getMessage());
+            } catch (IOException e) {
+                System.out.println("error: " + e.getMessage());
+            } finally {
+                if (!grouped) {
+                    session.close();
+                }
+            }
+        }
+
+        private void sendFileNotFound(DatagramSocket socket) throws IOException {
+            ErrorPacket errorPacket = new ErrorPacket(
+                    ErrorType.FILE_NOT_FOUND,
+                    "file not found: " + rrq.getFileName()
+            );
+            DatagramPacket sendPacket = UDPUtil.toDatagram(errorPacket, clientAddress, clientPort);
+            UDPUtil.send(socket, sendPacket);
+            session.errorSent(ErrorType.FILE_NOT_FOUND);
+        }
+
+    }
+}
@@ -0,0 +1,390 @@
+package tftp.udp.nio;
+
+import tftp.shared.Configuration;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Method;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+
+/**
+ * A {@link DatagramTransport} which sends every datagram queued with one sendmmsg call, and receives a batch with one
+ * recvmmsg call, on the channel's own socket - called through the foreign function API, so only built on JDK 22 or
+ * later. Only available on 64-bit Linux, and only if the runtime lets the socket be reached - the JVM must be run with
+ * --add-exports java.base/sun.nio.ch=ALL-UNNAMED, and should be with --enable-native-access=ALL-UNNAMED. Otherwise
+ * {@link #open(DatagramChannel)} returns null and the loop uses a {@link ChannelTransport}. The channel is still
+ * registered with the loop's selector as before - only the reads and writes go around it.
+ */
+public class MmsgTransport implements DatagramTransport {
+
+    //the layout of struct mmsghdr on 64-bit Linux - a struct msghdr followed by the length sent or received
+    private static final long MMSGHDR_SIZE = 64;
+    private static final long MSG_NAME = 0;
+    private static final long MSG_NAMELEN = 8;
+    private static final long MSG_IOV = 16;
+    private static final long MSG_IOVLEN = 24;
+    private static final long MSG_CONTROL = 32;
+    private static final long MSG_CONTROLLEN = 40;
+    private static final long MSG_FLAGS = 48;
+    private static final long MSG_LEN = 56;
+    //struct iovec, and struct sockaddr_storage - big enough for any address
+    private static final long IOVEC_SIZE = 16;
+    private static final long SOCKADDR_SIZE = 128;
+
+    private static final int AF_INET = 2;
+    private static final int AF_INET6 = 10;
+    private static final int MSG_DONTWAIT = 0x40;
+    private static final int EINTR = 4;
+    private static final int EAGAIN = 11;
+
+    //ports and addresses in a sockaddr are in network byte order
+    private static final ValueLayout.OfShort NETWORK_SHORT = JAVA_SHORT.withOrder(ByteOrder.BIG_ENDIAN);
+
+    //where errno is left by a call, and the calls themselves - null if they can't be made here
+    private static final long ERRNO_OFFSET;
+    private static final MethodHandle SENDMMSG;
+    private static final MethodHandle RECVMMSG;
+    private static final MethodHandle GETSOCKNAME;
+
+    static {
+        long errnoOffset = -1;
+        MethodHandle sendmmsg = null;
+        MethodHandle recvmmsg = null;
+        MethodHandle getsockname = null;
+        if (System.getProperty("os.name", "").startsWith("Linux") && ADDRESS.byteSize() == 8) {
+            try {
+                Linker linker = Linker.nativeLinker();
+                SymbolLookup libc = linker.defaultLookup();
+                Linker.Option errno = Linker.Option.captureCallState("errno");
+                errnoOffset = Linker.Option.captureStateLayout()
+                        .byteOffset(MemoryLayout.PathElement.groupElement("errno"));
+                sendmmsg = linker.downcallHandle(
+                        libc.find("sendmmsg").orElseThrow(),
+                        FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT),
+                        errno
+                );
+                recvmmsg = linker.downcallHandle(
+                        libc.find("recvmmsg").orElseThrow(),
+                        FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT, ADDRESS),
+                        errno
+                );
+                getsockname = linker.downcallHandle(
+                        libc.find("getsockname").orElseThrow(),
+                        FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, ADDRESS)
+                );
+            } catch (RuntimeException e) {
+                //not available here
+                sendmmsg = null;
+            }
+        }
+        ERRNO_OFFSET = errnoOffset;
+        SENDMMSG = sendmmsg;
+        RECVMMSG = recvmmsg;
+        GETSOCKNAME = getsockname;
+    }
+
+    private final DatagramChannel channel;
+    private final int fd;
+    //whether the socket is IPv6, in which case IPv4 addresses are sent to as IPv4-mapped ones
+    private final boolean ipv6;
+    //the native memory below, freed when the transport is closed
+    private final Arena arena;
+    private final MemorySegment errno;
+
+    //the datagrams queued, as the buffer and the position and limit it had when queued
+    private final ByteBuffer[] queued = new ByteBuffer[Configuration.IO_BATCH_SIZE];
+    private final int[] positions = new int[Configuration.IO_BATCH_SIZE];
+    private final int[] limits = new int[Configuration.IO_BATCH_SIZE];
+    private final SocketAddress[] addresses = new SocketAddress[Configuration.IO_BATCH_SIZE];
+    private int count = 0;
+
+    //the headers, data vectors and addresses handed to the kernel for each direction, and native copies of datagrams
+    // in buffers on the heap, which the kernel can't be given
+    private final Batch sending;
+    private final Batch receiving;
+
+
+    private MmsgTransport(DatagramChannel channel, int fd, boolean ipv6, Arena arena) {
+        this.channel = channel;
+        this.fd = fd;
+        this.ipv6 = ipv6;
+        this.arena = arena;
+        this.errno = arena.allocate(Linker.Option.captureStateLayout());
+        this.sending = new Batch(arena);
+        this.receiving = new Batch(arena);
+    }
+
+    //a transport for the channel, which must be non-blocking, or null if it can't be used here
+    public static DatagramTransport open(DatagramChannel channel) {
+        if (SENDMMSG == null) {
+            return null;
+        }
+        int fd;
+        try {
+            //only reachable if sun.nio.ch has been exported
+            Method getFDVal = Class.forName("sun.nio.ch.SelChImpl").getMethod("getFDVal");
+            fd = (int) getFDVal.invoke(channel);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+        Arena arena = Arena.ofShared();
+        try {
+            MemorySegment name = arena.allocate(SOCKADDR_SIZE, 8);
+            MemorySegment length = arena.allocate(JAVA_INT);
+            length.set(JAVA_INT, 0, (int) SOCKADDR_SIZE);
+            if ((int) GETSOCKNAME.invokeExact(fd, name, length) != 0) {
+                arena.close();
+                return null;
+            }
+            return new MmsgTransport(channel, fd, name.get(JAVA_SHORT, 0) == AF_INET6, arena);
+        } catch (Throwable t) {
+            arena.close();
+            return null;
+        }
+    }
+
+    @Override
+    public int receive(ByteBuffer[] buffers, SocketAddress[] from) throws IOException {
+        int batch = Math.min(buffers.length, Configuration.IO_BATCH_SIZE);
+        for (int i = 0; i < batch; ++i) {
+            buffers[i].clear();
+            MemorySegment data = buffers[i].isDirect()
+                    ? MemorySegment.ofBuffer(buffers[i])
+                    : receiving.staging(i, buffers[i].remaining());
+            receiving.prepare(i, data, SOCKADDR_SIZE);
+        }
+
+        int received;
+        try {
+            received = (int) RECVMMSG.invokeExact(errno, fd, receiving.headers, batch, MSG_DONTWAIT,
+                    MemorySegment.NULL);
+        } catch (Throwable t) {
+            throw new IOException("recvmmsg failed", t);
+        }
+        if (received < 0) {
+            int error = errno.get(JAVA_INT, ERRNO_OFFSET);
+            if (error == EAGAIN || error == EINTR) {
+                return 0;
+            }
+            throw new IOException("recvmmsg failed: errno " + error);
+        }
+
+        for (int i = 0; i < received; ++i) {
+            int length = receiving.length(i);
+            if (!buffers[i].isDirect()) {
+                MemorySegment.copy(receiving.staging(i, length), 0, MemorySegment.ofBuffer(buffers[i]), 0, length);
+            }
+            buffers[i].limit(length).position(0);
+            from[i] = receiving.address(i);
+        }
+        return received;
+    }
+
+    @Override
+    public void send(ByteBuffer packet, SocketAddress address) throws IOException {
+        if (count == queued.length) {
+            flush();
+        }
+        queued[count] = packet;
+        positions[count] = packet.position();
+        limits[count] = packet.limit();
+        addresses[count] = address;
+        ++count;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        //send everything even if one fails, then report the first failure
+        IOException failure = null;
+        int messages = 0;
+        for (int i = 0; i < count; ++i) {
+            ByteBuffer packet = queued[i];
+            packet.limit(limits[i]).position(positions[i]);
+            MemorySegment data;
+            if (packet.isDirect()) {
+                data = MemorySegment.ofBuffer(packet);
+            } else {
+                data = sending.staging(messages, packet.remaining());
+                MemorySegment.copy(MemorySegment.ofBuffer(packet), 0, data, 0, data.byteSize());
+            }
+            long nameLength = sending.putAddress(messages, (InetSocketAddress) addresses[i], ipv6);
+            if (nameLength < 0) {
+                if (failure == null) {
+                    failure = new IOException("can't send to " + addresses[i] + " from this socket");
+                }
+            } else {
+                sending.prepare(messages, data, nameLength);
+                ++messages;
+            }
+        }
+
+        int sent = 0;
+        while (sent < messages) {
+            int result;
+            try {
+                result = (int) SENDMMSG.invokeExact(errno, fd, sending.headers.asSlice(sent * MMSGHDR_SIZE),
+                        messages - sent, 0);
+            } catch (Throwable t) {
+                throw new IOException("sendmmsg failed", t);
+            }
+            if (result > 0) {
+                sent += result;
+                continue;
+            }
+            int error = errno.get(JAVA_INT, ERRNO_OFFSET);
+            if (error == EINTR) {
+                continue;
+            }
+            if (error == EAGAIN) {
+                //the socket buffer is full - the rest are dropped, the same as lost datagrams
+                break;
+            }
+            if (failure == null) {
+                failure = new IOException("sendmmsg failed: errno " + error);
+            }
+            //the first datagram left failed, so carry on from the one after
+            ++sent;
+        }
+
+        for (int i = 0; i < count; ++i) {
+            queued[i] = null;
+            addresses[i] = null;
+        }
+        count = 0;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            arena.close();
+        }
+    }
+
+    /**
+     * The native memory for a batch of datagrams in one direction.
+     */
+    private static class Batch {
+
+        private final Arena arena;
+        private final MemorySegment headers;
+        private final MemorySegment vectors;
+        private final MemorySegment names;
+        //copies of datagrams on the heap, allocated as needed
+        private final MemorySegment[] staging = new MemorySegment[Configuration.IO_BATCH_SIZE];
+
+        private Batch(Arena arena) {
+            this.arena = arena;
+            this.headers = arena.allocate(MMSGHDR_SIZE * Configuration.IO_BATCH_SIZE, 8);
+            this.vectors = arena.allocate(IOVEC_SIZE * Configuration.IO_BATCH_SIZE, 8);
+            this.names = arena.allocate(SOCKADDR_SIZE * Configuration.IO_BATCH_SIZE, 8);
+        }
+
+        //native memory for a copy of the given number of bytes of datagram i
+        private MemorySegment staging(int i, int length) {
+            if (staging[i] == null || staging[i].byteSize() < length) {
+                staging[i] = arena.allocate(Math.max(length, Configuration.MAX_BLOCK_SIZE + 4), 8);
+            }
+            return staging[i].asSlice(0, length);
+        }
+
+        //fill in header i for a datagram of the data, to or from the address in name i of the given length
+        private void prepare(int i, MemorySegment data, long nameLength) {
+            MemorySegment vector = vectors.asSlice(i * IOVEC_SIZE, IOVEC_SIZE);
+            vector.set(ADDRESS, 0, data);
+            vector.set(JAVA_LONG, 8, data.byteSize());
+            MemorySegment header = headers.asSlice(i * MMSGHDR_SIZE, MMSGHDR_SIZE);
+            header.set(ADDRESS, MSG_NAME, name(i));
+            header.set(JAVA_INT, MSG_NAMELEN, (int) nameLength);
+            header.set(ADDRESS, MSG_IOV, vector);
+            header.set(JAVA_LONG, MSG_IOVLEN, 1);
+            header.set(ADDRESS, MSG_CONTROL, MemorySegment.NULL);
+            header.set(JAVA_LONG, MSG_CONTROLLEN, 0);
+            header.set(JAVA_INT, MSG_FLAGS, 0);
+            header.set(JAVA_INT, MSG_LEN, 0);
+        }
+
+        //the number of bytes sent or received in datagram i
+        private int length(int i) {
+            return headers.get(JAVA_INT, i * MMSGHDR_SIZE + MSG_LEN);
+        }
+
+        private MemorySegment name(int i) {
+            return names.asSlice(i * SOCKADDR_SIZE, SOCKADDR_SIZE);
+        }
+
+        //write the address into name i for a socket of the given family, returning its length - -1 if an IPv6
+        // address can't be sent to from an IPv4 socket
+        private long putAddress(int i, InetSocketAddress address, boolean ipv6) {
+            MemorySegment name = name(i);
+            name.fill((byte) 0);
+            byte[] ip = address.getAddress().getAddress();
+            if (ipv6) {
+                name.set(JAVA_SHORT, 0, (short) AF_INET6);
+                name.set(NETWORK_SHORT, 2, (short) address.getPort());
+                if (ip.length == 4) {
+                    //IPv4-mapped - ::ffff:a.b.c.d
+                    name.set(JAVA_BYTE, 18, (byte) 0xff);
+                    name.set(JAVA_BYTE, 19, (byte) 0xff);
+                    MemorySegment.copy(ip, 0, name, JAVA_BYTE, 20, 4);
+                } else {
+                    MemorySegment.copy(ip, 0, name, JAVA_BYTE, 8, 16);
+                    name.set(JAVA_INT, 24, ((Inet6Address) address.getAddress()).getScopeId());
+                }
+                return 28;
+            }
+            if (ip.length != 4) {
+                return -1;
+            }
+            name.set(JAVA_SHORT, 0, (short) AF_INET);
+            name.set(NETWORK_SHORT, 2, (short) address.getPort());
+            MemorySegment.copy(ip, 0, name, JAVA_BYTE, 4, 4);
+            return 16;
+        }
+
+        //the address in name i, as DatagramChannel.receive would give it - IPv4-mapped addresses as IPv4
+        private SocketAddress address(int i) throws IOException {
+            MemorySegment name = name(i);
+            int family = name.get(JAVA_SHORT, 0);
+            int port = name.get(NETWORK_SHORT, 2) & 0xffff;
+            if (family == AF_INET) {
+                return new InetSocketAddress(InetAddress.getByAddress(name.asSlice(4, 4).toArray(JAVA_BYTE)), port);
+            }
+            if (family == AF_INET6) {
+                byte[] ip = name.asSlice(8, 16).toArray(JAVA_BYTE);
+                InetAddress address = InetAddress.getByAddress(ip);
+                int scope = name.get(JAVA_INT, 24);
+                if (scope != 0 && address instanceof Inet6Address) {
+                    address = Inet6Address.getByAddress(null, ip, scope);
+                }
+                return new InetSocketAddress(address, port);
+            }
+            throw new IOException("received from unknown address family " + family);
+        }
+
+    }
+
+}
@@ -0,0 +1,106 @@
+package tftp.shared;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CongestionWindowTest {
+
+    @Test
+    void slowStartUpToLimit() {
+        CongestionWindow window = new CongestionWindow(4, 64);
+        assertEquals(4, window.get());
+        assertTrue(window.isAdaptive());
+
+        //a block more for every block acknowledged - doubling each round trip
+        window.acknowledged(4);
+        assertEquals(8, window.get());
+        window.acknowledged(8);
+        assertEquals(16, window.get());
+
+        window.acknowledged(1000);
+        assertEquals(64, window.get());
+        assertEquals(64, window.getPeak());
+    }
+
+    @Test
+    void lossHalvesOncePerWindow() {
+        CongestionWindow window = new CongestionWindow(4, 64);
+        window.acknowledged(12);
+        assertEquals(16, window.get());
+
+        assertTrue(window.lost(10, 30));
+        assertEquals(8, window.get());
+        //another gap reported before everything sent at the time of the loss is acknowledged is the same loss
+        assertFalse(window.lost(20, 30));
+        assertEquals(8, window.get());
+        assertEquals(1, window.getLosses());
+
+        //past the threshold, the window grows by a block a round trip
+        window.acknowledged(8);
+        assertEquals(9, window.get());
+        window.acknowledged(4);
+        assertEquals(9, window.get());
+
+        //a loss after the recovery point halves it again
+        assertTrue(window.lost(31, 40));
+        assertEquals(4, window.get());
+        assertEquals(2, window.getLosses());
+    }
+
+    @Test
+    void neverBelowWindowSize() {
+        CongestionWindow window = new CongestionWindow(4, 64);
+        assertTrue(window.lost(0, 4));
+        assertEquals(4, window.get());
+        assertTrue(window.lost(5, 8));
+        assertEquals(4, window.get());
+    }
+
+    @Test
+    void timeoutRestartsFromWindowSize() {
+        CongestionWindow window = new CongestionWindow(4, 64);
+        window.acknowledged(28);
+        assertEquals(32, window.get());
+
+        window.timedOut(50);
+        assertEquals(4, window.get());
+        assertEquals(1, window.getTimeouts());
+        //losses reported for blocks sent before the timeout don't halve the window again
+        assertFalse(window.lost(40, 60));
+
+        //slow start again, up to half the window before the timeout, then a block a round trip
+        window.acknowledged(12);
+        assertEquals(16, window.get());
+        window.acknowledged(16);
+        assertEquals(17, window.get());
+        assertEquals(32, window.getPeak());
+    }
+
+    @Test
+    void forTransfer() throws Exception {
+        TransferOptions lockStep = new TransferOptions();
+        assertFalse(CongestionWindow.forTransfer(lockStep).isAdaptive());
+        assertEquals(1, CongestionWindow.forTransfer(lockStep).getLimit());
+
+        long maxInFlight = Configuration.MAX_IN_FLIGHT;
+        Configuration.MAX_IN_FLIGHT = 1024 * 1024;
+        try {
+            TransferOptions windowed = new TransferOptions();
+            windowed.setBlockSize(512);
+            windowed.setWindowSize(16);
+            CongestionWindow window = CongestionWindow.forTransfer(windowed);
+            assertEquals(16, window.get());
+            assertEquals(2048, window.getLimit());
+
+            //however small the blocks, the window has a limit of its own
+            windowed.setBlockSize(8);
+            assertEquals(4096, CongestionWindow.forTransfer(windowed).getLimit());
+        } finally {
+            Configuration.MAX_IN_FLIGHT = maxInFlight;
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+package tftp.shared;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PacerTest {
+
+    //a second for each packet, so that the schedule runs ahead of the clock however slowly the test runs
+    private static final long RATE = 1000;
+    private static final int PACKET = 1000;
+    private static final long SPACING = 1_000_000_000;
+
+    @Test
+    void unlimited() {
+        Pacer pacer = new Pacer(0);
+        assertFalse(pacer.isLimited());
+        long before = System.nanoTime();
+        //nothing is held back - every packet can go now
+        for (int i = 0; i < 1000; ++i) {
+            assertTrue(pacer.reserve(PACKET) <= System.nanoTime());
+            pacer.pace(PACKET);
+        }
+        assertTrue(System.nanoTime() - before < SPACING);
+    }
+
+    @Test
+    void packetsSpacedAtRate() {
+        Pacer pacer = new Pacer(RATE);
+        assertTrue(pacer.isLimited());
+        long first = pacer.reserve(PACKET);
+        assertEquals(first + SPACING, pacer.reserve(PACKET));
+        assertEquals(first + 2 * SPACING, pacer.reserve(PACKET));
+        //the time taken by a packet follows its length
+        assertEquals(first + 3 * SPACING, pacer.reserve(PACKET / 2));
+        assertEquals(first + 3 * SPACING + SPACING / 2, pacer.reserve(PACKET));
+    }
+
+    @Test
+    void parentSharedBetweenChildren() {
+        Pacer parent = new Pacer(RATE);
+        //the children have no limit of their own, but are limited by the parent's
+        Pacer first = new Pacer(0, parent);
+        Pacer second = new Pacer(0, parent);
+        assertTrue(first.isLimited());
+
+        long start = first.reserve(PACKET);
+        assertEquals(start + SPACING, second.reserve(PACKET));
+        assertEquals(start + 2 * SPACING, first.reserve(PACKET));
+    }
+
+    @Test
+    void slowerChildKeepsToOwnRate() {
+        Pacer parent = new Pacer(RATE);
+        Pacer child = new Pacer(RATE / 2, parent);
+        long start = child.reserve(PACKET);
+        assertEquals(start + 2 * SPACING, child.reserve(PACKET));
+        //the parent's clock follows on from the child's
+        assertEquals(start + 3 * SPACING, new Pacer(0, parent).reserve(PACKET));
+    }
+
+    @Test
+    void concurrentReservesTakeOneParentSlotEach() throws Exception {
+        Pacer parent = new Pacer(RATE);
+        //faster than the parent, so that threads racing on the child each hold a slot from the parent
+        Pacer child = new Pacer(RATE * 2, parent);
+        int threads = 8;
+        int reserves = 500;
+        List<Long> starts = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch ready = new CountDownLatch(1);
+        List<Thread> running = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            Thread thread = new Thread(() -> {
+                try {
+                    ready.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < reserves; ++i) {
+                    starts.add(child.reserve(PACKET));
+                }
+            });
+            thread.start();
+            running.add(thread);
+        }
+        ready.countDown();
+        for (Thread thread : running) {
+            thread.join();
+        }
+
+        //every packet has a slot of its own, and a thread losing a race on the child still uses the slot it was
+        // given by the parent rather than leaving a hole in the parent's schedule
+        List<Long> sorted = new ArrayList<>(starts);
+        Collections.sort(sorted);
+        assertEquals(threads * reserves, sorted.size());
+        for (int i = 1; i < sorted.size(); ++i) {
+            assertEquals(SPACING, sorted.get(i) - sorted.get(i - 1), "packets " + (i - 1) + " and " + i);
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package tftp.shared;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RttEstimatorTest {
+
+    private static final long MS = 1_000_000;
+
+    @Test
+    void initialTimeoutClamped() {
+        assertEquals(Configuration.MIN_TIMEOUT, new RttEstimator(1).getTimeout());
+        assertEquals(Configuration.MAX_TIMEOUT, new RttEstimator(Integer.MAX_VALUE).getTimeout());
+        assertEquals(-1, new RttEstimator(1000).getSmoothedRtt());
+    }
+
+    @Test
+    void samplesSmoothed() {
+        RttEstimator rtt = new RttEstimator(3000);
+        //the first sample sets the variation to half of it - 100 + 4 * 50
+        rtt.sample(100 * MS);
+        assertEquals(100.0, rtt.getSmoothedRtt());
+        assertEquals(300, rtt.getTimeout());
+
+        //variation (3 * 50 + 100) / 4 = 62.5, smoothed (7 * 100 + 200) / 8 = 112.5, so 362.5, rounded up
+        rtt.sample(200 * MS);
+        assertEquals(112.5, rtt.getSmoothedRtt());
+        assertEquals(363, rtt.getTimeout());
+    }
+
+    @Test
+    void shortRoundTripClamped() {
+        RttEstimator rtt = new RttEstimator(3000);
+        rtt.sample(MS);
+        assertEquals(Configuration.MIN_TIMEOUT, rtt.getTimeout());
+    }
+
+    @Test
+    void backoffDoublesUntilCleared() {
+        RttEstimator rtt = new RttEstimator(3000);
+        rtt.sample(100 * MS);
+        rtt.backoff();
+        assertEquals(600, rtt.getTimeout());
+        rtt.backoff();
+        assertEquals(1200, rtt.getTimeout());
+
+        //new data got through - back to the measured timeout, with no sample needed
+        rtt.clearBackoff();
+        assertEquals(300, rtt.getTimeout());
+    }
+
+    @Test
+    void backoffStopsAtMaximum() {
+        RttEstimator rtt = new RttEstimator(3000);
+        for (int i = 0; i < 100; ++i) {
+            rtt.backoff();
+        }
+        assertEquals(Configuration.MAX_TIMEOUT, rtt.getTimeout());
+        //not doubled past the maximum, so a single clear undoes it
+        rtt.clearBackoff();
+        assertEquals(3000, rtt.getTimeout());
+    }
+
+    @Test
+    void sampleResetsBackoff() {
+        RttEstimator rtt = new RttEstimator(3000);
+        rtt.backoff();
+        rtt.backoff();
+        assertEquals(12000, rtt.getTimeout());
+        //a packet sent only once was answered, so measure it rather than carry on backed off
+        rtt.sample(100 * MS);
+        assertEquals(300, rtt.getTimeout());
+    }
+
+}
@@ -0,0 +1,121 @@
+package tftp.udp.nio;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimerWheelTest {
+
+    //a timer which counts how often it fires, and runs an action when it does
+    private static class CountingTimer extends TimerWheel.Timer {
+
+        private int fired = 0;
+        private Runnable action = () -> {
+        };
+
+        @Override
+        protected void expire() {
+            ++fired;
+            action.run();
+        }
+
+    }
+
+    @Test
+    void firesOnlyOnceDue() {
+        TimerWheel wheel = new TimerWheel(1, 4, 0);
+        CountingTimer timer = new CountingTimer();
+        //in the same slot as tick 2, but a round later
+        wheel.schedule(timer, 6);
+
+        wheel.advance(2);
+        assertEquals(0, timer.fired);
+        assertTrue(timer.isScheduled());
+
+        wheel.advance(6);
+        assertEquals(1, timer.fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void cancelDuringExpire() {
+        //in either order in the slot - the one cancelled may be ahead of the one firing or behind it
+        for (boolean laterFirst : new boolean[]{true, false}) {
+            TimerWheel wheel = new TimerWheel(1, 4, 0);
+            CountingTimer firing = new CountingTimer();
+            CountingTimer later = new CountingTimer();
+            firing.action = () -> wheel.cancel(later);
+            if (laterFirst) {
+                wheel.schedule(later, 6);
+                wheel.schedule(firing, 2);
+            } else {
+                wheel.schedule(firing, 2);
+                wheel.schedule(later, 6);
+            }
+
+            wheel.advance(2);
+            assertEquals(1, firing.fired);
+            assertFalse(later.isScheduled());
+            assertEquals(0, wheel.size());
+
+            wheel.advance(20);
+            assertEquals(0, later.fired);
+        }
+    }
+
+    @Test
+    void rescheduleDuringExpire() {
+        for (boolean laterFirst : new boolean[]{true, false}) {
+            TimerWheel wheel = new TimerWheel(1, 4, 0);
+            CountingTimer firing = new CountingTimer();
+            CountingTimer later = new CountingTimer();
+            CountingTimer other = new CountingTimer();
+            firing.action = () -> wheel.schedule(later, 9);
+            if (laterFirst) {
+                wheel.schedule(later, 6);
+                wheel.schedule(firing, 2);
+            } else {
+                wheel.schedule(firing, 2);
+                wheel.schedule(later, 6);
+            }
+            //shares the slot later is moved to
+            wheel.schedule(other, 5);
+
+            wheel.advance(2);
+            assertEquals(1, firing.fired);
+            assertTrue(later.isScheduled());
+            assertEquals(2, wheel.size());
+
+            wheel.advance(8);
+            assertEquals(0, later.fired);
+            assertEquals(1, other.fired);
+            assertEquals(1, wheel.size());
+
+            wheel.advance(9);
+            assertEquals(1, later.fired);
+            assertEquals(0, wheel.size());
+        }
+    }
+
+    @Test
+    void rearmSelfDuringExpire() {
+        TimerWheel wheel = new TimerWheel(1, 4, 0);
+        CountingTimer timer = new CountingTimer();
+        timer.action = () -> {
+            if (timer.fired < 3) {
+                wheel.schedule(timer, 0);
+            }
+        };
+        wheel.schedule(timer, 1);
+
+        //re-armed into the next tick each time, never the one being processed
+        wheel.advance(1);
+        assertEquals(1, timer.fired);
+        wheel.advance(3);
+        assertEquals(3, timer.fired);
+        assertEquals(0, wheel.size());
+    }
+
+}
@@ -0,0 +1,69 @@
+package tftp.udp.server;
+
+import org.junit.jupiter.api.Test;
+import tftp.shared.TFTPException;
+
+import java.net.InetAddress;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdmissionControllerTest {
+
+    private static final InetAddress FIRST = address(1);
+    private static final InetAddress SECOND = address(2);
+
+    @Test
+    void refusedForClientLimitKeepsToken() throws Exception {
+        //two requests a second, so a burst of two
+        AdmissionController admission = new AdmissionController(AdmissionController.UNLIMITED, 1, 2);
+        admission.admit(FIRST);
+        //refused for being at the client's limit - neither costs the client a request from its bucket
+        assertRefused(admission, FIRST, "too many transfers");
+        assertRefused(admission, FIRST, "too many transfers");
+
+        admission.release(FIRST);
+        admission.admit(FIRST);
+        assertEquals(1, admission.getSessions());
+    }
+
+    @Test
+    void refusedForTotalLimitKeepsToken() throws Exception {
+        AdmissionController admission = new AdmissionController(1, AdmissionController.UNLIMITED, 2);
+        admission.admit(FIRST);
+        assertRefused(admission, SECOND, "server busy");
+        assertRefused(admission, SECOND, "server busy");
+
+        admission.release(FIRST);
+        admission.admit(SECOND);
+        assertEquals(1, admission.getSessions());
+    }
+
+    @Test
+    void rateLimitSpendsTokens() throws Exception {
+        AdmissionController admission = new AdmissionController(
+                AdmissionController.UNLIMITED, AdmissionController.UNLIMITED, 2
+        );
+        admission.admit(FIRST);
+        admission.admit(FIRST);
+        assertRefused(admission, FIRST, "too many requests");
+        //another client has a bucket of its own
+        admission.admit(SECOND);
+        assertEquals(3, admission.getSessions());
+    }
+
+    private static void assertRefused(AdmissionController admission, InetAddress client, String reason) {
+        TFTPException refused = assertThrows(TFTPException.class, () -> admission.admit(client));
+        assertTrue(refused.getMessage().contains(reason), refused.getMessage());
+    }
+
+    private static InetAddress address(int last) {
+        try {
+            return InetAddress.getByAddress(new byte[]{10, 0, 0, (byte) last});
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+package tftp.udp.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import tftp.shared.ErrorType;
+import tftp.shared.Mode;
+import tftp.shared.packet.DataPacket;
+import tftp.shared.packet.ErrorPacket;
+import tftp.shared.packet.ReadRequestPacket;
+import tftp.shared.packet.TFTPPacket;
+import tftp.udp.UDPUtil;
+import tftp.udp.metrics.ServerMetrics;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Transfers from two clients on different addresses over loopback, to each server engine, with one transfer allowed
+ * per client. Each transfer holds a slot with the admission controller until it ends, and gives back the slot of the
+ * client which asked for it - whoever else has sent a request since.
+ */
+class AdmissionTransferTest {
+
+    private static final int FILE_SIZE = 100 * 512 + 1;
+
+    @TempDir
+    Path directory;
+
+    private final AdmissionController admission = new AdmissionController(
+            AdmissionController.UNLIMITED, 1, AdmissionController.UNLIMITED
+    );
+    private Thread server;
+    private InetSocketAddress address;
+
+
+    @AfterEach
+    void stopServer() {
+        if (server instanceof TFTPUDPServer) {
+            ((TFTPUDPServer) server).shutdown();
+        } else if (server instanceof TFTPNIOServer) {
+            ((TFTPNIOServer) server).shutdown();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"threaded", "nio"})
+    void slotReleasedForClientWhichAsked(String engine) throws Exception {
+        Path source = directory.resolve("source.bin");
+        Files.write(source, new byte[FILE_SIZE]);
+        startServer(engine);
+
+        try (DatagramSocket first = open("127.0.0.1");
+             DatagramSocket second = open("127.0.0.2");
+             DatagramSocket again = open("127.0.0.1")) {
+            //neither client acknowledges its first block, so both transfers stay running
+            InetSocketAddress firstTransfer = request(first, source);
+            assertEquals(1, admission.getSessions());
+            InetSocketAddress secondTransfer = request(second, source);
+            assertEquals(2, admission.getSessions());
+
+            //the second client's request was the last the server received, but it's the first client's slot given
+            // back - so the first client can start another transfer
+            abort(first, firstTransfer);
+            awaitSessions(1);
+            InetSocketAddress againTransfer = request(again, source);
+            assertEquals(2, admission.getSessions());
+
+            abort(second, secondTransfer);
+            abort(again, againTransfer);
+            awaitSessions(0);
+        }
+    }
+
+    private void startServer(String engine) throws Exception {
+        int port = freePort();
+        if (engine.equals("threaded")) {
+            server = new TFTPUDPServer(port, Executors.newCachedThreadPool(), new BlockCache(0), new ServerMetrics(),
+                    admission);
+        } else {
+            server = new TFTPNIOServer(port, 2, new BlockCache(0), new ServerMetrics(), admission);
+        }
+        server.setDaemon(true);
+        server.start();
+        //give the server time to bind its socket
+        Thread.sleep(200);
+        address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+
+    private static DatagramSocket open(String host) throws IOException {
+        DatagramSocket socket = new DatagramSocket(0, InetAddress.getByName(host));
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    //ask for the file, returning where the first block came from - anything else, such as a refusal, fails the test
+    private InetSocketAddress request(DatagramSocket socket, Path source) throws Exception {
+        ReadRequestPacket request = new ReadRequestPacket(source.toString(), Mode.OCTET);
+        UDPUtil.send(socket, UDPUtil.toDatagram(request, address.getAddress(), address.getPort()));
+        byte[] buffer = new byte[1024];
+        DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+        socket.receive(datagram);
+        TFTPPacket packet = UDPUtil.fromDatagram(datagram);
+        assertTrue(packet instanceof DataPacket, "expected the first block, got " + packet);
+        return (InetSocketAddress) datagram.getSocketAddress();
+    }
+
+    private static void abort(DatagramSocket socket, InetSocketAddress transfer) throws Exception {
+        ErrorPacket error = new ErrorPacket(ErrorType.UNDEFINED, "giving up");
+        UDPUtil.send(socket, UDPUtil.toDatagram(error, transfer.getAddress(), transfer.getPort()));
+    }
+
+    private void awaitSessions(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (admission.getSessions() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, admission.getSessions());
+    }
+
+    private static int freePort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+}
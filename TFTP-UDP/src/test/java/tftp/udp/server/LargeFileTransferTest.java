@@ -0,0 +1,147 @@
+package tftp.udp.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import tftp.shared.Rollover;
+import tftp.shared.TransferOptions;
+import tftp.udp.client.TFTPNIOClient;
+import tftp.udp.client.TransferResult;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Transfers over loopback of a file longer than 65535 blocks, so that the block number rolls over, to and from each
+ * server engine. The file is sparse, apart from a stamp of its own offset every STAMP_INTERVAL bytes, so a block sent
+ * a whole round of block numbers out of place shows up when the file received is compared with the original.
+ */
+class LargeFileTransferTest {
+
+    private static final int BLOCK_SIZE = 512;
+    //past the last block number by a thousand blocks and a bit, so the file doesn't end on a block boundary
+    private static final long FILE_SIZE = 66_536L * BLOCK_SIZE + 123;
+    private static final long STAMP_INTERVAL = 64 * 1024;
+
+    @TempDir
+    Path directory;
+
+    private Thread server;
+
+
+    @AfterEach
+    void stopServer() {
+        if (server instanceof TFTPUDPServer) {
+            ((TFTPUDPServer) server).shutdown();
+        } else if (server instanceof TFTPNIOServer) {
+            ((TFTPNIOServer) server).shutdown();
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource({"threaded, 0", "threaded, 1", "nio, 0", "nio, 1"})
+    void readRollsOver(String engine, int rollover) throws Exception {
+        Path source = directory.resolve("source.bin");
+        Path received = directory.resolve("received.bin");
+        writeSparseFile(source, FILE_SIZE);
+        InetSocketAddress address = startServer(engine);
+
+        try (TFTPNIOClient client = new TFTPNIOClient()) {
+            TransferResult result = client.get(address, source.toString(), received, options(rollover), (b, s) -> {
+            }).get(60, TimeUnit.SECONDS);
+            assertEquals(FILE_SIZE, result.getBytes());
+        }
+        assertEquals(FILE_SIZE, Files.size(received));
+        assertSameContents(source, received);
+    }
+
+    @ParameterizedTest
+    @CsvSource({"threaded, 0", "threaded, 1", "nio, 0", "nio, 1"})
+    void writeRollsOver(String engine, int rollover) throws Exception {
+        Path source = directory.resolve("source.bin");
+        Path written = directory.resolve("written.bin");
+        writeSparseFile(source, FILE_SIZE);
+        InetSocketAddress address = startServer(engine);
+
+        try (TFTPNIOClient client = new TFTPNIOClient()) {
+            TransferResult result = client.put(address, source, written.toString(), options(rollover), (b, s) -> {
+            }).get(60, TimeUnit.SECONDS);
+            assertEquals(FILE_SIZE, result.getBytes());
+        }
+        //the server only acknowledges the last block once the file is in place
+        assertEquals(FILE_SIZE, Files.size(written));
+        assertSameContents(source, written);
+    }
+
+    private static TransferOptions options(int rollover) throws Exception {
+        TransferOptions options = new TransferOptions();
+        options.setBlockSize(BLOCK_SIZE);
+        options.setWindowSize(16);
+        options.setRollover(Rollover.fromValue(rollover));
+        return options;
+    }
+
+    private InetSocketAddress startServer(String engine) throws Exception {
+        int port = freePort();
+        //nothing cached, so that reads go through the shared producer as a large file's would
+        BlockCache cache = new BlockCache(0);
+        if (engine.equals("threaded")) {
+            server = new TFTPUDPServer(port, Executors.newCachedThreadPool(), cache);
+        } else {
+            server = new TFTPNIOServer(port, 2, cache);
+        }
+        server.setDaemon(true);
+        server.start();
+        //give the server time to bind its socket
+        Thread.sleep(200);
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+
+    //a file of the given size which is all holes, apart from the stamps
+    private static void writeSparseFile(Path path, long size) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(size);
+            for (long offset = 0; offset + Long.BYTES <= size; offset += STAMP_INTERVAL) {
+                file.seek(offset);
+                file.writeLong(offset);
+            }
+        }
+    }
+
+    //compare the files a chunk at a time, failing at the first chunk which differs
+    private static void assertSameContents(Path expected, Path actual) throws IOException {
+        try (InputStream expectedIn = Files.newInputStream(expected);
+             InputStream actualIn = Files.newInputStream(actual)) {
+            for (long offset = 0; ; offset += STAMP_INTERVAL) {
+                byte[] expectedChunk = expectedIn.readNBytes((int) STAMP_INTERVAL);
+                byte[] actualChunk = actualIn.readNBytes((int) STAMP_INTERVAL);
+                if (!Arrays.equals(expectedChunk, actualChunk)) {
+                    fail("wrong data in the " + STAMP_INTERVAL + " bytes at offset " + offset);
+                }
+                if (expectedChunk.length == 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+}
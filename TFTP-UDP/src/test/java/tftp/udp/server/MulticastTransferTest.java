@@ -0,0 +1,184 @@
+package tftp.udp.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tftp.shared.ErrorType;
+import tftp.shared.Mode;
+import tftp.shared.TransferOptions;
+import tftp.shared.packet.ErrorPacket;
+import tftp.shared.packet.OptionAcknowledgementPacket;
+import tftp.shared.packet.ReadRequestPacket;
+import tftp.shared.packet.TFTPPacket;
+import tftp.udp.UDPUtil;
+import tftp.udp.client.MulticastReceiver;
+import tftp.udp.metrics.ServerMetrics;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two clients reading a file by multicast over loopback from the threaded server, which has them share a group. Each
+ * client counts as a transfer - against the admission limits and in the registry - from its request until it leaves
+ * the group, whether or not it started the group.
+ */
+class MulticastTransferTest {
+
+    private static final int BLOCK_SIZE = 1024;
+    private static final int FILE_SIZE = 2000 * BLOCK_SIZE + 321;
+
+    @TempDir
+    Path directory;
+
+    private final AdmissionController admission = AdmissionController.unlimited();
+    private final ExecutorService clients = Executors.newCachedThreadPool();
+    private TFTPUDPServer server;
+    private InetSocketAddress address;
+
+
+    @AfterEach
+    void stop() {
+        clients.shutdownNow();
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    void twoClientsReceiveFile() throws Exception {
+        byte[] contents = new byte[FILE_SIZE];
+        new Random(2090).nextBytes(contents);
+        Path source = directory.resolve("source.bin");
+        Files.write(source, contents);
+        startServer();
+
+        Future<Long> first = clients.submit(() -> receive(source, directory.resolve("first.bin")));
+        Future<Long> second = clients.submit(() -> receive(source, directory.resolve("second.bin")));
+        assertEquals(FILE_SIZE, (long) first.get(60, TimeUnit.SECONDS));
+        assertEquals(FILE_SIZE, (long) second.get(60, TimeUnit.SECONDS));
+        assertArrayEquals(contents, Files.readAllBytes(directory.resolve("first.bin")));
+        assertArrayEquals(contents, Files.readAllBytes(directory.resolve("second.bin")));
+
+        //both clients have left, so neither holds a slot any more
+        awaitCount(0, admission::getSessions);
+    }
+
+    @Test
+    void clientsHoldSlotsUntilTheyLeave() throws Exception {
+        Path source = directory.resolve("source.bin");
+        Files.write(source, new byte[FILE_SIZE]);
+        startServer();
+
+        try (DatagramSocket starter = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+             DatagramSocket joiner = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            starter.setSoTimeout(5000);
+            joiner.setSoTimeout(5000);
+
+            //the first client starts the group and becomes master, the second joins it - neither acknowledges
+            // anything, so the group makes no progress
+            request(starter, source);
+            InetSocketAddress group = awaitOack(starter);
+            request(joiner, source);
+            assertEquals(group, awaitOack(joiner));
+
+            //the joiner's request handler is long done, but it's still in the group
+            Thread.sleep(200);
+            assertEquals(2, admission.getSessions());
+
+            leave(joiner, group);
+            awaitCount(1, admission::getSessions);
+
+            //the last to leave ends the session
+            leave(starter, group);
+            awaitCount(0, admission::getSessions);
+        }
+    }
+
+    private void startServer() throws Exception {
+        int port = freePort();
+        MulticastGroups groups = new MulticastGroups(
+                InetAddress.getByName("239.255.20.90"), freePort(), NetworkInterface.getByName("lo")
+        );
+        server = new TFTPUDPServer(
+                port, Executors.newCachedThreadPool(), new BlockCache(0), new ServerMetrics(), admission, 1, groups
+        );
+        server.setDaemon(true);
+        server.start();
+        //give the server time to bind its socket
+        Thread.sleep(200);
+        address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+
+    private long receive(Path source, Path destination) throws Exception {
+        TransferOptions options = new TransferOptions();
+        options.setBlockSize(BLOCK_SIZE);
+        try (FileChannel file = FileChannel.open(
+                destination, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING
+        )) {
+            return MulticastReceiver.receive(address.getAddress(), address.getPort(), source.toString(), file, options);
+        }
+    }
+
+    private void request(DatagramSocket socket, Path source) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put(TransferOptions.BLOCK_SIZE, Integer.toString(BLOCK_SIZE));
+        options.put(TransferOptions.MULTICAST, "");
+        ReadRequestPacket request = new ReadRequestPacket(source.toString(), Mode.OCTET, options);
+        UDPUtil.send(socket, UDPUtil.toDatagram(request, address.getAddress(), address.getPort()));
+    }
+
+    //wait for the OACK naming the group, returning the session's address - which the client answers
+    private static InetSocketAddress awaitOack(DatagramSocket socket) throws Exception {
+        byte[] buffer = new byte[2048];
+        DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+        while (true) {
+            socket.receive(datagram);
+            TFTPPacket packet = UDPUtil.fromDatagram(datagram);
+            if (packet instanceof OptionAcknowledgementPacket) {
+                assertTrue(((OptionAcknowledgementPacket) packet).getOptions().containsKey(TransferOptions.MULTICAST));
+                return (InetSocketAddress) datagram.getSocketAddress();
+            }
+        }
+    }
+
+    private static void leave(DatagramSocket socket, InetSocketAddress group) throws Exception {
+        ErrorPacket error = new ErrorPacket(ErrorType.UNDEFINED, "leaving");
+        UDPUtil.send(socket, UDPUtil.toDatagram(error, group.getAddress(), group.getPort()));
+    }
+
+    private static void awaitCount(int expected, IntSupplier count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (count.getAsInt() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, count.getAsInt());
+    }
+
+    private static int freePort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+}
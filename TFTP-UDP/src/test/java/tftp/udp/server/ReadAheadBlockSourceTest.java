@@ -0,0 +1,179 @@
+package tftp.udp.server;
+
+import org.junit.jupiter.api.Test;
+import tftp.shared.BlockSource;
+import tftp.udp.metrics.ServerMetrics;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A {@link ReadAheadBlockSource} over a source in memory which counts its reads. The reads ahead are queued rather
+ * than run on a thread, and run by the test when it chooses, so what has been read ahead at any point is known.
+ */
+class ReadAheadBlockSourceTest {
+
+    private static final int BLOCK_SIZE = 512;
+    private static final int DEPTH = 4;
+
+    private final Queue<Runnable> io = new ArrayDeque<>();
+    private final ServerMetrics metrics = new ServerMetrics();
+
+
+    @Test
+    void blocksInOrderReadAhead() throws Exception {
+        CountingSource source = new CountingSource(10 * BLOCK_SIZE + 100);
+        ReadAheadBlockSource readAhead = new ReadAheadBlockSource(source, BLOCK_SIZE, DEPTH, io::add, metrics);
+        //the first blocks are read as soon as the source is opened, as far as the ring goes
+        runIo();
+        assertEquals(DEPTH, source.reads.get());
+
+        for (int block = 0; block <= 10; ++block) {
+            ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+            int expected = block < 10 ? BLOCK_SIZE : 100;
+            assertEquals(expected, readAhead.read((long) block * BLOCK_SIZE, buffer));
+            assertArrayEquals(source.contents(block * BLOCK_SIZE, expected), copy(buffer));
+            //taking a block makes room for another
+            runIo();
+        }
+        //the end is known, so reading past it needs nothing from the source
+        assertEquals(0, readAhead.read(11L * BLOCK_SIZE, ByteBuffer.allocate(BLOCK_SIZE)));
+        assertEquals(11, source.reads.get());
+        assertEquals(11, metrics.getReadAheadHits());
+        assertEquals(0, metrics.getReadAheadStalls());
+
+        readAhead.close();
+        assertTrue(source.closed);
+    }
+
+    @Test
+    void otherReadsFromSource() throws Exception {
+        CountingSource source = new CountingSource(10 * BLOCK_SIZE);
+        ReadAheadBlockSource readAhead = new ReadAheadBlockSource(source, BLOCK_SIZE, DEPTH, io::add, metrics);
+        runIo();
+        readAhead.read(0, ByteBuffer.allocate(BLOCK_SIZE));
+        readAhead.read(BLOCK_SIZE, ByteBuffer.allocate(BLOCK_SIZE));
+        runIo();
+        int reads = source.reads.get();
+
+        //a block taken already, as when it's re-sent
+        ByteBuffer resent = ByteBuffer.allocate(BLOCK_SIZE);
+        assertEquals(BLOCK_SIZE, readAhead.read(0, resent));
+        assertArrayEquals(source.contents(0, BLOCK_SIZE), copy(resent));
+        assertEquals(reads + 1, source.reads.get());
+
+        //part of a block, and a read from the middle of one
+        ByteBuffer part = ByteBuffer.allocate(100);
+        assertEquals(100, readAhead.read(2L * BLOCK_SIZE, part));
+        assertArrayEquals(source.contents(2 * BLOCK_SIZE, 100), copy(part));
+        ByteBuffer misaligned = ByteBuffer.allocate(BLOCK_SIZE);
+        assertEquals(BLOCK_SIZE, readAhead.read(2L * BLOCK_SIZE + 10, misaligned));
+        assertArrayEquals(source.contents(2 * BLOCK_SIZE + 10, BLOCK_SIZE), copy(misaligned));
+        assertEquals(reads + 3, source.reads.get());
+
+        //none of which moved the read ahead on
+        assertEquals(2, metrics.getReadAheadHits());
+        ByteBuffer next = ByteBuffer.allocate(BLOCK_SIZE);
+        assertEquals(BLOCK_SIZE, readAhead.read(2L * BLOCK_SIZE, next));
+        assertArrayEquals(source.contents(2 * BLOCK_SIZE, BLOCK_SIZE), copy(next));
+        assertEquals(3, metrics.getReadAheadHits());
+        assertEquals(reads + 3, source.reads.get());
+        //closing waits for a read ahead under way to finish
+        runIo();
+        readAhead.close();
+    }
+
+    @Test
+    void waiterCalledOnceReady() throws Exception {
+        CountingSource source = new CountingSource(10 * BLOCK_SIZE);
+        ReadAheadBlockSource readAhead = new ReadAheadBlockSource(source, BLOCK_SIZE, DEPTH, io::add, metrics);
+
+        //nothing has been read yet - the transfer is called back once it has, rather than waiting
+        AtomicInteger called = new AtomicInteger();
+        assertFalse(readAhead.whenReady(0, called::incrementAndGet));
+        assertEquals(1, metrics.getReadAheadStalls());
+        runIo();
+        assertEquals(1, called.get());
+        assertTrue(readAhead.whenReady(0, called::incrementAndGet));
+
+        //counted as a stall once, not again as a hit when it's taken
+        readAhead.read(0, ByteBuffer.allocate(BLOCK_SIZE));
+        assertEquals(0, metrics.getReadAheadHits());
+        assertEquals(1, metrics.getReadAheadStalls());
+
+        //a transfer jumping ahead of the ring has it read ahead from there instead
+        assertFalse(readAhead.whenReady(8L * BLOCK_SIZE, called::incrementAndGet));
+        runIo();
+        assertEquals(2, called.get());
+        ByteBuffer jumped = ByteBuffer.allocate(BLOCK_SIZE);
+        assertEquals(BLOCK_SIZE, readAhead.read(8L * BLOCK_SIZE, jumped));
+        assertArrayEquals(source.contents(8 * BLOCK_SIZE, BLOCK_SIZE), copy(jumped));
+        assertEquals(2, metrics.getReadAheadStalls());
+        runIo();
+        readAhead.close();
+    }
+
+    private void runIo() {
+        Runnable task;
+        while ((task = io.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private static byte[] copy(ByteBuffer buffer) {
+        byte[] contents = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(contents);
+        return contents;
+    }
+
+    private static final class CountingSource implements BlockSource {
+
+        private final byte[] contents;
+        private final AtomicInteger reads = new AtomicInteger();
+        private boolean closed = false;
+
+        private CountingSource(int size) {
+            contents = new byte[size];
+            for (int i = 0; i < size; ++i) {
+                contents[i] = (byte) (i * 7 + i / 251);
+            }
+        }
+
+        private byte[] contents(int offset, int length) {
+            byte[] part = new byte[length];
+            System.arraycopy(contents, offset, part, 0, length);
+            return part;
+        }
+
+        @Override
+        public int read(long offset, ByteBuffer buffer) {
+            reads.incrementAndGet();
+            if (offset >= contents.length) {
+                return 0;
+            }
+            int length = (int) Math.min(buffer.remaining(), contents.length - offset);
+            buffer.put(contents, (int) offset, length);
+            return length;
+        }
+
+        @Override
+        public long size() {
+            return contents.length;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+    }
+
+}
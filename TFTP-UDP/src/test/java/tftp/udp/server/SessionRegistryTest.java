@@ -0,0 +1,120 @@
+package tftp.udp.server;
+
+import org.junit.jupiter.api.Test;
+import tftp.shared.Configuration;
+import tftp.udp.metrics.ServerMetrics;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class SessionRegistryTest {
+
+    @Test
+    void duplicateRequestIgnored() throws Exception {
+        SessionRegistry registry = new SessionRegistry(new ServerMetrics());
+        InetAddress client = InetAddress.getByName("192.0.2.1");
+        SessionRegistry.Entry entry = registry.register(client, 1000, null);
+        assertNotNull(entry);
+        assertNull(registry.register(client, 1000, null));
+        assertSame(entry, registry.get(client, 1000));
+
+        entry.close();
+        assertNull(registry.get(client, 1000));
+        assertNotNull(registry.register(client, 1000, null));
+    }
+
+    @Test
+    void collidingIpv6EndpointUntracked() throws Exception {
+        //two addresses whose keys fold down to the same value
+        InetAddress first = InetAddress.getByName("2001:db8:88ff:ce5:6c77:e4a:8885:8a23");
+        InetAddress second = InetAddress.getByName("2001:db8:8004:ca54:65ae:8022:bab7:ba4");
+        assertEquals(SessionRegistry.key(first, 69), SessionRegistry.key(second, 69));
+
+        SessionRegistry registry = new SessionRegistry(new ServerMetrics());
+        SessionRegistry.Entry tracked = registry.register(first, 69, null);
+        SessionRegistry.Entry untracked = registry.register(second, 69, null);
+        //the second transfer goes ahead, but isn't found again, and closing it leaves the first alone
+        assertNotNull(untracked);
+        assertNull(registry.get(second, 69));
+        assertEquals(1, registry.size());
+        untracked.close();
+        assertSame(tracked, registry.get(first, 69));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    void manyEndpoints() throws Exception {
+        SessionRegistry registry = new SessionRegistry(new ServerMetrics());
+        Map<List<Object>, SessionRegistry.Entry> expected = new HashMap<>();
+        Random random = new Random(11);
+        //enough for every part of the table to grow a few times, closing entries as it goes so that entries are
+        // moved back along the probe sequences
+        for (int i = 0; i < 20_000; ++i) {
+            InetAddress client = InetAddress.getByAddress(
+                    new byte[]{10, 0, (byte) random.nextInt(4), (byte) random.nextInt(256)}
+            );
+            int port = 1024 + random.nextInt(64);
+            List<Object> endpoint = Arrays.asList(client, port);
+            SessionRegistry.Entry entry = registry.register(client, port, null);
+            if (expected.containsKey(endpoint)) {
+                assertNull(entry);
+                if (random.nextBoolean()) {
+                    expected.remove(endpoint).close();
+                    assertNull(registry.get(client, port));
+                }
+            } else {
+                assertNotNull(entry);
+                expected.put(endpoint, entry);
+            }
+        }
+        assertEquals(expected.size(), registry.size());
+        for (Map.Entry<List<Object>, SessionRegistry.Entry> endpoint : expected.entrySet()) {
+            InetAddress client = (InetAddress) endpoint.getKey().get(0);
+            int port = (Integer) endpoint.getKey().get(1);
+            assertSame(endpoint.getValue(), registry.get(client, port));
+        }
+    }
+
+    @Test
+    void idleEntriesReaped() throws Exception {
+        SessionRegistry registry = new SessionRegistry(new ServerMetrics());
+        List<SessionRegistry.Entry> entries = new ArrayList<>();
+        AtomicInteger reaped = new AtomicInteger();
+        for (int port = 1; port <= 100; ++port) {
+            SessionRegistry.Entry entry = registry.register(InetAddress.getByName("192.0.2.1"), port, null);
+            entry.onReap(reaped::incrementAndGet);
+            entries.add(entry);
+        }
+
+        //nothing has gone quiet yet
+        registry.reap();
+        assertEquals(100, registry.size());
+
+        int deadline = Configuration.DEADLINE;
+        Configuration.DEADLINE = 0;
+        try {
+            //closing a transfer as it's abandoned, as the handlers do, finds it already gone
+            entries.get(0).onReap(() -> {
+                reaped.incrementAndGet();
+                entries.get(0).close();
+            });
+            registry.reap();
+        } finally {
+            Configuration.DEADLINE = deadline;
+        }
+        assertEquals(0, registry.size());
+        assertEquals(100, reaped.get());
+    }
+
+}
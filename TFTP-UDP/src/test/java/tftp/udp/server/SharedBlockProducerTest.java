@@ -0,0 +1,181 @@
+package tftp.udp.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Readers of a {@link SharedBlockProducer}. Where a reader's data came from is told apart by changing the file under
+ * it: a chunk still kept gives the contents from when it was read, while one read again gives the new contents.
+ */
+class SharedBlockProducerTest {
+
+    //as in SharedBlockProducer
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int MAX_CHUNKS = 64;
+
+    @TempDir
+    Path directory;
+
+
+    @Test
+    void blocksAcrossChunks() throws Exception {
+        byte[] contents = new byte[3 * CHUNK_SIZE + 100];
+        new Random(21).nextBytes(contents);
+        Path path = directory.resolve("file.bin");
+        Files.write(path, contents);
+
+        AtomicInteger released = new AtomicInteger();
+        SharedBlockProducer producer = SharedBlockProducer.open(
+                path, "v1", contents.length, p -> released.incrementAndGet()
+        );
+        SharedBlockProducer.Reader first = producer.attach();
+        SharedBlockProducer.Reader second = producer.attach();
+        assertEquals(contents.length, first.size());
+
+        //blocks which don't divide the chunk size, so that some span two chunks
+        for (SharedBlockProducer.Reader reader : new SharedBlockProducer.Reader[]{first, second}) {
+            int blockSize = 1000;
+            for (long offset = 0; offset < contents.length; offset += blockSize) {
+                ByteBuffer block = ByteBuffer.allocate(blockSize);
+                int read = reader.read(offset, block);
+                assertEquals(Math.min(blockSize, contents.length - offset), read, "block at " + offset);
+                byte[] expected = new byte[read];
+                System.arraycopy(contents, (int) offset, expected, 0, read);
+                assertArrayEquals(expected, copy(block), "block at " + offset);
+            }
+            assertEquals(0, reader.read(contents.length, ByteBuffer.allocate(1000)));
+        }
+
+        //the producer is done with once every reader is
+        first.close();
+        assertEquals(0, released.get());
+        second.close();
+        assertEquals(1, released.get());
+        assertNull(producer.attach());
+    }
+
+    @Test
+    void passedChunkReadFromFile() throws Exception {
+        Path path = sparse(4);
+        SharedBlockProducer producer = SharedBlockProducer.open(path, "v1", 4L * CHUNK_SIZE, p -> {
+        });
+        SharedBlockProducer.Reader reader = producer.attach();
+        assertEquals(1, stamp(reader, 0));
+        assertEquals(2, stamp(reader, 1));
+
+        //re-sending a block from a chunk the reader has moved past, whether it starts there or only runs on into the
+        // chunk it's on, reads it from the file as it is now
+        restamp(path, 4, 10);
+        assertEquals(10, stamp(reader, 0));
+        ByteBuffer spanning = ByteBuffer.allocate(16);
+        assertEquals(16, reader.read(CHUNK_SIZE - 8, spanning));
+        assertEquals(11, spanning.getLong(8));
+        reader.close();
+    }
+
+    @Test
+    void chunksEvictedBeyondLimit() throws Exception {
+        int chunks = MAX_CHUNKS + 16;
+        Path path = sparse(chunks);
+        SharedBlockProducer producer = SharedBlockProducer.open(path, "v1", (long) chunks * CHUNK_SIZE, p -> {
+        });
+        //one reader stays at the start while another reads the whole file, so every chunk is kept for the first
+        SharedBlockProducer.Reader behind = producer.attach();
+        SharedBlockProducer.Reader ahead = producer.attach();
+        for (int chunk = 0; chunk < chunks; ++chunk) {
+            assertEquals(chunk + 1, stamp(ahead, chunk));
+        }
+
+        //the reader behind gets the contents as first read for the chunks kept, and reads the rest again for itself
+        restamp(path, chunks, 1000);
+        int kept = 0;
+        int readAgain = 0;
+        for (int chunk = 0; chunk < chunks; ++chunk) {
+            long stamp = stamp(behind, chunk);
+            if (stamp == chunk + 1) {
+                ++kept;
+            } else {
+                assertEquals(chunk + 1000, stamp);
+                ++readAgain;
+            }
+        }
+        assertEquals(MAX_CHUNKS, kept);
+        assertEquals(chunks - MAX_CHUNKS, readAgain);
+        behind.close();
+        ahead.close();
+    }
+
+    @Test
+    void chunksReadOnIoThread() throws Exception {
+        Path path = sparse(2);
+        SharedBlockProducer producer = SharedBlockProducer.open(path, "v1", 2L * CHUNK_SIZE, p -> {
+        });
+        SharedBlockProducer.Reader reader = producer.attach();
+
+        CountDownLatch loaded = new CountDownLatch(1);
+        assertFalse(reader.whenReady(0, loaded::countDown));
+        assertTrue(loaded.await(10, TimeUnit.SECONDS));
+        assertTrue(reader.whenReady(0, () -> {
+        }));
+
+        //a block near the end of a chunk can run on into the next one, which has to be read as well
+        CountDownLatch following = new CountDownLatch(1);
+        assertFalse(reader.whenReady(CHUNK_SIZE - 8, following::countDown));
+        assertTrue(following.await(10, TimeUnit.SECONDS));
+        assertTrue(reader.whenReady(CHUNK_SIZE - 8, () -> {
+        }));
+        assertEquals(1, stamp(reader, 0));
+        assertEquals(2, stamp(reader, 1));
+        reader.close();
+    }
+
+    //a file of the given number of chunks, each starting with its index plus one
+    private Path sparse(int chunks) throws IOException {
+        Path path = directory.resolve("sparse.bin");
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength((long) chunks * CHUNK_SIZE);
+        }
+        restamp(path, chunks, 1);
+        return path;
+    }
+
+    //start each of the given number of chunks with its index plus the given base
+    private static void restamp(Path path, int chunks, long base) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            for (int chunk = 0; chunk < chunks; ++chunk) {
+                file.seek((long) chunk * CHUNK_SIZE);
+                file.writeLong(chunk + base);
+            }
+        }
+    }
+
+    private static long stamp(SharedBlockProducer.Reader reader, int chunk) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        assertEquals(Long.BYTES, reader.read((long) chunk * CHUNK_SIZE, buffer));
+        return buffer.getLong(0);
+    }
+
+    private static byte[] copy(ByteBuffer buffer) {
+        byte[] contents = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(contents);
+        return contents;
+    }
+
+}
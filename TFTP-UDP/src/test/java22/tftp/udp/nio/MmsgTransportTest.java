@@ -0,0 +1,150 @@
+package tftp.udp.nio;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tftp.shared.Configuration;
+import tftp.shared.TransferOptions;
+import tftp.udp.client.TFTPNIOClient;
+import tftp.udp.client.TransferResult;
+import tftp.udp.server.BlockCache;
+import tftp.udp.server.TFTPNIOServer;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * The sendmmsg/recvmmsg transport over loopback - a batch sent and received directly, then whole transfers through the
+ * NIO engine, which picks the transport up on its own. Only built and run on JDK 22 or later, and only on Linux.
+ */
+class MmsgTransportTest {
+
+    private static final int PACKETS = Configuration.IO_BATCH_SIZE + 5;
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void onLinux() {
+        assumeTrue(System.getProperty("os.name").startsWith("Linux"), "sendmmsg and recvmmsg are Linux only");
+    }
+
+    @Test
+    void batchRoundTrip() throws Exception {
+        try (DatagramChannel senderChannel = open();
+             DatagramChannel receiverChannel = open()) {
+            DatagramTransport sender = DatagramTransport.open(senderChannel);
+            DatagramTransport receiver = DatagramTransport.open(receiverChannel);
+            assertTrue(sender instanceof MmsgTransport, "batched transport not used: " + sender);
+            assertTrue(receiver instanceof MmsgTransport, "batched transport not used: " + receiver);
+
+            //more than fit in one batch, from direct and heap buffers alike
+            SocketAddress target = receiverChannel.getLocalAddress();
+            for (int i = 0; i < PACKETS; ++i) {
+                sender.send(packet(i, i % 2 == 0), target);
+            }
+            sender.flush();
+
+            ByteBuffer[] buffers = new ByteBuffer[Configuration.IO_BATCH_SIZE];
+            for (int i = 0; i < buffers.length; ++i) {
+                buffers[i] = i % 2 == 0 ? ByteBuffer.allocateDirect(2048) : ByteBuffer.allocate(2048);
+            }
+            SocketAddress[] from = new SocketAddress[buffers.length];
+            int received = 0;
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (received < PACKETS && System.nanoTime() < deadline) {
+                int count = receiver.receive(buffers, from);
+                for (int i = 0; i < count; ++i) {
+                    byte[] contents = new byte[buffers[i].remaining()];
+                    buffers[i].get(contents);
+                    assertArrayEquals(contents(received), contents);
+                    assertEquals(senderChannel.getLocalAddress(), from[i]);
+                    ++received;
+                }
+                if (count == 0) {
+                    Thread.sleep(5);
+                }
+            }
+            assertEquals(PACKETS, received);
+        }
+    }
+
+    @Test
+    void transfersThroughBatches() throws Exception {
+        byte[] contents = new byte[3 * 1024 * 1024 + 77];
+        new Random(22).nextBytes(contents);
+        Path source = directory.resolve("source.bin");
+        Files.write(source, contents);
+
+        int port = freePort();
+        TFTPNIOServer server = new TFTPNIOServer(port, 2, new BlockCache(0));
+        server.setDaemon(true);
+        server.start();
+        try (TFTPNIOClient client = new TFTPNIOClient()) {
+            //give the server time to bind its socket
+            Thread.sleep(200);
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+            TransferOptions options = new TransferOptions();
+            options.setBlockSize(1428);
+            options.setWindowSize(16);
+
+            Path received = directory.resolve("received.bin");
+            TransferResult read = client.get(address, source.toString(), received, options, (b, s) -> {
+            }).get(60, TimeUnit.SECONDS);
+            assertEquals(contents.length, read.getBytes());
+            assertArrayEquals(contents, Files.readAllBytes(received));
+
+            Path written = directory.resolve("written.bin");
+            TransferResult write = client.put(address, source, written.toString(), options, (b, s) -> {
+            }).get(60, TimeUnit.SECONDS);
+            assertEquals(contents.length, write.getBytes());
+            assertArrayEquals(contents, Files.readAllBytes(written));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static DatagramChannel open() throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        channel.configureBlocking(false);
+        return channel;
+    }
+
+    private static ByteBuffer packet(int index, boolean direct) {
+        byte[] contents = contents(index);
+        ByteBuffer packet = direct ? ByteBuffer.allocateDirect(contents.length) : ByteBuffer.allocate(contents.length);
+        packet.put(contents).flip();
+        return packet;
+    }
+
+    //a different length and contents for each packet
+    private static byte[] contents(int index) {
+        byte[] contents = new byte[100 + index * 13];
+        for (int i = 0; i < contents.length; ++i) {
+            contents[i] = (byte) (index * 31 + i);
+        }
+        return contents;
+    }
+
+    private static int freePort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+package tftp.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import tftp.shared.ErrorType;
+import tftp.shared.TFTPException;
+import tftp.shared.TransferOptions;
+import tftp.shared.packet.*;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding each type of packet - with the object-per-packet API ({@link TFTPPacket}) and with the
+ * flyweight {@link PacketCodec} used on the transfer paths.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"RRQ", "WRQ", "DATA", "ACK", "ERROR", "OACK"})
+    public String type;
+
+    //the data in a DATA packet
+    @Param({"512"})
+    public int blockSize;
+
+    private byte[] data;
+    private Map<String, String> options;
+
+    private byte[] bytes;
+    private int length;
+    private final PacketCodec codec = new PacketCodec();
+    private ByteBuffer view;
+
+
+    @Setup
+    public void setup() {
+        data = new byte[blockSize];
+        options = new LinkedHashMap<>();
+        options.put(TransferOptions.BLOCK_SIZE, "1428");
+        options.put(TransferOptions.WINDOW_SIZE, "16");
+
+        TFTPPacket packet = encode();
+        bytes = packet.getPacketBytes();
+        length = packet.getPacketLength();
+        view = ByteBuffer.wrap(bytes);
+    }
+
+    //build the packet from its fields and serialise it
+    @Benchmark
+    public byte[] getPacketBytes() {
+        return encode().getPacketBytes();
+    }
+
+    //parse the packet into a new object
+    @Benchmark
+    public TFTPPacket fromByteArray() throws TFTPException {
+        return TFTPPacket.fromByteArray(bytes, length);
+    }
+
+    //decode the header in place, as the transfer paths do for every packet
+    @Benchmark
+    public int codecDecode() throws TFTPException {
+        PacketType packetType = codec.wrap(view, 0, length).getPacketType();
+        if (packetType == PacketType.DATA || packetType == PacketType.ACKNOWLEDGEMENT) {
+            return codec.getBlockNumber();
+        }
+        return packetType.getOpcode();
+    }
+
+    private TFTPPacket encode() {
+        switch (type) {
+            case "RRQ":
+                return new ReadRequestPacket("images/pxelinux.0", tftp.shared.Mode.OCTET, options);
+            case "WRQ":
+                return new WriteRequestPacket("images/pxelinux.0", tftp.shared.Mode.OCTET, options);
+            case "DATA":
+                return new DataPacket((short) 1, data, data.length);
+            case "ACK":
+                return new AcknowledgementPacket((short) 1);
+            case "ERROR":
+                return new ErrorPacket(ErrorType.FILE_NOT_FOUND, "file not found: images/pxelinux.0");
+            case "OACK":
+                return new OptionAcknowledgementPacket(options);
+            default:
+                throw new IllegalArgumentException("unknown packet type: " + type);
+        }
+    }
+
+}
@@ -0,0 +1,232 @@
+package tftp.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import tftp.shared.BlockSink;
+import tftp.shared.BlockSource;
+import tftp.shared.FileBlockSource;
+import tftp.shared.Rollover;
+import tftp.shared.TFTPException;
+import tftp.shared.TransferOptions;
+import tftp.shared.packet.ReadRequestPacket;
+import tftp.shared.packet.WriteRequestPacket;
+import tftp.udp.UDPUtil;
+import tftp.udp.metrics.TransferMetrics;
+import tftp.udp.server.BlockCache;
+import tftp.udp.server.TFTPNIOServer;
+import tftp.udp.server.TFTPUDPServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Single transfers of files of several GB over loopback, far past the 65535 blocks which 16-bit block numbers can
+ * count, so the block numbers roll over many times. The files are sparse, so they cost next to nothing on the disk to
+ * read - apart from a stamp of its own offset every STAMP_INTERVAL bytes, which is checked at the other end to catch
+ * blocks out of place. Files read are checked as they arrive without being written anywhere. Files written are
+ * written out by the server, so need that much free disk space, and are deleted after each operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class LargeFileBenchmark {
+
+    private static final long STAMP_INTERVAL = 16L * 1024 * 1024;
+
+    //threaded: TFTPUDPServer with a thread per transfer, nio: event loops (TFTPNIOServer)
+    @Param({"threaded", "nio"})
+    public String engine;
+
+    @Param({"4294967296"})
+    public long fileSize;
+
+    //the block number following block 65535, requested with the rollover option
+    @Param({"0", "1"})
+    public int rollover;
+
+    @Param({"1428"})
+    public int blockSize;
+
+    @Param({"16"})
+    public int windowSize;
+
+    private Path directory;
+    private Path source;
+    private Path target;
+    private InetAddress address;
+    private int port;
+    private Thread server;
+    private TransferOptions options;
+
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, TFTPException, InterruptedException {
+        //every transfer logs to stdout, which would drown out the results
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        directory = Files.createTempDirectory("tftp-bench");
+        source = directory.resolve("source.bin");
+        target = directory.resolve("target.bin");
+        writeSparseFile(source, fileSize);
+
+        options = new TransferOptions();
+        options.setBlockSize(blockSize);
+        options.setWindowSize(windowSize);
+        options.setRollover(Rollover.fromValue(rollover));
+
+        address = InetAddress.getLoopbackAddress();
+        port = freePort();
+        //nothing is cached, the files are far too big
+        BlockCache cache = new BlockCache(0);
+        switch (engine) {
+            case "threaded":
+                server = new TFTPUDPServer(port, Executors.newCachedThreadPool(), cache);
+                break;
+            case "nio":
+                server = new TFTPNIOServer(port, Runtime.getRuntime().availableProcessors(), cache);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown engine: " + engine);
+        }
+        server.setDaemon(true);
+        server.start();
+        //give the server time to bind its socket
+        Thread.sleep(200);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (server instanceof TFTPUDPServer) {
+            ((TFTPUDPServer) server).shutdown();
+        } else {
+            ((TFTPNIOServer) server).shutdown();
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteTarget() throws IOException {
+        Files.deleteIfExists(target);
+    }
+
+    //read the file from the server, checking it as it arrives
+    @Benchmark
+    public long readRequest() throws Exception {
+        StampChecker checker = new StampChecker();
+        try (DatagramSocket socket = UDPUtil.openSocket()) {
+            UDPUtil.FileReceiver.receive(
+                    socket,
+                    new ReadRequestPacket(source.toString(), tftp.shared.Mode.OCTET, options.toMap()),
+                    address, port, checker, options, TransferMetrics.NONE
+            );
+        }
+        if (checker.position != fileSize) {
+            throw new IllegalStateException("transfer incomplete: " + checker.position + " bytes");
+        }
+        return checker.position;
+    }
+
+    //write the file to the server, then check the file it wrote
+    @Benchmark
+    public long writeRequest() throws Exception {
+        try (DatagramSocket socket = UDPUtil.openSocket();
+             BlockSource blocks = FileBlockSource.open(source)) {
+            UDPUtil.FileSender.send(
+                    socket,
+                    new WriteRequestPacket(target.toString(), tftp.shared.Mode.OCTET, options.toMap()),
+                    address, port, blocks, (short) 0, options
+            );
+        }
+        if (Files.size(target) != fileSize) {
+            throw new IllegalStateException("transfer incomplete: " + target);
+        }
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.READ)) {
+            ByteBuffer stamp = ByteBuffer.allocate(Long.BYTES);
+            for (long offset = 0; offset + Long.BYTES <= fileSize; offset += STAMP_INTERVAL) {
+                stamp.clear();
+                channel.read(stamp, offset);
+                if (stamp.getLong(0) != offset) {
+                    throw new IllegalStateException("wrong data at offset " + offset);
+                }
+            }
+        }
+        return fileSize;
+    }
+
+    //a file of the given size which is all holes, apart from the stamps
+    private static void writeSparseFile(Path path, long size) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(size);
+            for (long offset = 0; offset + Long.BYTES <= size; offset += STAMP_INTERVAL) {
+                file.seek(offset);
+                file.writeLong(offset);
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    //receives the file without keeping it, checking each stamp as it goes past
+    private static class StampChecker implements BlockSink {
+
+        private long position = 0;
+        private final ByteBuffer stamp = ByteBuffer.allocate(Long.BYTES);
+
+        @Override
+        public void write(ByteBuffer data) throws IOException {
+            while (data.hasRemaining()) {
+                //the stamp may straddle two blocks
+                long intoStamp = position % STAMP_INTERVAL;
+                if (intoStamp < Long.BYTES) {
+                    stamp.put(data.get());
+                    ++position;
+                    if (!stamp.hasRemaining()) {
+                        long expected = position - Long.BYTES;
+                        if (stamp.getLong(0) != expected) {
+                            throw new IOException("wrong data at offset " + expected);
+                        }
+                        stamp.clear();
+                    }
+                } else {
+                    int skip = (int) Math.min(data.remaining(), STAMP_INTERVAL - intoStamp);
+                    data.position(data.position() + skip);
+                    position += skip;
+                }
+            }
+        }
+
+        @Override
+        public CompletableFuture<Void> flush() {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void close() {
+            //nothing kept
+        }
+
+    }
+
+}
@@ -0,0 +1,53 @@
+package tftp.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import tftp.shared.StringUtil;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The string handling behind parsing requests - the file name, the mode and any options (RFC 2347).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringUtilBenchmark {
+
+    //a request's file name and mode, then its options, as they appear after the opcode
+    private byte[] request;
+    private int optionsOffset;
+
+
+    @Setup
+    public void setup() {
+        byte[] fileName = StringUtil.getBytes("images/pxelinux.0");
+        byte[] mode = StringUtil.getBytes("octet");
+        byte[] options = StringUtil.getOptionBytes(Map.of("blksize", "1428", "windowsize", "16", "tsize", "0"));
+
+        request = new byte[fileName.length + mode.length + options.length];
+        System.arraycopy(fileName, 0, request, 0, fileName.length);
+        System.arraycopy(mode, 0, request, fileName.length, mode.length);
+        System.arraycopy(options, 0, request, fileName.length + mode.length, options.length);
+        optionsOffset = fileName.length + mode.length;
+    }
+
+    @Benchmark
+    public String getString() {
+        return StringUtil.getString(request, 0);
+    }
+
+    @Benchmark
+    public Map<String, String> getOptions() {
+        return StringUtil.getOptions(request, optionsOffset, request.length);
+    }
+
+    @Benchmark
+    public byte[] getBytes() {
+        return StringUtil.getBytes("images/pxelinux.0");
+    }
+
+}
@@ -0,0 +1,202 @@
+package tftp.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import tftp.shared.BlockSource;
+import tftp.shared.Configuration;
+import tftp.shared.FileBlockSource;
+import tftp.shared.TFTPException;
+import tftp.shared.TransferOptions;
+import tftp.shared.packet.ReadRequestPacket;
+import tftp.shared.packet.WriteRequestPacket;
+import tftp.udp.UDPUtil;
+import tftp.udp.server.BlockCache;
+import tftp.udp.server.TFTPNIOServer;
+import tftp.udp.server.TFTPUDPServer;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Whole transfers between a client and a server over loopback - each operation is a batch of concurrent read or
+ * write requests, which all have to complete. The server is started once per trial, serving from a temporary
+ * directory. The larger files take seconds per operation, so pick parameters with -p to run a smaller matrix.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferBenchmark {
+
+    //threaded: TFTPUDPServer with a thread per transfer, nio: event loops (TFTPNIOServer)
+    @Param({"threaded", "nio"})
+    public String engine;
+
+    @Param({"0", "511", "512", "1048576", "104857600"})
+    public int fileSize;
+
+    //the number of transfers run at once
+    @Param({"1", "16"})
+    public int clients;
+
+    //the options requested - the RFC 1350 defaults mean the requests carry no options
+    @Param({"512"})
+    public int blockSize;
+
+    @Param({"1"})
+    public int windowSize;
+
+    private Path directory;
+    private Path source;
+    private InetAddress address;
+    private int port;
+    private Thread server;
+    private ExecutorService clientPool;
+    private TransferOptions options;
+
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, TFTPException, InterruptedException {
+        //every transfer logs to stdout, which would drown out the results
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        directory = Files.createTempDirectory("tftp-bench");
+        source = directory.resolve("source.bin");
+        writeRandomFile(source, fileSize);
+
+        options = new TransferOptions();
+        if (blockSize != Configuration.DEFAULT_BLOCK_SIZE) {
+            options.setBlockSize(blockSize);
+        }
+        if (windowSize != 1) {
+            options.setWindowSize(windowSize);
+        }
+
+        address = InetAddress.getLoopbackAddress();
+        port = freePort();
+        BlockCache cache = new BlockCache(Configuration.DEFAULT_CACHE_SIZE);
+        switch (engine) {
+            case "threaded":
+                server = new TFTPUDPServer(port, Executors.newCachedThreadPool(), cache);
+                break;
+            case "nio":
+                server = new TFTPNIOServer(port, Runtime.getRuntime().availableProcessors(), cache);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown engine: " + engine);
+        }
+        server.setDaemon(true);
+        server.start();
+        //give the server time to bind its socket
+        Thread.sleep(200);
+
+        clientPool = Executors.newFixedThreadPool(clients);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        clientPool.shutdownNow();
+        if (server instanceof TFTPUDPServer) {
+            ((TFTPUDPServer) server).shutdown();
+        } else {
+            ((TFTPNIOServer) server).shutdown();
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    //read the file from the server into a file per client
+    @Benchmark
+    public void readRequest() throws Exception {
+        runClients(client -> {
+            Path target = directory.resolve("rrq-" + client + ".bin");
+            try (DatagramSocket socket = UDPUtil.openSocket();
+                 FileOutputStream fos = new FileOutputStream(target.toFile())) {
+                UDPUtil.FileReceiver.receive(
+                        socket,
+                        new ReadRequestPacket(source.toString(), tftp.shared.Mode.OCTET, options.toMap()),
+                        address, port, fos, options
+                );
+            }
+            return target;
+        });
+    }
+
+    //write the file to the server, to a file per client
+    @Benchmark
+    public void writeRequest() throws Exception {
+        runClients(client -> {
+            Path target = directory.resolve("wrq-" + client + ".bin");
+            try (DatagramSocket socket = UDPUtil.openSocket();
+                 BlockSource blocks = FileBlockSource.open(source)) {
+                UDPUtil.FileSender.send(
+                        socket,
+                        new WriteRequestPacket(target.toString(), tftp.shared.Mode.OCTET, options.toMap()),
+                        address, port, blocks, (short) 0, options
+                );
+            }
+            return target;
+        });
+    }
+
+    //run a transfer for each client at once, and check every file transferred in full
+    private void runClients(Transfer transfer) throws Exception {
+        List<Future<Path>> results = new ArrayList<>(clients);
+        for (int i = 0; i < clients; ++i) {
+            int client = i;
+            results.add(clientPool.submit((Callable<Path>) () -> transfer.run(client)));
+        }
+        for (Future<Path> result : results) {
+            Path target;
+            try {
+                target = result.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("transfer failed", e.getCause());
+            }
+            if (Files.size(target) != fileSize) {
+                throw new IllegalStateException("transfer incomplete: " + target);
+            }
+        }
+    }
+
+    private static void writeRandomFile(Path path, long size) throws IOException {
+        Random random = new Random(0);
+        byte[] chunk = new byte[1024 * 1024];
+        try (OutputStream out = Files.newOutputStream(path)) {
+            for (long written = 0; written < size; written += chunk.length) {
+                random.nextBytes(chunk);
+                out.write(chunk, 0, (int) Math.min(chunk.length, size - written));
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private interface Transfer {
+        Path run(int client) throws Exception;
+    }
+
+}